@@ -0,0 +1,147 @@
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Pool de tampons par classes de taille (puissances de deux, 256 o à 1 Mo),
+ * en tas (byte[]) et hors tas (ByteBuffer direct). Un tampon rendu peut être
+ * plus grand que la taille demandée : l'appelant garde sa propre longueur.
+ * Au-delà de la plus grande classe, l'allocation n'est pas mise en pool.
+ */
+final class BufferPool {
+
+    private static final int MIN_SHIFT = 8;
+    private static final int MAX_SHIFT = 20;
+    private static final int BYTES_PER_CLASS = 4 * 1024 * 1024;
+
+    private static final BufferPool SHARED = new BufferPool();
+
+    private final SizeClass<byte[]>[] heap;
+    private final SizeClass<ByteBuffer>[] direct;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder discards = new LongAdder();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool() {
+        heap = new SizeClass[MAX_SHIFT - MIN_SHIFT + 1];
+        direct = new SizeClass[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < heap.length; i++) {
+            int size = 1 << (MIN_SHIFT + i);
+            int max = Math.max(4, BYTES_PER_CLASS / size);
+            heap[i] = new SizeClass<>(max);
+            direct[i] = new SizeClass<>(max);
+        }
+    }
+
+    static BufferPool shared() { return SHARED; }
+
+    /* ---------------- TAS ---------------- */
+
+    byte[] acquire(int size) {
+        int c = classOf(size);
+        if (c < 0) {
+            misses.increment();
+            return new byte[size];
+        }
+        byte[] b = heap[c].poll();
+        if (b != null) {
+            hits.increment();
+            return b;
+        }
+        misses.increment();
+        return new byte[1 << (MIN_SHIFT + c)];
+    }
+
+    void release(byte[] b) {
+        if (b == null) return;
+        int c = exactClassOf(b.length);
+        if (c < 0 || !heap[c].offer(b)) {
+            discards.increment();
+            return;
+        }
+        releases.increment();
+    }
+
+    /* ---------------- HORS TAS ---------------- */
+
+    // tampon direct remis à zéro (position 0, limite = capacité)
+    ByteBuffer acquireDirect(int size) {
+        int c = classOf(size);
+        if (c < 0) {
+            misses.increment();
+            return ByteBuffer.allocateDirect(size);
+        }
+        ByteBuffer b = direct[c].poll();
+        if (b != null) {
+            hits.increment();
+            return b.clear();
+        }
+        misses.increment();
+        return ByteBuffer.allocateDirect(1 << (MIN_SHIFT + c));
+    }
+
+    void releaseDirect(ByteBuffer b) {
+        if (b == null || !b.isDirect()) return;
+        int c = exactClassOf(b.capacity());
+        if (c < 0 || !direct[c].offer(b)) {
+            discards.increment();
+            return;
+        }
+        releases.increment();
+    }
+
+    /* ---------------- STATS ---------------- */
+
+    long hits() { return hits.sum(); }
+    long misses() { return misses.sum(); }
+    long releases() { return releases.sum(); }
+    long discards() { return discards.sum(); }
+
+    @Override
+    public String toString() {
+        return "BufferPool[hits=" + hits() + ", misses=" + misses() +
+                ", releases=" + releases() + ", discards=" + discards() + "]";
+    }
+
+    private static int classOf(int size) {
+        if (size > 1 << MAX_SHIFT) return -1;
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1));
+        return shift - MIN_SHIFT;
+    }
+
+    // seuls les tampons issus du pool (taille exacte d'une classe) y retournent
+    private static int exactClassOf(int capacity) {
+        if (Integer.bitCount(capacity) != 1) return -1;
+        int shift = Integer.numberOfTrailingZeros(capacity);
+        if (shift < MIN_SHIFT || shift > MAX_SHIFT) return -1;
+        return shift - MIN_SHIFT;
+    }
+
+    private static final class SizeClass<T> {
+        private final Queue<T> free = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger count = new AtomicInteger();
+        private final int max;
+
+        SizeClass(int max) { this.max = max; }
+
+        T poll() {
+            T t = free.poll();
+            if (t != null) count.decrementAndGet();
+            return t;
+        }
+
+        boolean offer(T t) {
+            if (count.incrementAndGet() > max) {
+                count.decrementAndGet();
+                return false;
+            }
+            free.offer(t);
+            return true;
+        }
+    }
+}
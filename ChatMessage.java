@@ -1,17 +1,39 @@
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.io.ByteArrayOutputStream;
-import java.util.Arrays;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32C;
 
 public class ChatMessage {
 
+    // version 1 : corps JSON ; version 2 : corps binaire compact (annoncé au login) ;
+    // version 3 : même corps binaire, checksum CRC32C au lieu de la somme des octets ;
+    // version 4 : version 3, corps compressés au-delà d'un seuil (voir FrameCompression),
+    //             sauf si le login annonce "deflate":0 ;
+    // version 5 : version 4, noms désignés par identifiant entier (voir Symbols) ;
+    // version 6 : version 5, numéro de requête après le timestamp
+    public static final int VERSION_JSON = 1;
+    public static final int VERSION_BINARY = 2;
+    public static final int VERSION_CRC32C = 3;
+    public static final int VERSION_DEFLATE = 4;
+    public static final int VERSION_INTERNED = 5;
+    public static final int VERSION_REQUEST_ID = 6;
+    public static final int MAX_VERSION = VERSION_REQUEST_ID;
+
     private MessageType type;
     private int version;
     private long timestamp;
+    private int requestId;              // 0 : pas de réponse attendue (voir MessageType.ACK)
+    private boolean deflate = true;     // login : false si le client refuse les trames compressées
     private String sender;
     private String recipient;
     private String room;
     private String content;
+    private byte[] raw;                 // contenu binaire (FILE_CHUNK) à la place de content
+    private int rawOffset;
+    private int rawLength;
+    private int senderId;               // identifiants (voir Symbols), Symbols.NONE : nom en texte
+    private int recipientId;
+    private int roomId;
 
     public ChatMessage(MessageType type, String sender, String recipient, String room, String content) {
         this.type = type;
@@ -23,18 +45,79 @@ public class ChatMessage {
         this.content = content;
     }
 
+    ChatMessage(MessageType type, int version, long timestamp, String sender,
+                        String recipient, String room, String content) {
+        this(type, sender, recipient, room, content);
+        this.version = version;
+        this.timestamp = timestamp;
+    }
+
     public MessageType getType() { return type; }
+    public int getVersion() { return version; }
+    public long getTimestamp() { return timestamp; }
     public String getSender() { return sender; }
     public String getRecipient() { return recipient; }
     public String getRoom() { return room; }
     public String getContent() { return content; }
 
+    public void setVersion(int version) { this.version = version; }
+
+    // Numéro choisi par le client, renvoyé tel quel dans la réponse (JSON :
+    // clé "requestId", absente si 0 ; binaire : version 6 seulement)
+    public int getRequestId() { return requestId; }
+    public ChatMessage setRequestId(int requestId) {
+        this.requestId = requestId;
+        return this;
+    }
+
+    // Capacité annoncée au login, indépendante de la version : un client peut
+    // négocier les versions 5 et 6 sans recevoir de trames compressées.
+    // JSON : clé "deflate":0, absente sinon ; binaire : jamais transmise.
+    public boolean acceptsDeflate() { return deflate; }
+    public ChatMessage setDeflate(boolean deflate) {
+        this.deflate = deflate;
+        return this;
+    }
+
+    int getSenderId() { return senderId; }
+    int getRecipientId() { return recipientId; }
+    int getRoomId() { return roomId; }
+
+    // En version 5, chaque nom dont l'identifiant est connu part sous forme
+    // d'identifiant ; le destinataire doit déjà connaître la liaison.
+    ChatMessage setSymbols(int senderId, int recipientId, int roomId) {
+        this.senderId = sender == null ? Symbols.NONE : senderId;
+        this.recipientId = recipient == null ? Symbols.NONE : recipientId;
+        this.roomId = room == null ? Symbols.NONE : roomId;
+        return this;
+    }
+
+    boolean hasSymbols() {
+        return (senderId | recipientId | roomId) != Symbols.NONE;
+    }
+
+    // Morceau de fichier : content est fait d'octets bruts, lus dans data sans
+    // copie jusqu'à l'encodage. Encodable en binaire seulement (version >= 2).
+    static ChatMessage chunk(String sender, String recipient, String room, byte[] data, int offset, int length) {
+        ChatMessage msg = new ChatMessage(MessageType.FILE_CHUNK, sender, recipient, room, null);
+        msg.raw = data;
+        msg.rawOffset = offset;
+        msg.rawLength = length;
+        return msg;
+    }
+
+    byte[] rawContent() { return raw; }
+    int rawOffset() { return rawOffset; }
+    int rawLength() { return rawLength; }
+
     /* ---------------- JSON MINIMALISTE ---------------- */
 
     public String toJSON() {
         return "{\"type\":\"" + type +
                 "\",\"version\":" + version +
                 ",\"timestamp\":" + timestamp +
+                (requestId != 0 ? ",\"requestId\":" + requestId : "") +
+                (deflate ? "" : ",\"deflate\":0") +
                 ",\"sender\":" + quote(sender) +
                 ",\"recipient\":" + quote(recipient) +
                 ",\"room\":" + quote(room) +
@@ -47,88 +130,311 @@ public class ChatMessage {
         return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
     }
 
-    /* ---------------- PARSE JSON ---------------- */
+    /* ---------------- SERIALIZATION ---------------- */
 
-    public static ChatMessage fromJSON(String json) {
+    // encodage selon la version négociée avec le pair
+    public byte[] toBytes(int wireVersion) {
+        EncodedFrame frame = encode(wireVersion, null);
+        return frame == null ? null : frame.array();
+    }
+
+    public byte[] toBytes() {
+        return toBytes(VERSION_JSON);
+    }
+
+    EncodedFrame encode(int wireVersion, BufferPool pool) {
+        return encode(wireVersion, pool, true);
+    }
+
+    // Trame [longueur][checksum][corps] écrite directement dans un tableau
+    // du pool (ou exact si pool == null), sans String ni flux intermédiaire.
+    // deflate : le pair accepte les corps compressés (version 4 et plus).
+    EncodedFrame encode(int wireVersion, BufferPool pool, boolean deflate) {
+        long start = System.nanoTime();
         try {
-            String type = extract(json, "\"type\":\"", "\"");
-            String sender = unquote(extract(json, "\"sender\":", ","));
-            String recipient = unquote(extract(json, "\"recipient\":", ","));
-            String room = unquote(extract(json, "\"room\":", ","));
-
-            String contentField = json.substring(json.indexOf("\"content\":") + 10);
-            String content = unquote(contentField.replace("}", "").trim());
-
-            return new ChatMessage(
-                    MessageType.valueOf(type),
-                    sender,
-                    recipient,
-                    room,
-                    content
-            );
+            boolean binary = wireVersion >= VERSION_BINARY;
+            if (raw != null && !binary) throw new IllegalStateException("raw content needs the binary protocol");
+            int length = binary ? binaryLength(wireVersion) : jsonLength();
+
+            byte[] frame = pool == null ? new byte[8 + length] : pool.acquire(8 + length);
+            int end = binary ? putBinary(frame, 8, wireVersion) : putJson(frame, 8);
+            if (end != 8 + length) throw new IllegalStateException("length mismatch");
+
+            writeHeader(frame, length, checksum(frame, 8, length));
+            EncodedFrame encoded = new EncodedFrame(frame, 8 + length, pool, type);
+            if (wireVersion >= VERSION_DEFLATE && deflate) encoded = FrameCompression.compress(encoded, pool);
+            return wireVersion >= VERSION_INTERNED && hasSymbols() ? encoded.referencing(this) : encoded;
 
         } catch (Exception e) {
             return null;
+        } finally {
+            ChatMetrics.shared().encodeNanos.record(System.nanoTime() - start);
         }
     }
 
-    private static String extract(String json, String startToken, String endToken) {
-        int start = json.indexOf(startToken);
-        if (start == -1) return null;
-        start += startToken.length();
-        int end = json.indexOf(endToken, start);
-        if (end == -1) return null;
-        return json.substring(start, end);
+    // Le premier octet du corps suffit à choisir : un corps JSON commence par
+    // '{', un corps binaire par sa version.
+    static long checksum(byte[] data, int offset, int length) {
+        return length > 0 && data[offset] >= VERSION_CRC32C && data[offset] <= MAX_VERSION
+                ? crc32c(data, offset, length)
+                : byteSum(data, offset, length);
+    }
+
+    // calculé sur place dans le tableau de la trame (intrinsèque sur x86 et ARM)
+    static long crc32c(byte[] data, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    // somme des octets du corps, sur 32 bits (versions 1 et 2)
+    static long byteSum(byte[] data, int offset, int length) {
+        long sum = 0;
+        for (int i = offset; i < offset + length; i++) sum += (data[i] & 0xFF);
+        return sum & 0xFFFFFFFFL;
     }
 
-    private static String unquote(String s) {
-        if (s == null || s.equals("null")) return null;
-        s = s.trim();
-        if (s.startsWith("\"") && s.endsWith("\"")) {
-            s = s.substring(1, s.length() - 1)
-                    .replace("\\\"", "\"")
-                    .replace("\\\\", "\\");
+    // length : longueur du corps, drapeau de compression compris
+    static void writeHeader(byte[] frame, int length, long checksum) {
+        // length
+        frame[0] = (byte) ((length >> 24) & 0xFF);
+        frame[1] = (byte) ((length >> 16) & 0xFF);
+        frame[2] = (byte) ((length >> 8) & 0xFF);
+        frame[3] = (byte) (length & 0xFF);
+
+        // checksum
+        frame[4] = (byte) ((checksum >> 24) & 0xFF);
+        frame[5] = (byte) ((checksum >> 16) & 0xFF);
+        frame[6] = (byte) ((checksum >> 8) & 0xFF);
+        frame[7] = (byte) (checksum & 0xFF);
+    }
+
+    /* ---------------- CORPS JSON (mêmes octets que toJSON) ---------------- */
+
+    private static final byte[] J_TYPE = ascii("{\"type\":\"");
+    private static final byte[] J_VERSION = ascii("\",\"version\":");
+    private static final byte[] J_TIMESTAMP = ascii(",\"timestamp\":");
+    private static final byte[] J_REQUEST_ID = ascii(",\"requestId\":");
+    private static final byte[] J_NO_DEFLATE = ascii(",\"deflate\":0");
+    private static final byte[] J_SENDER = ascii(",\"sender\":");
+    private static final byte[] J_RECIPIENT = ascii(",\"recipient\":");
+    private static final byte[] J_ROOM = ascii(",\"room\":");
+    private static final byte[] J_CONTENT = ascii(",\"content\":");
+    private static final byte[] J_NULL = ascii("null");
+
+    private int jsonLength() {
+        return J_TYPE.length + type.name().length() + J_VERSION.length + digits(version)
+                + J_TIMESTAMP.length + digits(timestamp)
+                + (requestId != 0 ? J_REQUEST_ID.length + digits(requestId) : 0)
+                + (deflate ? 0 : J_NO_DEFLATE.length)
+                + J_SENDER.length + quotedLength(sender) + J_RECIPIENT.length + quotedLength(recipient)
+                + J_ROOM.length + quotedLength(room) + J_CONTENT.length + quotedLength(content) + 1;
+    }
+
+    private int putJson(byte[] b, int p) {
+        p = put(b, p, J_TYPE);
+        String name = type.name();
+        for (int i = 0; i < name.length(); i++) b[p++] = (byte) name.charAt(i);
+        p = put(b, p, J_VERSION);
+        p = putDigits(b, p, version);
+        p = put(b, p, J_TIMESTAMP);
+        p = putDigits(b, p, timestamp);
+        if (requestId != 0) {
+            p = put(b, p, J_REQUEST_ID);
+            p = putDigits(b, p, requestId);
         }
-        return s;
+        if (!deflate) p = put(b, p, J_NO_DEFLATE);
+        p = put(b, p, J_SENDER);
+        p = putQuoted(b, p, sender);
+        p = put(b, p, J_RECIPIENT);
+        p = putQuoted(b, p, recipient);
+        p = put(b, p, J_ROOM);
+        p = putQuoted(b, p, room);
+        p = put(b, p, J_CONTENT);
+        p = putQuoted(b, p, content);
+        b[p++] = '}';
+        return p;
     }
 
-    /* ---------------- SERIALIZATION ---------------- */
+    private static int quotedLength(String s) {
+        if (s == null) return J_NULL.length;
+        int n = 2 + utf8Length(s);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') n++;
+        }
+        return n;
+    }
 
-    public byte[] toBytes() {
-        try {
-            String json = toJSON();
-            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+    private static int putQuoted(byte[] b, int p, String s) {
+        if (s == null) return put(b, p, J_NULL);
+        b[p++] = '"';
+        p = putUtf8(b, p, s, true);
+        b[p++] = '"';
+        return p;
+    }
 
-            int length = body.length;
+    private static int digits(long v) {
+        int n = v < 0 ? 2 : 1;
+        v = Math.abs(v);
+        while ((v /= 10) != 0) n++;
+        return n;
+    }
 
-            long checksum = 0;
-            for (byte b : body) checksum += (b & 0xFF);
+    private static int putDigits(byte[] b, int p, long v) {
+        if (v < 0) {
+            b[p++] = '-';
+            v = -v;
+        }
+        int end = p + digits(v);
+        int i = end;
+        do {
+            b[--i] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        return end;
+    }
 
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
+    /* ---------------- CORPS BINAIRE COMPACT ---------------- */
 
-            // length
-            out.write((length >> 24) & 0xFF);
-            out.write((length >> 16) & 0xFF);
-            out.write((length >> 8) & 0xFF);
-            out.write(length & 0xFF);
+    // premier octet d'un corps binaire : sa version, de 2 à MAX_VERSION
+    static boolean isBinaryBody(byte first) {
+        return first >= VERSION_BINARY && first <= MAX_VERSION;
+    }
 
-            // checksum
-            out.write((int)((checksum >> 24) & 0xFF));
-            out.write((int)((checksum >> 16) & 0xFF));
-            out.write((int)((checksum >> 8) & 0xFF));
-            out.write((int)(checksum & 0xFF));
+    // corps = [version:1][type:1][timestamp:8] puis sender, recipient, room, content
+    // chacun précédé de sa longueur UTF-8 + 1 en varint (0 = null).
+    // Version 5 : sender, recipient et room précédés de (longueur + 1) << 1,
+    // ou réduits à (identifiant << 1) | 1 en varint, sans le texte.
+    // Version 6 : [requestId] en varint entre le timestamp et sender.
+    private int binaryLength(int wireVersion) {
+        int contentLength = raw != null ? varintLength(rawLength + 1) + rawLength : fieldLength(content);
+        if (wireVersion < VERSION_INTERNED) {
+            return 10 + fieldLength(sender) + fieldLength(recipient) + fieldLength(room) + contentLength;
+        }
+        int header = wireVersion >= VERSION_REQUEST_ID ? 10 + varintLength(requestId) : 10;
+        return header + nameLength(sender, senderId) + nameLength(recipient, recipientId) + nameLength(room, roomId)
+                + contentLength;
+    }
 
-            // body
-            out.write(body);
+    private int putBinary(byte[] b, int p, int wireVersion) {
+        b[p++] = (byte) Math.min(wireVersion, MAX_VERSION);
+        b[p++] = (byte) type.ordinal();
+        for (int shift = 56; shift >= 0; shift -= 8) b[p++] = (byte) (timestamp >> shift);
+        if (wireVersion >= VERSION_REQUEST_ID) p = putVarint(b, p, requestId);
+        if (wireVersion < VERSION_INTERNED) {
+            p = putField(b, p, sender);
+            p = putField(b, p, recipient);
+            p = putField(b, p, room);
+        } else {
+            p = putName(b, p, sender, senderId);
+            p = putName(b, p, recipient, recipientId);
+            p = putName(b, p, room, roomId);
+        }
+        if (raw == null) return putField(b, p, content);
+        p = putVarint(b, p, rawLength + 1);
+        System.arraycopy(raw, rawOffset, b, p, rawLength);
+        return p + rawLength;
+    }
 
-            return out.toByteArray();
+    private static int fieldLength(String s) {
+        int len = s == null ? 0 : utf8Length(s);
+        return varintLength(s == null ? 0 : len + 1) + len;
+    }
 
-        } catch (Exception e) {
-            return null;
+    private static int putField(byte[] b, int p, String s) {
+        p = putVarint(b, p, s == null ? 0 : utf8Length(s) + 1);
+        return s == null ? p : putUtf8(b, p, s, false);
+    }
+
+    private static int nameLength(String s, int id) {
+        if (id != Symbols.NONE) return varintLength((id << 1) | 1);
+        int len = s == null ? 0 : utf8Length(s);
+        return varintLength(s == null ? 0 : (len + 1) << 1) + len;
+    }
+
+    private static int putName(byte[] b, int p, String s, int id) {
+        if (id != Symbols.NONE) return putVarint(b, p, (id << 1) | 1);
+        if (s == null) return putVarint(b, p, 0);
+        p = putVarint(b, p, (utf8Length(s) + 1) << 1);
+        return putUtf8(b, p, s, false);
+    }
+
+    private static int varintLength(int n) {
+        int size = 1;
+        while ((n >>>= 7) != 0) size++;
+        return size;
+    }
+
+    private static int putVarint(byte[] b, int p, int n) {
+        while ((n & ~0x7F) != 0) {
+            b[p++] = (byte) ((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        b[p++] = (byte) n;
+        return p;
+    }
+
+    /* ---------------- UTF-8 ---------------- */
+
+    // même résultat que getBytes(UTF_8) : un surrogate isolé devient '?'
+    private static int utf8Length(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) n++;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                n += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) n++;
+            else n += 3;
         }
+        return n;
+    }
+
+    private static int putUtf8(byte[] b, int p, String s, boolean jsonEscape) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (jsonEscape && (c == '"' || c == '\\')) b[p++] = '\\';
+                b[p++] = (byte) c;
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xC0 | (c >> 6));
+                b[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                b[p++] = (byte) (0xF0 | (cp >> 18));
+                b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                b[p++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                b[p++] = '?';
+            } else {
+                b[p++] = (byte) (0xE0 | (c >> 12));
+                b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return p;
+    }
+
+    private static int put(byte[] b, int p, byte[] src) {
+        System.arraycopy(src, 0, b, p, src.length);
+        return p + src.length;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
     }
 
     public static ChatMessage fromBytes(byte[] data) {
+        return fromBytes(data, null);
+    }
+
+    // names : liaisons reçues du pair pour lire les noms désignés par
+    // identifiant (version 5) ; null les refuse
+    static ChatMessage fromBytes(byte[] data, IntFunction<String> names) {
         try {
             int length = ((data[0] & 0xFF) << 24) |
                          ((data[1] & 0xFF) << 16) |
@@ -140,14 +446,11 @@ public class ChatMessage {
                             ((data[6] & 0xFFL) << 8) |
                             (data[7] & 0xFFL);
 
-            byte[] body = Arrays.copyOfRange(data, 8, 8 + length);
-
-            long actual = 0;
-            for (byte b : body) actual += (b & 0xFF);
-
-            if (actual != expected) return null;
+            if (checksum(data, 8, length) != expected) return null;
 
-            return fromJSON(new String(body, StandardCharsets.UTF_8));
+            // lecture en place, sans copie du corps (JSON ou binaire)
+            MessageView view = MessageView.parse(data, 8, length, names);
+            return view == null ? null : view.toMessage();
 
         } catch (Exception e) {
             return null;
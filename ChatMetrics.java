@@ -0,0 +1,225 @@
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * Métriques du serveur de chat : compteurs LongAdder et histogrammes, mis
+ * à jour sur les chemins chauds sans verrou ni allocation. La lecture
+ * (JMX ou page texte sur un port local) agrège à la demande. Une instance
+ * partagée par processus, comme BufferPool.
+ */
+final class ChatMetrics implements DynamicMBean {
+
+    private static final MessageType[] TYPES = MessageType.values();
+    private static final ChatMetrics SHARED = new ChatMetrics();
+
+    final LongAdder connectionsOpened = new LongAdder();
+    final LongAdder connectionsClosed = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder parseFailures = new LongAdder();
+    final LongAdder framesDropped = new LongAdder();
+    final LongAdder overflowDisconnects = new LongAdder();
+    final LongAdder idleDisconnects = new LongAdder();
+    final LongAdder sessionThrottled = new LongAdder();            // messages refusés par la limite de session
+    final LongAdder roomThrottled = new LongAdder();               // ... par la limite de diffusion du salon
+    final LongAdder throttledBytes = new LongAdder();
+    private final LongAdder[] framesIn = new LongAdder[TYPES.length];
+    private final LongAdder[] framesOut = new LongAdder[TYPES.length];
+    private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    final Histogram handshakeNanos = new Histogram();
+    final Histogram encodeNanos = new Histogram();
+    final Histogram fanoutNanos = new Histogram();
+    final Histogram queueDepth = new Histogram();
+
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    private ChatMetrics() {
+        for (int i = 0; i < TYPES.length; i++) {
+            framesIn[i] = new LongAdder();
+            framesOut[i] = new LongAdder();
+        }
+        BufferPool pool = BufferPool.shared();
+        gauge("chat_buffer_pool_hits_total", pool::hits);
+        gauge("chat_buffer_pool_misses_total", pool::misses);
+        gauge("chat_buffer_pool_releases_total", pool::releases);
+        gauge("chat_buffer_pool_discards_total", pool::discards);
+    }
+
+    static ChatMetrics shared() { return SHARED; }
+
+    /* ---------------- ENREGISTREMENT ---------------- */
+
+    void frameIn(MessageType type, int bytes) {
+        if (type != null) framesIn[type.ordinal()].increment();
+        bytesIn.add(bytes);
+    }
+
+    void frameOut(MessageType type, int bytes) {
+        if (type != null) framesOut[type.ordinal()].increment();
+        bytesOut.add(bytes);
+    }
+
+    // exceptions autrefois ignorées, comptées par endroit
+    void error(String site) {
+        LongAdder counter = errors.get(site);
+        if (counter == null) counter = errors.computeIfAbsent(site, s -> new LongAdder());
+        counter.increment();
+    }
+
+    // valeur lue à chaque collecte (tailles de file, état des pools...)
+    void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /* ---------------- LECTURE ---------------- */
+
+    // nom (avec étiquettes éventuelles, format texte Prometheus) -> valeur
+    Map<String, Number> snapshot() {
+        Map<String, Number> m = new LinkedHashMap<>();
+        long opened = connectionsOpened.sum();
+        long closed = connectionsClosed.sum();
+        m.put("chat_connections_opened_total", opened);
+        m.put("chat_connections_closed_total", closed);
+        m.put("chat_connections_active", opened - closed);
+        m.put("chat_bytes_in_total", bytesIn.sum());
+        m.put("chat_bytes_out_total", bytesOut.sum());
+        m.put("chat_parse_failures_total", parseFailures.sum());
+        m.put("chat_frames_dropped_total", framesDropped.sum());
+        m.put("chat_overflow_disconnects_total", overflowDisconnects.sum());
+        m.put("chat_idle_disconnects_total", idleDisconnects.sum());
+        m.put("chat_rate_limited_total{scope=\"session\"}", sessionThrottled.sum());
+        m.put("chat_rate_limited_total{scope=\"room\"}", roomThrottled.sum());
+        m.put("chat_rate_limited_bytes_total", throttledBytes.sum());
+        for (MessageType type : TYPES) {
+            m.put("chat_frames_in_total{type=\"" + type + "\"}", framesIn[type.ordinal()].sum());
+        }
+        for (MessageType type : TYPES) {
+            m.put("chat_frames_out_total{type=\"" + type + "\"}", framesOut[type.ordinal()].sum());
+        }
+        for (Map.Entry<String, LongAdder> e : new ConcurrentSkipListMap<>(errors).entrySet()) {
+            m.put("chat_errors_total{site=\"" + e.getKey() + "\"}", e.getValue().sum());
+        }
+        histogram(m, "chat_handshake_micros", handshakeNanos, 1000);
+        histogram(m, "chat_encode_micros", encodeNanos, 1000);
+        histogram(m, "chat_fanout_micros", fanoutNanos, 1000);
+        histogram(m, "chat_queue_depth", queueDepth, 1);
+        for (Map.Entry<String, LongSupplier> g : gauges.entrySet()) {
+            m.put(g.getKey(), g.getValue().getAsLong());
+        }
+        return m;
+    }
+
+    private static void histogram(Map<String, Number> m, String name, Histogram h, double unit) {
+        Histogram.Snapshot s = h.snapshot();
+        m.put(name + "{quantile=\"0.5\"}", s.quantile(0.5) / unit);
+        m.put(name + "{quantile=\"0.9\"}", s.quantile(0.9) / unit);
+        m.put(name + "{quantile=\"0.99\"}", s.quantile(0.99) / unit);
+        m.put(name + "{quantile=\"0.999\"}", s.quantile(0.999) / unit);
+        m.put(name + "_max", s.max / unit);
+        m.put(name + "_sum", s.sum / unit);
+        m.put(name + "_count", s.count);
+    }
+
+    // une ligne « nom valeur » par métrique
+    String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Map.Entry<String, Number> e : snapshot().entrySet()) {
+            sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /* ---------------- EXPOSITION ---------------- */
+
+    void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("chat:type=ChatMetrics");
+            if (!server.isRegistered(name)) server.registerMBean(this, name);
+        } catch (JMException e) {
+            System.err.println("metrics MBean not registered: " + e);
+        }
+    }
+
+    // page texte sur l'interface locale uniquement (GET /metrics)
+    HttpServer startEndpoint(int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start();
+        return http;
+    }
+
+    // attributs JMX : mêmes noms, étiquettes aplaties (chat_frames_in_total_TEXT_MESSAGE)
+    private static String attributeName(String key) {
+        return key.replaceAll("\\{\\w+=\"([^\"]*)\"\\}", "_$1");
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        for (Map.Entry<String, Number> e : snapshot().entrySet()) {
+            if (attributeName(e.getKey()).equals(attribute)) return e.getValue();
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> byName = new LinkedHashMap<>();
+        for (Map.Entry<String, Number> e : snapshot().entrySet()) byName.put(attributeName(e.getKey()), e.getValue());
+        AttributeList list = new AttributeList();
+        for (String a : attributes) {
+            Number value = byName.get(a);
+            if (value != null) list.add(new Attribute(a, value));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Number> e : snapshot().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(attributeName(e.getKey()), e.getValue().getClass().getName(),
+                    e.getKey(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Chat server metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/*
+ * Annuaire concurrent des utilisateurs connectés et des salons.
+ * Chaque ClientSession garde l'index inverse de ses salons : la
+ * déconnexion ne parcourt que les salons rejoints, pas tous les salons.
+ * Les noms sont aussi internés (voir Symbols) : une trame qui désigne un
+ * salon ou un destinataire par identifiant est routée par simple indexation.
+ * L'identifiant est rendu quand l'utilisateur part ou que le salon ferme.
+ */
+final class ChatRegistry {
+
+    private final ConcurrentHashMap<String, ClientSession> users = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ChatRoom> rooms = new ConcurrentHashMap<>();
+    private final Symbols symbols = new Symbols();
+    private final IdTable<ClientSession> usersById = new IdTable<>();
+    private final IdTable<ChatRoom> roomsById = new IdTable<>();
+    private final Consumer<String> roomClosed;
+
+    ChatRegistry() {
+        this(name -> {});
+    }
+
+    // roomClosed reçoit le nom d'un salon retiré de l'annuaire parce que vide
+    ChatRegistry(Consumer<String> roomClosed) {
+        this.roomClosed = roomClosed;
+    }
+
+    // false si le nom est déjà pris
+    boolean register(String username, ClientSession session) {
+        if (users.putIfAbsent(username, session) != null) return false;
+        int id = symbols.intern(username);
+        session.symbols = symbols;
+        session.userId = id;
+        if (id != Symbols.NONE) usersById.set(Symbols.slot(id), session);
+        return true;
+    }
+
+    ClientSession user(String username) {
+        return username == null ? null : users.get(username);
+    }
+
+    // null aussi pour un identifiant libéré depuis (génération différente)
+    ClientSession user(int id) {
+        if (id == Symbols.NONE) return null;
+        ClientSession session = usersById.get(Symbols.slot(id));
+        return session != null && session.userId == id ? session : null;
+    }
+
+    ChatRoom room(String name) {
+        return rooms.get(name);
+    }
+
+    ChatRoom room(int id) {
+        if (id == Symbols.NONE) return null;
+        ChatRoom room = roomsById.get(Symbols.slot(id));
+        return room != null && room.id == id ? room : null;
+    }
+
+    Symbols symbols() { return symbols; }
+
+    // chemin rapide sans verrou quand la session est déjà membre du salon
+    ChatRoom join(String roomName, ClientSession session) {
+        ChatRoom room = rooms.get(roomName);
+        if (room != null && session.rooms.contains(room)) return room;
+
+        while (true) {
+            room = rooms.computeIfAbsent(roomName, this::newRoom);
+            if (room.addMember(session)) return room;
+            // salon vidé et fermé entre-temps : on en recrée un
+            remove(room);
+        }
+    }
+
+    // indexé dans la fonction de création : une seule fois par salon, avant sa publication
+    private ChatRoom newRoom(String name) {
+        ChatRoom room = new ChatRoom(name, symbols.intern(name));
+        if (room.id != Symbols.NONE) roomsById.set(Symbols.slot(room.id), room);
+        return room;
+    }
+
+    private void remove(ChatRoom room) {
+        if (!rooms.remove(room.getName(), room)) return;
+        if (room.id != Symbols.NONE) {
+            roomsById.compareAndSet(Symbols.slot(room.id), room, null);
+            symbols.release(room.id);
+        }
+        roomClosed.accept(room.getName());
+    }
+
+    void leave(ChatRoom room, ClientSession session) {
+        if (room.removeMember(session) && room.isClosed()) remove(room);
+    }
+
+    void unregister(ClientSession session) {
+        if (session.username != null && users.remove(session.username, session) && session.userId != Symbols.NONE) {
+            usersById.compareAndSet(Symbols.slot(session.userId), session, null);
+            symbols.release(session.userId);
+        }
+        for (ChatRoom room : session.rooms) {
+            leave(room, session);
+        }
+    }
+
+    int userCount() { return users.size(); }
+    int roomCount() { return rooms.size(); }
+}
@@ -0,0 +1,106 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Membres en copie sur écriture : la diffusion itère un simple tableau sans
+// verrou ; seuls les arrivées et départs (rares) copient le tableau.
+class ChatRoom {
+    private static final ClientSession[] EMPTY = new ClientSession[0];
+
+    private final String name;
+    final int id;                                   // voir Symbols, NONE au-delà de la table
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile ClientSession[] members = EMPTY;
+    private boolean closed;
+    private volatile TokenBucket fanout;            // créé à la première diffusion
+    private ClientSession[] partitioned;           // shard du salon seulement
+    private ClientSession[][] byShard;
+
+    ChatRoom(String name) { this(name, Symbols.NONE); }
+
+    ChatRoom(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    String getName() { return name; }
+
+    // false si le salon a été fermé (vide) : l'appelant doit en recréer un
+    boolean addMember(ClientSession session) {
+        if (session == null) return true;
+        lock.lock();
+        try {
+            if (closed) return false;
+            if (!session.rooms.add(this)) return true;
+            ClientSession[] current = members;
+            ClientSession[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = session;
+            members = next;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // true si la session était membre ; le salon se ferme quand il devient vide
+    boolean removeMember(ClientSession session) {
+        lock.lock();
+        try {
+            if (!session.rooms.remove(this)) return false;
+            ClientSession[] current = members;
+            int i = 0;
+            while (i < current.length && current[i] != session) i++;
+            if (i == current.length) return true;
+            ClientSession[] next = new ClientSession[current.length - 1];
+            System.arraycopy(current, 0, next, 0, i);
+            System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+            members = next;
+            if (next.length == 0) closed = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // instantané à ne pas modifier
+    ClientSession[] getMembers() { return members; }
+
+    TokenBucket fanoutLimit(long bytesPerSecond) {
+        TokenBucket bucket = fanout;
+        if (bucket != null) return bucket;
+        lock.lock();
+        try {
+            if (fanout == null) fanout = TokenBucket.perSecond(bytesPerSecond);
+            return fanout;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Membres regroupés par shard de session, recalculés quand le tableau a
+    // changé. Seul le shard propriétaire du salon appelle cette méthode.
+    ClientSession[][] membersByShard(ShardPool pool) {
+        ClientSession[] current = members;
+        if (current == partitioned && byShard.length == pool.size()) return byShard;
+        int[] counts = new int[pool.size()];
+        for (ClientSession member : current) counts[pool.shardOf(member.seq)]++;
+        ClientSession[][] parts = new ClientSession[counts.length][];
+        for (int i = 0; i < parts.length; i++) parts[i] = counts[i] == 0 ? EMPTY : new ClientSession[counts[i]];
+        Arrays.fill(counts, 0);
+        for (ClientSession member : current) {
+            int shard = pool.shardOf(member.seq);
+            parts[shard][counts[shard]++] = member;
+        }
+        partitioned = current;
+        byShard = parts;
+        return parts;
+    }
+}
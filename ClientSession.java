@@ -0,0 +1,173 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+class ClientSession {
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    final int seq = SEQUENCE.getAndIncrement();                    // choisit le shard de livraison
+    volatile String username;
+    volatile int userId = Symbols.NONE;                            // voir Symbols, fixé au login
+    volatile int wireVersion = ChatMessage.VERSION_JSON;
+    volatile boolean deflate = true;                               // accepte les trames compressées (version 4+)
+    volatile boolean closed;
+    volatile long lastRead;                                        // tick de TimerWheel de la dernière trame reçue
+    int requestId;                                                 // requête en cours, thread de lecture seulement
+    boolean answered;
+    TokenBucket messageLimit;                                      // créés au premier message (voir admit)
+    TokenBucket byteLimit;
+    final Set<ChatRoom> rooms = ConcurrentHashMap.newKeySet();     // index inverse des salons rejoints
+    final OutputStream out;
+    final OutboundQueue outbound;
+    final FrameCompression compression = new FrameCompression();   // Inflater de la session
+    final Map<Integer, FileTransfer> transfers = new ConcurrentHashMap<>();   // envoyés par cette session
+    private final Executor writer;
+    private final Closeable connection;
+    private final FlushPolicy flush;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ArrayDeque<EncodedFrame> unflushed = new ArrayDeque<>();   // écrites, pas encore vidées ; sous writeLock
+    private final SymbolTable bound = new SymbolTable();            // liaisons envoyées au client
+    private final ReentrantLock bindLock = new ReentrantLock();
+    volatile Symbols symbols;                                      // table du registre, posée au login
+    final IntFunction<String> names = bound::get;                  // identifiants reçus : liés à cette connexion seulement
+
+    ClientSession(OutputStream out, OutboundQueue outbound, Executor writer, Closeable connection) {
+        this(out, outbound, writer, connection, FlushPolicy.IMMEDIATE);
+    }
+
+    ClientSession(OutputStream out, OutboundQueue outbound, Executor writer, Closeable connection, FlushPolicy flush) {
+        this.out = out;
+        this.outbound = outbound;
+        this.writer = writer;
+        this.connection = connection;
+        this.flush = flush;
+    }
+
+    // n'écrit jamais sur le thread de l'émetteur : un client lent ne bloque que sa propre file
+    void send(EncodedFrame frame) {
+        ChatMessage references = frame.references();
+        if (references != null) bind(references);
+        ChatMetrics metrics = ChatMetrics.shared();
+        metrics.frameOut(frame.type(), frame.length());
+        switch (outbound.offer(frame.retain())) {
+            case SCHEDULE:
+                scheduleWriter();
+                break;
+            case OVERFLOW:
+                metrics.overflowDisconnects.increment();
+                disconnectLater();
+                break;
+            case DROPPED:
+                metrics.framesDropped.increment();
+                break;
+            case DROPPED_SCHEDULE:
+                metrics.framesDropped.increment();
+                scheduleWriter();
+                break;
+            default:
+                break;
+        }
+        metrics.queueDepth.record(outbound.depth());
+    }
+
+    private void bind(ChatMessage message) {
+        bind(message.getSenderId(), message.getSender());
+        bind(message.getRecipientId(), message.getRecipient());
+        bind(message.getRoomId(), message.getRoom());
+    }
+
+    // SYMBOL mis en file avant la première trame qui utilise l'identifiant.
+    // L'identifiant n'est marqué lié qu'une fois la liaison en file : un
+    // émetteur concurrent qui le voit marqué dépose sa trame après elle.
+    private void bind(int id, String name) {
+        if (id == Symbols.NONE || bound.contains(id)) return;
+        bindLock.lock();
+        try {
+            if (bound.contains(id)) return;
+            EncodedFrame frame = EncodedFrame.of(
+                    new ChatMessage(MessageType.SYMBOL, name, null, null, Integer.toString(id)), wireVersion, deflate);
+            if (frame == null) return;
+            send(frame);
+            frame.release();
+            Symbols table = symbols;
+            bound.put(id, name, table == null ? i -> true : table::isLive);
+        } finally {
+            bindLock.unlock();
+        }
+    }
+
+    void scheduleWriter() {
+        try {
+            writer.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            disconnect();
+        }
+    }
+
+    // corps du writer ; ReentrantLock plutôt que synchronized pour ne pas bloquer
+    // le carrier d'un thread virtuel. Les trames sont écrites dans le tampon et
+    // vidées par lots (voir FlushPolicy) plutôt qu'un flush TLS par message.
+    // Une trame n'est marquée écrite et rendue qu'une fois son lot vidé.
+    void drain() {
+        writeLock.lock();
+        try {
+            int pending = 0;
+            long flushBy = 0;
+            while (true) {
+                long wait = pending > 0 && flush.lingers() ? flushBy - System.nanoTime() : 0;
+                EncodedFrame frame = outbound.poll(wait);
+                if (frame == null) break;
+                int length = frame.length();
+                unflushed.add(frame);
+                frame.writeTo(out);
+                if (pending == 0) flushBy = System.nanoTime() + flush.lingerNanos();
+                pending += length;
+                if (pending >= flush.maxBatchBytes() || (flush.lingers() && System.nanoTime() - flushBy >= 0)) {
+                    out.flush();
+                    flushed();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) out.flush();
+            flushed();
+        } catch (IOException e) {
+            ChatMetrics.shared().error("write");
+            outbound.clear();
+            disconnect();
+        } finally {
+            // échec d'écriture : le reste du lot est rendu sans être marqué écrit
+            EncodedFrame frame;
+            while ((frame = unflushed.poll()) != null) frame.release();
+            writeLock.unlock();
+        }
+    }
+
+    private void flushed() {
+        EncodedFrame frame;
+        while ((frame = unflushed.poll()) != null) {
+            frame.markWritten();
+            frame.release();
+        }
+    }
+
+    // fermer une SSLSocket peut bloquer sur un pair mort (close_notify) :
+    // l'émetteur (diffusion, shard, boucle NIO) passe la main au writer
+    void disconnectLater() {
+        try {
+            writer.execute(this::disconnect);
+        } catch (RejectedExecutionException e) {
+            disconnect();
+        }
+    }
+
+    void disconnect() {
+        try {
+            connection.close();
+        } catch (IOException ignored) {}
+    }
+}
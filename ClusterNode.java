@@ -0,0 +1,349 @@
+import javax.net.ssl.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/*
+ * Mode cluster : plusieurs SecureChatServer reliés par des liens TLS
+ * persistants, avec authentification mutuelle (les noeuds partagent le
+ * keystore). Chaque noeud ouvre vers chaque pair un lien sortant, qui ne
+ * sert qu'à émettre, et reçoit sur son port de cluster les liens des autres.
+ *
+ * Annuaire : un noeud annonce ses utilisateurs et les salons où il a des
+ * membres (CLUSTER_USER / CLUSTER_ROOM, état "1" ou "0"), en bloc à
+ * l'ouverture d'un lien puis à chaque changement. Un message de salon part
+ * une fois par noeud intéressé, quel que soit son nombre de membres ; un
+ * message privé ne va qu'au noeud du destinataire. Le noeud qui reçoit livre
+ * à ses sessions locales et ne relaie jamais plus loin.
+ *
+ * Quand un lien entrant tombe (ou reste muet), tout ce que le pair avait
+ * annoncé est oublié : ses utilisateurs se reconnectent ailleurs et y sont
+ * annoncés à nouveau. L'annuaire n'est que finalement cohérent : deux
+ * connexions simultanées sous le même nom sur deux noeuds peuvent réussir.
+ */
+final class ClusterNode {
+
+    static final int PING_MILLIS = 5_000;                         // sur chaque lien sortant
+    static final int READ_TIMEOUT_MILLIS = 3 * PING_MILLIS;       // lien muet : pair perdu
+    private static final int CONNECT_TIMEOUT_MILLIS = 3_000;
+    private static final long RETRY_MAX_MILLIS = 5_000;
+    private static final int MAX_BODY = 10_000_000;
+
+    private final SecureChatServer server;
+    private final ChatRegistry registry;
+    private final String nodeId;
+    private final SSLContext context;
+    private final SSLServerSocket acceptor;
+    private final List<InetSocketAddress> peers;
+    private final Executor threads = ConnectionExecutors.virtualThreads();
+    private final ProtocolParser parser = new ProtocolParser();
+    private final BufferPool pool = BufferPool.shared();
+    private volatile boolean closed;
+
+    // Annonces locales : calculées et envoyées sous lock, l'ordre reçu par
+    // les pairs suit donc l'ordre des changements, même entre threads.
+    private final Object lock = new Object();
+    private final Set<String> announcedUsers = new HashSet<>();
+    private final Set<String> announcedRooms = new HashSet<>();
+    private final Map<String, ClientSession> links = new ConcurrentHashMap<>();   // id du pair -> lien sortant
+
+    // ce que les pairs ont annoncé (liens entrants)
+    private final ConcurrentHashMap<String, Node> nodes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Node> userNodes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Node>> roomNodes = new ConcurrentHashMap<>();
+
+    // un par lien entrant : un pair reconnecté repart d'un Node neuf
+    private static final class Node {
+        final String id;
+        final Set<String> users = ConcurrentHashMap.newKeySet();
+        final Set<String> rooms = ConcurrentHashMap.newKeySet();
+
+        Node(String id) { this.id = id; }
+    }
+
+    ClusterNode(SecureChatServer server, ChatRegistry registry, String nodeId, int port,
+                List<InetSocketAddress> peers, SSLContext context) throws IOException {
+        this.server = server;
+        this.registry = registry;
+        this.nodeId = nodeId;
+        this.peers = peers;
+        this.context = context;
+        acceptor = (SSLServerSocket) context.getServerSocketFactory().createServerSocket();
+        acceptor.setNeedClientAuth(true);
+        acceptor.bind(new InetSocketAddress(port));
+    }
+
+    void start() {
+        Thread accept = new Thread(this::acceptLoop, "cluster-accept");
+        accept.setDaemon(true);
+        accept.start();
+        for (InetSocketAddress peer : peers) threads.execute(() -> dial(peer));
+        TimerWheel timers = TimerWheel.shared();
+        timers.schedule(this::ping, timers.ticks(PING_MILLIS));
+    }
+
+    void shutdown() {
+        closed = true;
+        try { acceptor.close(); } catch (IOException ignored) {}
+        for (ClientSession link : links.values()) link.disconnect();
+    }
+
+    int linkCount() { return links.size(); }
+    int remoteUserCount() { return userNodes.size(); }
+
+    /* ---------------- ANNONCES LOCALES ---------------- */
+
+    // appelé après chaque connexion / déconnexion d'un utilisateur local
+    void userChanged(String username) {
+        synchronized (lock) {
+            boolean present = registry.user(username) != null;
+            if (present ? !announcedUsers.add(username) : !announcedUsers.remove(username)) return;
+            broadcast(new ChatMessage(MessageType.CLUSTER_USER, username, null, null, present ? "1" : "0"));
+        }
+    }
+
+    // appelé quand un salon local gagne son premier membre ou se ferme
+    void roomChanged(String room) {
+        synchronized (lock) {
+            boolean present = registry.room(room) != null;
+            if (present ? !announcedRooms.add(room) : !announcedRooms.remove(room)) return;
+            broadcast(new ChatMessage(MessageType.CLUSTER_ROOM, nodeId, null, room, present ? "1" : "0"));
+        }
+    }
+
+    private void broadcast(ChatMessage message) {
+        EncodedFrame frame = EncodedFrame.of(message, SecureChatServer.STORED_VERSION);
+        if (frame == null) return;
+        for (ClientSession link : links.values()) link.send(frame);
+        frame.release();
+    }
+
+    // Lien sortant prêt : HELLO puis l'état complet, avant toute annonce qui suit.
+    private void open(String peerId, ClientSession link) {
+        synchronized (lock) {
+            send(link, new ChatMessage(MessageType.CLUSTER_HELLO, nodeId, null, null, null));
+            for (String user : announcedUsers) {
+                send(link, new ChatMessage(MessageType.CLUSTER_USER, user, null, null, "1"));
+            }
+            for (String room : announcedRooms) {
+                send(link, new ChatMessage(MessageType.CLUSTER_ROOM, nodeId, null, room, "1"));
+            }
+            ClientSession previous = links.put(peerId, link);
+            if (previous != null) previous.disconnect();
+        }
+    }
+
+    private static void send(ClientSession link, ChatMessage message) {
+        EncodedFrame frame = EncodedFrame.of(message, SecureChatServer.STORED_VERSION);
+        if (frame == null) return;
+        link.send(frame);
+        frame.release();
+    }
+
+    /* ---------------- RELAIS ---------------- */
+
+    // frame : encodée en STORED_VERSION, la même que pour l'historique
+    void forwardRoom(String room, EncodedFrame frame) {
+        Set<Node> targets = roomNodes.get(room);
+        if (targets == null) return;
+        for (Node node : targets) {
+            ClientSession link = links.get(node.id);
+            if (link != null) link.send(frame);
+        }
+    }
+
+    // false si le destinataire n'est connu d'aucun pair joignable
+    boolean forwardPrivate(String recipient, ChatMessage message) {
+        Node node = recipient == null ? null : userNodes.get(recipient);
+        ClientSession link = node == null ? null : links.get(node.id);
+        if (link == null) return false;
+        send(link, message);
+        return true;
+    }
+
+    // noeud où l'utilisateur est connecté, null s'il n'est sur aucun pair
+    String locate(String username) {
+        Node node = userNodes.get(username);
+        return node == null ? null : node.id;
+    }
+
+    /* ---------------- LIENS SORTANTS ---------------- */
+
+    private void dial(InetSocketAddress address) {
+        long backoff = 100;
+        while (!closed) {
+            String peerId = null;
+            ClientSession link = null;
+            try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket()) {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                socket.startHandshake();
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+                // le pair se présente d'abord ; ensuite il ne répond qu'aux PING
+                ChatMessage hello = readMessage(in);
+                if (hello == null || hello.getType() != MessageType.CLUSTER_HELLO || nodeId.equals(hello.getSender())) {
+                    throw new IOException("bad cluster hello from " + address);
+                }
+                peerId = hello.getSender();
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), FlushPolicy.DEFAULT_BATCH_BYTES);
+                link = new ClientSession(out, new OutboundQueue(65_536, 256L << 20, OutboundQueue.OverflowPolicy.DROP_OLDEST),
+                        threads, socket, FlushPolicy.IMMEDIATE);
+                link.wireVersion = SecureChatServer.STORED_VERSION;
+                open(peerId, link);
+                backoff = 100;
+                while (readMessage(in) != null) {
+                    // PONG
+                }
+            } catch (IOException e) {
+                if (!closed) ChatMetrics.shared().error("cluster-link");
+            } finally {
+                if (link != null) {
+                    links.remove(peerId, link);
+                    link.outbound.clear();
+                }
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(2 * backoff, RETRY_MAX_MILLIS);
+        }
+    }
+
+    // thread de la roue : quelques octets en file par lien, rien de bloquant
+    private void ping() {
+        if (closed) return;
+        broadcast(new ChatMessage(MessageType.PING, nodeId, null, null, null));
+        TimerWheel timers = TimerWheel.shared();
+        timers.schedule(this::ping, timers.ticks(PING_MILLIS));
+    }
+
+    /* ---------------- LIENS ENTRANTS ---------------- */
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                SSLSocket socket = (SSLSocket) acceptor.accept();
+                threads.execute(() -> receive(socket));
+            } catch (IOException e) {
+                if (!closed) ChatMetrics.shared().error("cluster-accept");
+            }
+        }
+    }
+
+    private void receive(SSLSocket socket) {
+        Node node = null;
+        try (SSLSocket s = socket) {
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(READ_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            reply(out, new ChatMessage(MessageType.CLUSTER_HELLO, nodeId, null, null, null));
+
+            ChatMessage msg;
+            while ((msg = readMessage(in)) != null) {
+                if (node == null) {
+                    if (msg.getType() != MessageType.CLUSTER_HELLO || msg.getSender() == null) break;
+                    node = new Node(msg.getSender());
+                    Node previous = nodes.put(node.id, node);
+                    if (previous != null) forget(previous);
+                    continue;
+                }
+                switch (msg.getType()) {
+                    case CLUSTER_USER:
+                        if ("1".equals(msg.getContent())) {
+                            node.users.add(msg.getSender());
+                            userNodes.put(msg.getSender(), node);
+                        } else {
+                            node.users.remove(msg.getSender());
+                            userNodes.remove(msg.getSender(), node);
+                        }
+                        break;
+                    case CLUSTER_ROOM:
+                        if ("1".equals(msg.getContent())) {
+                            node.rooms.add(msg.getRoom());
+                            interested(msg.getRoom(), node, true);
+                        } else {
+                            node.rooms.remove(msg.getRoom());
+                            interested(msg.getRoom(), node, false);
+                        }
+                        break;
+                    case TEXT_MESSAGE:
+                        server.deliverRoomFromCluster(msg);
+                        break;
+                    case PRIVATE_MESSAGE:
+                        server.deliverPrivateFromCluster(msg);
+                        break;
+                    case PING:
+                        reply(out, new ChatMessage(MessageType.PONG, nodeId, null, null, null));
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) ChatMetrics.shared().error("cluster-link");
+        } finally {
+            if (node != null && nodes.remove(node.id, node)) forget(node);
+        }
+    }
+
+    // atomique par salon ; un salon sans plus aucun noeud sort de la table
+    private void interested(String room, Node node, boolean add) {
+        roomNodes.compute(room, (r, set) -> {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            if (add) set.add(node);
+            else set.remove(node);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private void forget(Node node) {
+        for (String user : node.users) userNodes.remove(user, node);
+        for (String room : node.rooms) interested(room, node, false);
+    }
+
+    // seul le thread du lien écrit sur un lien entrant (HELLO, PONG)
+    private static void reply(OutputStream out, ChatMessage message) throws IOException {
+        EncodedFrame frame = EncodedFrame.of(message, SecureChatServer.STORED_VERSION);
+        if (frame == null) return;
+        try {
+            frame.writeTo(out);
+            out.flush();
+        } finally {
+            frame.release();
+        }
+    }
+
+    // même framing que les clients ; null en fin de flux, IOException si trame invalide
+    private ChatMessage readMessage(DataInputStream in) throws IOException {
+        int bodyLength;
+        try {
+            bodyLength = in.readInt();
+        } catch (EOFException eof) {
+            return null;
+        }
+        if (bodyLength <= 0 || bodyLength > MAX_BODY) throw new IOException("invalid cluster frame length");
+        byte[] full = pool.acquire(8 + bodyLength);
+        try {
+            full[0] = (byte) (bodyLength >> 24);
+            full[1] = (byte) (bodyLength >> 16);
+            full[2] = (byte) (bodyLength >> 8);
+            full[3] = (byte) bodyLength;
+            in.readFully(full, 4, 4 + bodyLength);
+            MessageView view = parser.view(full, 0, 8 + bodyLength);
+            if (view == null) throw new IOException("malformed cluster frame");
+            return view.toMessage();
+        } finally {
+            pool.release(full);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/*
+ * Exécuteurs utilisables pour les handleClient des serveurs bloquants.
+ * Nom accepté par fromName : "platform", "virtual" ou "pool:<n>".
+ */
+final class ConnectionExecutors {
+
+    private ConnectionExecutors() {}
+
+    // comportement historique : un thread plateforme par connexion
+    static Executor platformThreads() {
+        return task -> new Thread(task).start();
+    }
+
+    static Executor virtualThreads() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("client-", 0).factory());
+    }
+
+    static Executor boundedPool(int threads) {
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    static Executor fromName(String name) {
+        if (name.equals("virtual")) return virtualThreads();
+        if (name.startsWith("pool:")) return boundedPool(Integer.parseInt(name.substring(5)));
+        if (name.equals("platform")) return platformThreads();
+        throw new IllegalArgumentException("unknown executor: " + name);
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/*
+ * Trame déjà sérialisée [longueur][checksum][corps], immuable.
+ * Un message diffusé à un salon est encodé une seule fois puis le même
+ * tableau est écrit (ou exposé en lecture seule) pour chaque membre.
+ */
+final class EncodedFrame {
+
+    private static final AtomicIntegerFieldUpdater<EncodedFrame> REFS =
+            AtomicIntegerFieldUpdater.newUpdater(EncodedFrame.class, "refs");
+
+    private static final MessageType[] TYPES = MessageType.values();
+
+    private final byte[] bytes;
+    private final int length;
+    private final BufferPool pool;      // null : tableau hors pool
+    private final MessageType type;     // pour les métriques, null si inconnu
+    private volatile int refs = 1;
+    private Runnable onReleased;        // à poser avant de partager la trame
+    private volatile boolean written;   // remise à la connexion par un writer (voir markWritten)
+    private ChatMessage references;     // version 5 : message dont les identifiants sont dans la trame
+
+    EncodedFrame(byte[] bytes) {
+        this(bytes, bytes.length, null);
+    }
+
+    // trame relue (disque...) : le type n'est connu que pour une trame binaire
+    EncodedFrame(byte[] bytes, int length, BufferPool pool) {
+        this(bytes, length, pool, binaryType(bytes, length));
+    }
+
+    EncodedFrame(byte[] bytes, int length, BufferPool pool, MessageType type) {
+        this.bytes = bytes;
+        this.length = length;
+        this.pool = pool;
+        this.type = type;
+    }
+
+    private static MessageType binaryType(byte[] bytes, int length) {
+        if (length < 10 || !ChatMessage.isBinaryBody(bytes[8])) return null;
+        int ordinal = bytes[9];
+        return ordinal >= 0 && ordinal < TYPES.length ? TYPES[ordinal] : null;
+    }
+
+    static EncodedFrame of(ChatMessage message, int wireVersion) {
+        return message.encode(wireVersion, BufferPool.shared());
+    }
+
+    static EncodedFrame of(ChatMessage message, int wireVersion, boolean deflate) {
+        return message.encode(wireVersion, BufferPool.shared(), deflate);
+    }
+
+    int length() { return length; }
+    MessageType type() { return type; }
+
+    // null si la trame ne désigne aucun nom par identifiant
+    ChatMessage references() { return references; }
+
+    EncodedFrame referencing(ChatMessage message) {
+        this.references = message;
+        return this;
+    }
+
+    // Comptage de références : le créateur détient une référence, chaque file
+    // de sortie en prend une ; le tableau retourne au pool à la dernière.
+    EncodedFrame retain() {
+        REFS.incrementAndGet(this);
+        return this;
+    }
+
+    void release() {
+        if (REFS.decrementAndGet(this) != 0) return;
+        if (pool != null) pool.release(bytes);
+        if (onReleased != null) onReleased.run();
+    }
+
+    // action lancée quand la dernière référence est rendue (écrite partout ou jetée)
+    EncodedFrame whenReleased(Runnable action) {
+        this.onReleased = action;
+        return this;
+    }
+
+    // Posé par le writer une fois la trame sur la connexion (flux vidé, ou
+    // enregistrement TLS écrit sur le canal), avant de rendre sa référence.
+    // N'a de sens que pour une trame envoyée à une seule session.
+    void markWritten() {
+        written = true;
+    }
+
+    boolean written() { return written; }
+
+    // tableau exact, uniquement pour une trame hors pool
+    byte[] array() {
+        return bytes.length == length ? bytes : Arrays.copyOf(bytes, length);
+    }
+
+    // tableau sous-jacent, sans copie (peut dépasser length) : lecture seule, ne pas le garder
+    byte[] bytes() {
+        return bytes;
+    }
+
+    // premier octet du corps : la version pour une trame binaire non compressée
+    int bodyVersion() {
+        return length > 8 ? bytes[8] : -1;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    // vue en lecture seule : chaque destinataire a sa propre position
+    ByteBuffer buffer() {
+        return ByteBuffer.wrap(bytes, 0, length).asReadOnlyBuffer();
+    }
+}
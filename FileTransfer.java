@@ -0,0 +1,105 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Transfert de fichier relayé par le serveur, morceau par morceau :
+ * FILE_START, puis des FILE_CHUNK numérotés, puis FILE_END. Le serveur ne
+ * garde jamais le fichier : chaque morceau est encodé une fois, partagé par
+ * les files des destinataires, et l'émetteur reçoit un FILE_ACK quand le
+ * dernier destinataire l'a écrit. L'émetteur n'a droit qu'à WINDOW morceaux
+ * non acquittés : quelle que soit la taille du fichier, un transfert tient
+ * au plus WINDOW * MAX_CHUNK octets, et le plus lent des destinataires
+ * règle le débit (aucun thread n'attend, en mode bloquant comme en NIO).
+ *
+ * nextSeq et received ne sont touchés que par le thread de lecture de
+ * l'émetteur ; les acquittements arrivent de n'importe quel writer.
+ */
+final class FileTransfer {
+
+    static final int MAX_CHUNK = 16 * 1024;          // octets de fichier par FILE_CHUNK
+    static final int WINDOW = 4;                     // morceaux non acquittés par transfert
+    static final int MAX_PER_SESSION = 4;            // transferts simultanés par émetteur
+
+    final int id;
+    final long size;
+    final String recipient;                          // transfert privé...
+    final String room;                               // ... ou vers un salon
+    final ClientSession[] targets;                   // figés au FILE_START, protocole binaire seulement
+    final int chunkVersion;                          // plus basse version des destinataires : un seul encodage
+    final boolean chunkDeflate;                      // compressé seulement si tous l'acceptent
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private int nextSeq;
+    private long received;
+
+    FileTransfer(int id, long size, String recipient, String room, ClientSession[] targets) {
+        this.id = id;
+        this.size = size;
+        this.recipient = recipient;
+        this.room = room;
+        this.targets = targets;
+        int version = ChatMessage.MAX_VERSION;
+        boolean deflate = true;
+        for (ClientSession target : targets) {
+            version = Math.min(version, target.wireVersion);
+            deflate &= target.deflate;
+        }
+        this.chunkVersion = version;
+        this.chunkDeflate = deflate;
+    }
+
+    // "<id> <taille> <nom>" ; null si mal formé
+    static long[] parseStart(String content) {
+        if (content == null) return null;
+        String[] parts = content.split(" ", 3);
+        if (parts.length < 3 || parts[2].isEmpty()) return null;
+        try {
+            long size = Long.parseLong(parts[1]);
+            return size < 0 ? null : new long[] { Integer.parseInt(parts[0]), size };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // "<id>" ou "<id> <suite>" -> id, -1 si illisible
+    static int parseId(String content) {
+        if (content == null) return -1;
+        int space = content.indexOf(' ');
+        try {
+            return Integer.parseInt(space < 0 ? content : content.substring(0, space));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Morceau suivant accepté : dans l'ordre, pas trop gros, sans dépasser la
+    // taille annoncée ni la fenêtre. Sinon l'émetteur enfreint le protocole.
+    boolean accept(int seq, int bytes) {
+        if (seq != nextSeq || bytes <= 0 || bytes > MAX_CHUNK || received + bytes > size) return false;
+        if (inFlight.incrementAndGet() > WINDOW) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        nextSeq++;
+        received += bytes;
+        return true;
+    }
+
+    void acknowledged() {
+        inFlight.decrementAndGet();
+    }
+
+    boolean complete() {
+        return received == size;
+    }
+
+    static int readInt(byte[] b, int p) {
+        return ((b[p] & 0xFF) << 24) | ((b[p + 1] & 0xFF) << 16) | ((b[p + 2] & 0xFF) << 8) | (b[p + 3] & 0xFF);
+    }
+
+    static void writeInt(byte[] b, int p, int v) {
+        b[p] = (byte) (v >> 24);
+        b[p + 1] = (byte) (v >> 16);
+        b[p + 2] = (byte) (v >> 8);
+        b[p + 3] = (byte) v;
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Regroupement des écritures d'une session : les trames en attente sont
+ * écrites ensemble et vidées (flush) en une fois, soit dès que le lot atteint
+ * maxBatchBytes, soit au plus tard lingerMicros après la première trame non
+ * vidée. linger = 0 : on vide dès que la file est vide, sans attendre ; les
+ * trames déjà en file partent quand même dans le même lot.
+ */
+final class FlushPolicy {
+
+    // 16 Ko : un enregistrement TLS plein
+    static final int DEFAULT_BATCH_BYTES = 16 * 1024;
+    static final FlushPolicy IMMEDIATE = new FlushPolicy(DEFAULT_BATCH_BYTES, 0);
+
+    private static volatile ScheduledExecutorService timer;
+
+    private final int maxBatchBytes;
+    private final long lingerNanos;
+
+    FlushPolicy(int maxBatchBytes, long lingerMicros) {
+        if (maxBatchBytes <= 0 || lingerMicros < 0) throw new IllegalArgumentException("invalid flush policy");
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+    }
+
+    int maxBatchBytes() { return maxBatchBytes; }
+    long lingerNanos() { return lingerNanos; }
+    boolean lingers() { return lingerNanos > 0; }
+
+    // minuterie partagée pour les flush différés hors boucle NIO (client)
+    static ScheduledExecutorService timer() {
+        ScheduledExecutorService t = timer;
+        if (t == null) {
+            synchronized (FlushPolicy.class) {
+                t = timer;
+                if (t == null) {
+                    t = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "flush-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    timer = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    @Override
+    public String toString() {
+        return "FlushPolicy[batch=" + maxBatchBytes + "B, linger=" + TimeUnit.NANOSECONDS.toMicros(lingerNanos) + "us]";
+    }
+}
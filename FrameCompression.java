@@ -0,0 +1,130 @@
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * Compression Deflate des trames (version 4, négociée au login). Une trame
+ * compressée a le bit de poids fort de sa longueur à 1 ; son checksum est
+ * le CRC32C des octets compressés, vérifié avant de décompresser, et le
+ * corps décompressé est un corps ordinaire. Sous le seuil, ou si Deflate ne
+ * gagne rien, la trame part telle quelle.
+ *
+ * Une diffusion est compressée une fois pour tous ses destinataires : les
+ * Deflater viennent d'un petit pool partagé plutôt que d'une session.
+ * Chaque connexion a son Inflater, créé à sa première trame compressée et
+ * utilisé par son seul thread de lecture.
+ */
+final class FrameCompression {
+
+    static final int FLAG = 0x80000000;
+    static final int DEFAULT_THRESHOLD = 1024;
+    static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+    static final int MAX_INFLATED = 10_000_000;            // même limite que les trames reçues
+
+    private static final ArrayBlockingQueue<Deflater> DEFLATERS =
+            new ArrayBlockingQueue<>(2 * Runtime.getRuntime().availableProcessors());
+    private static volatile int threshold = DEFAULT_THRESHOLD;
+    private static volatile int level = DEFAULT_LEVEL;
+
+    private Inflater inflater;
+
+    // corps plus petits que thresholdBytes envoyés tels quels ; level de 0 à 9
+    static void configure(int thresholdBytes, int compressionLevel) {
+        threshold = thresholdBytes;
+        level = compressionLevel;
+    }
+
+    static boolean isCompressed(byte[] frame) {
+        return (frame[0] & 0x80) != 0;
+    }
+
+    // longueur totale d'une trame d'après son en-tête, drapeau exclu
+    static int frameLength(byte[] frame) {
+        int header = ((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16) |
+                     ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+        return 8 + (header & ~FLAG);
+    }
+
+    /* ---------------- ENVOI ---------------- */
+
+    // Remplace frame (rendue) par sa version compressée, ou la retourne telle quelle.
+    static EncodedFrame compress(EncodedFrame frame, BufferPool pool) {
+        int bodyLength = frame.length() - 8;
+        if (bodyLength < threshold) return frame;
+
+        // sortie limitée à la taille d'origine : au-delà, compresser ne sert à rien
+        byte[] out = pool == null ? new byte[frame.length()] : pool.acquire(frame.length());
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) deflater = new Deflater(level);
+        else deflater.setLevel(level);
+        int written = 0;
+        try {
+            deflater.setInput(frame.bytes(), 8, bodyLength);
+            deflater.finish();
+            while (!deflater.finished() && written < bodyLength) {
+                written += deflater.deflate(out, 8 + written, bodyLength - written);
+            }
+            if (!deflater.finished()) {
+                if (pool != null) pool.release(out);
+                return frame;
+            }
+        } finally {
+            deflater.reset();
+            if (!DEFLATERS.offer(deflater)) deflater.end();
+        }
+
+        ChatMessage.writeHeader(out, written | FLAG, ChatMessage.crc32c(out, 8, written));
+        MessageType type = frame.type();
+        frame.release();
+        if (pool == null) return new EncodedFrame(Arrays.copyOf(out, 8 + written), 8 + written, null, type);
+        return new EncodedFrame(out, 8 + written, pool, type);
+    }
+
+    /* ---------------- RÉCEPTION ---------------- */
+
+    // Trame compressée -> trame ordinaire dans un tableau du pool, à rendre par
+    // l'appelant (longueur : frameLength). null si corrompue, tronquée ou trop grande.
+    byte[] inflate(byte[] data, int length, BufferPool pool) {
+        int bodyLength = frameLength(data) - 8;
+        if (bodyLength <= 0 || bodyLength > length - 8) return null;
+        long expected = ((data[4] & 0xFFL) << 24) | ((data[5] & 0xFFL) << 16) |
+                        ((data[6] & 0xFFL) << 8) | (data[7] & 0xFFL);
+        if (ChatMessage.crc32c(data, 8, bodyLength) != expected) return null;
+
+        Inflater inf = inflater;
+        if (inf == null) inflater = inf = new Inflater();
+        inf.setInput(data, 8, bodyLength);
+        byte[] out = pool.acquire(8 + Math.min(MAX_INFLATED, Math.max(4096, 4 * bodyLength)));
+        int n = 0;
+        try {
+            while (!inf.finished()) {
+                int capacity = Math.min(out.length - 8, MAX_INFLATED);
+                if (n == capacity) {
+                    if (n == MAX_INFLATED) return discard(out, pool);
+                    byte[] bigger = pool.acquire(8 + Math.min(MAX_INFLATED, 2 * capacity));
+                    System.arraycopy(out, 8, bigger, 8, n);
+                    pool.release(out);
+                    out = bigger;
+                    continue;
+                }
+                int k = inf.inflate(out, 8 + n, capacity - n);
+                if (k == 0 && (inf.needsInput() || inf.needsDictionary())) return discard(out, pool);
+                n += k;
+            }
+        } catch (DataFormatException e) {
+            return discard(out, pool);
+        } finally {
+            inf.reset();
+        }
+        if (n == 0) return discard(out, pool);
+        ChatMessage.writeHeader(out, n, ChatMessage.checksum(out, 8, n));
+        return out;
+    }
+
+    private static byte[] discard(byte[] out, BufferPool pool) {
+        pool.release(out);
+        return null;
+    }
+}
@@ -0,0 +1,39 @@
+// Encodages d'un même message, au plus un par version de protocole (et,
+// à partir de la version 4, par choix de compression), calculés à la
+// demande pendant la diffusion.
+final class FrameVariants {
+
+    private final ChatMessage message;
+    private final EncodedFrame[] byVersion = new EncodedFrame[2 * (ChatMessage.MAX_VERSION + 1)];
+
+    FrameVariants(ChatMessage message) {
+        this.message = message;
+    }
+
+    EncodedFrame forVersion(int wireVersion) {
+        return forVersion(wireVersion, true);
+    }
+
+    EncodedFrame forVersion(int wireVersion, boolean deflate) {
+        int slot = deflate || wireVersion < ChatMessage.VERSION_DEFLATE ? wireVersion : wireVersion + ChatMessage.MAX_VERSION + 1;
+        EncodedFrame frame = byVersion[slot];
+        if (frame == null) {
+            frame = EncodedFrame.of(message, wireVersion, deflate);
+            byVersion[slot] = frame;
+        }
+        return frame;
+    }
+
+    // une référence de plus sur chaque variante déjà encodée
+    void retain() {
+        for (EncodedFrame frame : byVersion) {
+            if (frame != null) frame.retain();
+        }
+    }
+
+    void release() {
+        for (EncodedFrame frame : byVersion) {
+            if (frame != null) frame.release();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*
+ * Étage de handshake TLS : la boucle d'accept ne fait que déposer la socket
+ * ici, un pool borné négocie (avec délai maximal) et seules les sessions
+ * établies sont confiées aux handlers. Quand la file est pleine, la
+ * connexion est refusée plutôt que de ralentir le trafic déjà établi.
+ * En mode NIO, le pool exécute les tâches déléguées de SSLEngine.
+ */
+final class HandshakeStage {
+
+    private final ThreadPoolExecutor pool;
+    private final int timeoutMillis;
+    private final HandshakeStats stats;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder latencyCount = new LongAdder();
+    private final LongAdder latencyTotalNanos = new LongAdder();
+    private final LongAccumulator latencyMaxNanos = new LongAccumulator(Math::max, 0);
+
+    HandshakeStage(int threads, int queueCapacity, int timeoutMillis, HandshakeStats stats) {
+        AtomicInteger ids = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                task -> {
+                    Thread t = new Thread(task, "tls-handshake-" + ids.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.timeoutMillis = timeoutMillis;
+        this.stats = stats;
+    }
+
+    static HandshakeStage withDefaults(HandshakeStats stats) {
+        return new HandshakeStage(Runtime.getRuntime().availableProcessors(), 1024, 10_000, stats);
+    }
+
+    // ne bloque jamais : appelé depuis la boucle d'accept
+    void submit(SSLSocket socket, Consumer<SSLSocket> onEstablished) {
+        try {
+            pool.execute(() -> handshake(socket, onEstablished));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            closeQuietly(socket);
+        }
+    }
+
+    private void handshake(SSLSocket socket, Consumer<SSLSocket> onEstablished) {
+        long since = stats.begin();
+        long start = System.nanoTime();
+        // setSoTimeout ne borne que chaque lecture : un pair qui envoie un
+        // octet de temps en temps tiendrait le thread indéfiniment. L'échéance
+        // globale ferme le socket ; done la désarme (la roue n'annule rien).
+        AtomicBoolean done = new AtomicBoolean();
+        TimerWheel timers = TimerWheel.shared();
+        timers.schedule(() -> {
+            if (done.compareAndSet(false, true)) {
+                timedOut.increment();
+                closeQuietly(socket);
+            }
+        }, timers.ticks(timeoutMillis));
+        try {
+            socket.setSoTimeout(timeoutMillis);
+            socket.startHandshake();
+            socket.setSoTimeout(0);
+        } catch (IOException e) {
+            if (done.compareAndSet(false, true)) {
+                if (e instanceof SocketTimeoutException) timedOut.increment();
+                else failed.increment();
+                closeQuietly(socket);
+            }
+            return;
+        }
+        if (!done.compareAndSet(false, true)) return;        // échéance passée de justesse : socket déjà fermé
+        recordLatency(System.nanoTime() - start);
+        stats.record(socket.getSession(), since);
+        onEstablished.accept(socket);
+    }
+
+    // exécuteur des tâches déléguées SSLEngine (mode NIO)
+    Executor taskExecutor() {
+        return task -> {
+            try {
+                pool.execute(task);
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                throw e;
+            }
+        };
+    }
+
+    void recordLatency(long nanos) {
+        ChatMetrics.shared().handshakeNanos.record(nanos);
+        latencyCount.increment();
+        latencyTotalNanos.add(nanos);
+        latencyMaxNanos.accumulate(nanos);
+    }
+
+    void recordFailure() { failed.increment(); }
+
+    void recordTimeout() { timedOut.increment(); }
+
+    int timeoutMillis() { return timeoutMillis; }
+
+    void shutdown() { pool.shutdownNow(); }
+
+    private static void closeQuietly(SSLSocket socket) {
+        try { socket.close(); } catch (IOException ignored) {}
+    }
+
+    int queueDepth() { return pool.getQueue().size(); }
+    int active() { return pool.getActiveCount(); }
+    long rejected() { return rejected.sum(); }
+    long failed() { return failed.sum(); }
+    long timedOut() { return timedOut.sum(); }
+    HandshakeStats stats() { return stats; }
+
+    double meanLatencyMillis() {
+        long n = latencyCount.sum();
+        return n == 0 ? 0 : latencyTotalNanos.sum() / (n * 1e6);
+    }
+
+    double maxLatencyMillis() { return latencyMaxNanos.get() / 1e6; }
+
+    @Override
+    public String toString() {
+        return "HandshakeStage[queue=" + queueDepth() + ", active=" + active() +
+                ", rejected=" + rejected() + ", failed=" + failed() + ", timedOut=" + timedOut() +
+                String.format(", meanMs=%.2f, maxMs=%.2f, ", meanLatencyMillis(), maxLatencyMillis()) +
+                stats + "]";
+    }
+}
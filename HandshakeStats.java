@@ -0,0 +1,72 @@
+import javax.net.ssl.SSLSession;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Compteurs de handshakes TLS complets / repris. Une session est reprise si
+ * elle prolonge une session antérieure : même identifiant qu'une session
+ * déjà comptée (TLS 1.2, cache serveur), ou créée avant le début du
+ * handshake (TLS 1.3 : le JDK attribue un nouvel identifiant à chaque
+ * reprise par PSK mais garde l'instant de création de la session d'origine).
+ * Un handshake complet crée sa session après begin(), sur la même horloge :
+ * il n'est jamais compté repris. Marge : l'horloge est à la milliseconde, une
+ * reprise commencée dans la milliseconde où sa session d'origine a été créée
+ * est comptée complète (sous-estimation, jamais l'inverse).
+ */
+final class HandshakeStats {
+
+    private static final int REMEMBERED = 4096;     // identifiants gardés (LRU)
+    private static final long MARGIN_MILLIS = 1;
+
+    private final LongAdder full = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<ByteBuffer, Boolean> byId = new Lru();
+
+    // à appeler au début du handshake ; l'instant est rendu à record()
+    long begin() {
+        return System.currentTimeMillis();
+    }
+
+    void record(SSLSession session, long since) {
+        ByteBuffer id = ByteBuffer.wrap(session.getId().clone());
+        boolean wasResumed = session.getCreationTime() + MARGIN_MILLIS <= since;
+        if (id.hasRemaining()) {
+            lock.lock();
+            try {
+                if (byId.put(id, Boolean.TRUE) != null) wasResumed = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (wasResumed) {
+            resumed.increment();
+        } else {
+            full.increment();
+        }
+    }
+
+    long full() { return full.sum(); }
+    long resumed() { return resumed.sum(); }
+
+    private static final class Lru extends LinkedHashMap<ByteBuffer, Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        Lru() {
+            super(64, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+            return size() > REMEMBERED;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HandshakeStats[full=" + full() + ", resumed=" + resumed() + "]";
+    }
+}
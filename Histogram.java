@@ -0,0 +1,84 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Histogramme log-linéaire à la HDR : 16 sous-classes linéaires par
+ * puissance de deux, soit environ 6 % d'erreur relative sur un quantile.
+ * record() ne fait que des LongAdder (pas de verrou, pas d'allocation) ;
+ * les quantiles sont calculés à la lecture. Valeurs >= 0, bornées à 2^40.
+ */
+final class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_EXP = 40;
+    private static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram() {
+        for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+    }
+
+    void record(long value) {
+        if (value < 0) value = 0;
+        counts[index(value)].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    Snapshot snapshot() {
+        long[] c = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            c[i] = counts[i].sum();
+            total += c[i];
+        }
+        return new Snapshot(c, total, sum.sum(), max.get());
+    }
+
+    private static int index(long v) {
+        if (v < SUB) return (int) v;
+        int exp = Math.min(63 - Long.numberOfLeadingZeros(v), MAX_EXP);
+        int sub = (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+        return (exp - SUB_BITS + 1) * SUB + sub;
+    }
+
+    // plus grande valeur rangée dans la classe idx
+    private static long upperBound(int idx) {
+        if (idx < SUB) return idx;
+        int exp = idx / SUB + SUB_BITS - 1;
+        int sub = idx % SUB;
+        return ((long) (SUB + sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    static final class Snapshot {
+        private final long[] counts;
+        final long count;
+        final long sum;
+        final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        long mean() { return count == 0 ? 0 : sum / count; }
+
+        // q dans [0, 1] ; borne haute de la classe, jamais au-delà du max observé
+        long quantile(double q) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(upperBound(i), max);
+            }
+            return max;
+        }
+    }
+}
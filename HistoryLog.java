@@ -0,0 +1,249 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/*
+ * Journal d'historique d'un salon : segments de taille fixe, en ajout seul,
+ * projetés en mémoire (<salon>.<n>.seg). Chaque enregistrement est la trame
+ * telle qu'envoyée [longueur][checksum][corps] ; un segment est rempli de
+ * zéros au-delà de la dernière trame, une longueur nulle marque donc la fin.
+ * Une écriture est une simple copie dans la projection, sans appel système ;
+ * le noyau la recopie sur disque, elle survit à un arrêt du processus.
+ * Seuls les KEEP_SEGMENTS derniers segments sont conservés.
+ *
+ * append() tourne sous le verrou du salon, sur le thread qui diffuse : il
+ * ne fait jamais d'appel système dans le cas courant. Le segment suivant
+ * est créé et projeté d'avance en tâche de fond, dès la moitié du segment
+ * courant ; msync (force) du segment plein et suppression des anciens se
+ * font aussi en tâche de fond. Le FileChannel est fermé dès la projection :
+ * aucun descripteur n'est gardé par salon actif. park() relâche la
+ * projection d'un salon inactif ; l'ajout suivant reprojette le dernier
+ * segment à la même position.
+ */
+final class HistoryLog implements Closeable {
+
+    static final int SEGMENT_BYTES = 1 << 20;
+    private static final int KEEP_SEGMENTS = 2;
+    static final int MAX_NAME = 160;                   // voir fileName
+
+    private final Path directory;
+    private final String prefix;
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "history-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<Long> segments = new ArrayList<>();
+    private MappedByteBuffer map;     // segment courant, null tant qu'aucune écriture
+    private CompletableFuture<MappedByteBuffer> next;   // segment suivant, projeté en tâche de fond
+    private int parkedAt = -1;        // position dans le dernier segment, -1 : pas relâché
+
+    HistoryLog(Path directory, String room) {
+        this.directory = directory;
+        this.prefix = fileName(room);
+    }
+
+    // Relit les trames valides, de la plus ancienne à la plus récente ; une
+    // trame tronquée ou corrompue termine le segment. Les écritures suivantes
+    // reprennent après la dernière trame valide.
+    void load(Consumer<EncodedFrame> sink) throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + ".*.seg")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(prefix.length() + 1, name.length() - 4)));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        Collections.sort(segments);
+
+        ProtocolParser parser = new ProtocolParser();
+        BufferPool pool = BufferPool.shared();
+        int end = 0;
+        for (long segment : segments) {
+            FileChannel ch;
+            try {
+                ch = FileChannel.open(segmentPath(segment), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                continue;                           // supprimé en tâche de fond depuis la lecture du répertoire
+            }
+            try (ch) {
+                ByteBuffer data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                end = 0;
+                while (data.remaining() >= 8) {
+                    int length = data.getInt(data.position());
+                    if (length <= 0 || length > data.remaining() - 8) break;
+                    byte[] frame = pool.acquire(8 + length);
+                    data.get(frame, 0, 8 + length);
+                    if (parser.view(frame, 0, 8 + length) == null) {
+                        pool.release(frame);
+                        break;
+                    }
+                    sink.accept(new EncodedFrame(frame, 8 + length, pool));
+                    end = data.position();
+                }
+            }
+        }
+        if (!segments.isEmpty()) {
+            map = project(segmentPath(segments.get(segments.size() - 1)));
+            map.position(end);
+        }
+    }
+
+    // trame plus grande qu'un segment : non journalisée
+    void append(EncodedFrame frame) throws IOException {
+        if (frame.length() > SEGMENT_BYTES) return;
+        if (map == null && parkedAt >= 0) resume();
+        if (map == null || map.remaining() < frame.length()) roll();
+        map.put(frame.buffer());
+        if (next == null && map.position() >= SEGMENT_BYTES / 2) prepare();
+    }
+
+    boolean mapped() { return map != null; }
+
+    // Relâche la projection courante (msync en tâche de fond) et le segment
+    // suivant éventuellement préparé ; rien n'est perdu, tout est dans le fichier.
+    void park() {
+        if (map == null) return;
+        parkedAt = map.position();
+        retire(map);
+        map = null;
+        next = null;
+    }
+
+    private void resume() throws IOException {
+        MappedByteBuffer segment = project(segmentPath(segments.get(segments.size() - 1)));
+        segment.position(parkedAt);
+        map = segment;
+        parkedAt = -1;
+    }
+
+    private void prepare() {
+        Path file = segmentPath(nextSegment());
+        next = CompletableFuture.supplyAsync(() -> {
+            try {
+                return project(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, IO);
+    }
+
+    // N'attend que si la tâche de fond n'a pas fini de projeter le segment
+    // suivant (un demi-segment écrit plus vite qu'un fichier créé).
+    private void roll() throws IOException {
+        long segment = nextSegment();
+        if (next == null) prepare();
+        MappedByteBuffer prepared;
+        try {
+            prepared = next.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof UncheckedIOException
+                    ? ((UncheckedIOException) e.getCause()).getCause()
+                    : new IOException(e.getCause());
+        } finally {
+            next = null;
+        }
+        retire(map);
+        map = prepared;
+        segments.add(segment);
+        List<Path> old = new ArrayList<>();
+        while (segments.size() > KEEP_SEGMENTS) old.add(segmentPath(segments.remove(0)));
+        if (!old.isEmpty()) {
+            IO.execute(() -> {
+                for (Path file : old) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException ignored) {}
+                }
+            });
+        }
+    }
+
+    private long nextSegment() {
+        return segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1;
+    }
+
+    // la projection survit à la fermeture du canal
+    private static MappedByteBuffer project(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+        }
+    }
+
+    // segment qui ne reçoit plus d'écritures : msync en tâche de fond
+    private static void retire(MappedByteBuffer segment) {
+        if (segment != null) IO.execute(segment::force);
+    }
+
+    // Un segment suivant déjà projeté reste sur disque, vide : relu au
+    // prochain load(), il devient le segment courant.
+    @Override
+    public void close() {
+        retire(map);
+        map = null;
+        next = null;
+        parkedAt = -1;
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(prefix + "." + segment + ".seg");
+    }
+
+    // Nom de salon libre -> nom de fichier sûr : [A-Za-z0-9_-] gardés, le reste
+    // en %XX (UTF-8). Au-delà de MAX_NAME caractères (limite de 255 octets par
+    // nom de fichier, suffixes compris), le début est gardé et suivi de '~' et
+    // de 128 bits de SHA-256 du nom complet : '~' n'apparaît jamais sinon, un
+    // nom court ne peut pas rejoindre un nom tronqué.
+    static String fileName(String room) {
+        StringBuilder sb = new StringBuilder();
+        byte[] utf8 = room.getBytes(StandardCharsets.UTF_8);
+        for (byte b : utf8) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-') {
+                sb.append(c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+            }
+        }
+        if (sb.length() <= MAX_NAME) return sb.toString();
+        int keep = MAX_NAME - 33;
+        if (sb.charAt(keep - 1) == '%') keep -= 1;           // pas de %XX coupé
+        else if (sb.charAt(keep - 2) == '%') keep -= 2;
+        sb.setLength(keep);
+        sb.append('~');
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(utf8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);                 // algorithme exigé de toute JVM
+        }
+        for (int i = 0; i < 16; i++) {
+            sb.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
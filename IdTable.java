@@ -0,0 +1,52 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Tableau indexé par identifiant, en pages allouées à la demande : lecture
+// sans verrou ni hachage, seul l'ajout d'une page prend le verrou.
+final class IdTable<T> {
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    private final ReentrantLock grow = new ReentrantLock();
+    private volatile AtomicReferenceArray<T>[] pages = newPages(0);
+
+    T get(int id) {
+        AtomicReferenceArray<T>[] current = pages;
+        int page = id >>> PAGE_BITS;
+        return page < current.length ? current[page].get(id & PAGE_MASK) : null;
+    }
+
+    void set(int id, T value) {
+        page(id).set(id & PAGE_MASK, value);
+    }
+
+    boolean compareAndSet(int id, T expected, T value) {
+        return page(id).compareAndSet(id & PAGE_MASK, expected, value);
+    }
+
+    private AtomicReferenceArray<T> page(int id) {
+        int page = id >>> PAGE_BITS;
+        AtomicReferenceArray<T>[] current = pages;
+        if (page < current.length) return current[page];
+        grow.lock();
+        try {
+            current = pages;
+            if (page >= current.length) {
+                AtomicReferenceArray<T>[] next = newPages(page + 1);
+                System.arraycopy(current, 0, next, 0, current.length);
+                for (int i = current.length; i < next.length; i++) next[i] = new AtomicReferenceArray<>(1 << PAGE_BITS);
+                pages = next;
+                current = next;
+            }
+            return current[page];
+        } finally {
+            grow.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> AtomicReferenceArray<T>[] newPages(int count) {
+        return (AtomicReferenceArray<T>[]) new AtomicReferenceArray<?>[count];
+    }
+}
@@ -0,0 +1,233 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Générateur de charge sans interface, sur le framing de SecureChatClient :
+ * ouvre N connexions TLS, les identifie, les répartit sur des salons, puis
+ * envoie des TEXT_MESSAGE à un débit total fixé pendant une durée donnée.
+ *
+ * Chaque message porte son heure d'envoi prévue (et non réelle : un émetteur
+ * en retard ne masque pas l'attente qu'il a subie). Chaque réception en tire
+ * la latence de bout en bout ; le timestamp du ChatMessage, posé par le
+ * serveur à la diffusion, en donne la part serveur -> destinataire.
+ * Un thread virtuel de lecture et un d'émission par connexion.
+ */
+public class LoadGenerator {
+
+    private static final String TAG = "lg ";
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final int rooms;
+    private final double rate;                  // messages par seconde, toutes connexions
+    private final int messageBytes;
+    private final int version;                  // version annoncée au login
+
+    private final String runId = Long.toString(System.nanoTime() & 0xFFFFFFL, 36);
+    private final String prefix = TAG + runId + " ";
+    private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<Integer, SecureChatClient> clients = new ConcurrentHashMap<>();
+    private final LongAdder[] roomSent;
+
+    // fenêtre de mesure [measureStart, measureEnd) en System.nanoTime()
+    private volatile long measureStart = Long.MAX_VALUE;
+    private volatile long measureEnd = Long.MAX_VALUE;
+
+    private final Histogram endToEnd = new Histogram();             // ns
+    private final Histogram serverToClient = new Histogram();       // ms
+    private final LongAdder received = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    LoadGenerator(String host, int port, int connections, int rooms, double rate, int messageBytes, int version) {
+        this.host = host;
+        this.port = port;
+        this.connections = connections;
+        this.rooms = rooms;
+        this.rate = rate;
+        this.messageBytes = messageBytes;
+        this.version = version;
+        this.roomSent = new LongAdder[rooms];
+        for (int r = 0; r < rooms; r++) roomSent[r] = new LongAdder();
+    }
+
+    /* ---------------- CONNEXION ---------------- */
+
+    // au plus maxConcurrent poignées de main TLS en même temps
+    void connectAll(int maxConcurrent) throws InterruptedException {
+        Semaphore handshakes = new Semaphore(maxConcurrent);
+        for (int i = 0; i < connections; i++) {
+            int id = i;
+            handshakes.acquire();
+            threads.execute(() -> {
+                try {
+                    connect(id);
+                } finally {
+                    handshakes.release();
+                }
+            });
+        }
+        handshakes.acquire(maxConcurrent);
+        handshakes.release(maxConcurrent);
+    }
+
+    private void connect(int id) {
+        SecureChatClient client;
+        try {
+            client = new SecureChatClient(host, port);
+        } catch (Exception e) {
+            connectFailures.increment();
+            return;
+        }
+        ChatMessage login = new ChatMessage(MessageType.LOGIN_REQUEST, "load-" + runId + "-" + id, null, null, "load");
+        login.setVersion(version);
+        client.sendMessage(login);
+        // le serveur fait entrer l'émetteur dans le salon de son premier message
+        client.sendMessage(new ChatMessage(MessageType.TEXT_MESSAGE, null, null, roomName(id % rooms), "joined room"));
+        clients.put(id, client);
+        threads.execute(() -> read(client));
+    }
+
+    private static String roomName(int room) {
+        return "load-" + room;
+    }
+
+    /* ---------------- RÉCEPTION ---------------- */
+
+    private void read(SecureChatClient client) {
+        while (true) {
+            ChatMessage msg = client.readMessage();
+            if (msg == null) {
+                if (client.isClosed()) break;
+                continue;
+            }
+            if (msg.getType() == MessageType.ERROR_RESPONSE) {
+                errors.computeIfAbsent(String.valueOf(msg.getContent()), k -> new LongAdder()).increment();
+            } else if (msg.getType() == MessageType.TEXT_MESSAGE) {
+                record(msg, System.nanoTime(), System.currentTimeMillis());
+            }
+        }
+        if (measureEnd == Long.MAX_VALUE || System.nanoTime() < measureEnd) disconnects.increment();
+    }
+
+    private void record(ChatMessage msg, long nowNanos, long nowMillis) {
+        String content = msg.getContent();
+        if (content == null || !content.startsWith(prefix)) return;      // autre run, ou message d'entrée
+        int end = content.indexOf(' ', prefix.length());
+        long sentAt;
+        try {
+            sentAt = Long.parseLong(content, prefix.length(), end < 0 ? content.length() : end, 10);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (sentAt < measureStart || sentAt >= measureEnd) return;
+        received.increment();
+        endToEnd.record(nowNanos - sentAt);
+        serverToClient.record(nowMillis - msg.getTimestamp());
+    }
+
+    /* ---------------- ÉMISSION ---------------- */
+
+    // échéancier fixe par connexion, premier envoi décalé au hasard dans l'intervalle
+    void run(long warmupNanos, long durationNanos) throws InterruptedException {
+        long start = System.nanoTime();
+        measureStart = start + warmupNanos;
+        measureEnd = measureStart + durationNanos;
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) * clients.size() / rate);
+        for (Map.Entry<Integer, SecureChatClient> e : clients.entrySet()) {
+            int id = e.getKey();
+            long first = start + ThreadLocalRandom.current().nextLong(Math.max(1, interval));
+            threads.execute(() -> send(e.getValue(), id % rooms, first, interval));
+        }
+        TimeUnit.NANOSECONDS.sleep(measureEnd - System.nanoTime());
+    }
+
+    private void send(SecureChatClient client, int room, long first, long interval) {
+        String padding = "x".repeat(messageBytes);
+        long next = first;
+        while (next < measureEnd && !client.isClosed()) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            client.sendMessage(new ChatMessage(MessageType.TEXT_MESSAGE, null, null, roomName(room),
+                    prefix + next + " " + padding));
+            if (next >= measureStart) roomSent[room].increment();
+            next += interval;
+        }
+    }
+
+    /* ---------------- BILAN ---------------- */
+
+    void close() {
+        for (SecureChatClient client : clients.values()) client.close();
+        threads.shutdown();
+    }
+
+    void report(double seconds) {
+        int[] roomMembers = new int[rooms];
+        for (int id : clients.keySet()) roomMembers[id % rooms]++;
+        long sent = 0;
+        long expected = 0;
+        for (int r = 0; r < rooms; r++) {
+            long s = roomSent[r].sum();
+            sent += s;
+            expected += s * roomMembers[r];
+        }
+        long delivered = received.sum();
+        System.out.printf("connections     %d ok, %d failed, %d lost during the run%n",
+                clients.size(), connectFailures.sum(), disconnects.sum());
+        System.out.printf("sent            %d messages (%.1f/s)%n", sent, sent / seconds);
+        System.out.printf("delivered       %d of %d expected (%.2f %%, %.1f/s)%n",
+                delivered, expected, expected == 0 ? 0.0 : 100.0 * delivered / expected, delivered / seconds);
+        latency("end-to-end", endToEnd.snapshot(), 1e6);
+        latency("server->client", serverToClient.snapshot(), 1);
+        for (Map.Entry<String, LongAdder> e : errors.entrySet()) {
+            System.out.printf("error           %s x%d%n", e.getKey(), e.getValue().sum());
+        }
+    }
+
+    private static void latency(String name, Histogram.Snapshot s, double perMilli) {
+        System.out.printf("%-15s ms  p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f%n", name,
+                s.quantile(0.5) / perMilli, s.quantile(0.9) / perMilli, s.quantile(0.99) / perMilli,
+                s.quantile(0.999) / perMilli, s.max / perMilli);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 9000;
+        int connections = Integer.getInteger("chat.load.connections", 1000);
+        long warmup = TimeUnit.SECONDS.toNanos(Long.getLong("chat.load.warmupSeconds", 5L));
+        long duration = TimeUnit.SECONDS.toNanos(Long.getLong("chat.load.seconds", 30L));
+
+        LoadGenerator load = new LoadGenerator(host, port, connections,
+                Integer.getInteger("chat.load.rooms", 10),
+                Double.parseDouble(System.getProperty("chat.load.rate", "1000")),
+                Integer.getInteger("chat.load.messageBytes", 100),
+                Integer.getInteger("chat.load.version", ChatMessage.MAX_VERSION));
+
+        long t0 = System.nanoTime();
+        load.connectAll(Integer.getInteger("chat.load.connectConcurrency", 64));
+        System.out.printf("connected %d/%d in %.1f s, %s%n", load.clients.size(), connections,
+                (System.nanoTime() - t0) / 1e9, SecureChatClient.HANDSHAKE_STATS);
+        if (load.clients.isEmpty()) {
+            load.close();
+            return;
+        }
+
+        load.run(warmup, duration);
+        TimeUnit.SECONDS.sleep(Long.getLong("chat.load.drainSeconds", 2L));   // messages encore en vol
+        load.report(duration / 1e9);
+        load.close();
+    }
+}
@@ -5,5 +5,24 @@ public enum MessageType {
     TEXT_MESSAGE,
     PRIVATE_MESSAGE,
     USER_LIST_REQUEST,
-    ERROR_RESPONSE
+    ERROR_RESPONSE,
+    // transfert de fichier par morceaux (voir FileTransfer) ; toujours à la fin : l'ordinal est encodé
+    FILE_START,          // content = "<id> <taille> <nom>"
+    FILE_CHUNK,          // content binaire = [id:4][seq:4][octets]
+    FILE_END,            // content = "<id>" ou "<id> aborted"
+    FILE_ACK,            // Server -> émetteur, content = "<id> <seq>"
+    // battement de coeur : le serveur envoie PING à une session silencieuse,
+    // le client répond PONG ; un client peut aussi sonder le serveur par PING
+    PING,
+    PONG,
+    // entre noeuds d'un cluster seulement (voir ClusterNode), refusés venant d'un client
+    CLUSTER_HELLO,       // sender = id du noeud
+    CLUSTER_USER,        // sender = utilisateur, content = "1" connecté / "0" parti
+    CLUSTER_ROOM,        // room = salon, content = "1" au moins un membre / "0" fermé
+    // version 5 : Server -> Client, sender = nom, content = "<id>" ; envoyé
+    // avant la première trame qui désigne ce nom par son identifiant
+    SYMBOL,
+    // Server -> Client, requestId = celui de la requête : traitée sans autre
+    // réponse (une requête sans requestId n'est jamais acquittée)
+    ACK
 }
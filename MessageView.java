@@ -0,0 +1,355 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/*
+ * Vue paresseuse sur le corps d'une trame reçue (JSON ou binaire), lue
+ * directement dans le tableau reçu. Une seule passe repère type, version,
+ * timestamp et la position de chaque champ texte ; les String ne sont
+ * construites qu'au premier appel du getter correspondant. Un nom désigné
+ * par identifiant (version 5) est résolu au passage par la table de liaisons
+ * du lecteur : la String partagée est reprise telle quelle. Le tableau peut
+ * dépasser le corps (tableau du pool) : aucune lecture ne franchit la limite.
+ */
+final class MessageView {
+
+    private static final MessageType[] TYPES = MessageType.values();
+
+    private static final int SENDER = 0, RECIPIENT = 1, ROOM = 2, CONTENT = 3;
+    private static final byte[][] KEYS = {
+            ascii("sender"), ascii("recipient"), ascii("room"), ascii("content")
+    };
+    private static final byte[] TYPE_KEY = ascii("type");
+    private static final byte[] VERSION_KEY = ascii("version");
+    private static final byte[] TIMESTAMP_KEY = ascii("timestamp");
+    private static final byte[] REQUEST_ID_KEY = ascii("requestId");
+    private static final byte[] DEFLATE_KEY = ascii("deflate");
+
+    private final byte[] data;
+    private final IntFunction<String> names;        // null : identifiants refusés
+    private MessageType type;
+    private int version = ChatMessage.VERSION_JSON;
+    private long timestamp;
+    private int requestId;
+    private boolean deflate = true;
+
+    // pour chaque champ : début, fin (exclue), -1 si null ; escaped si le JSON contient des '\'
+    private final int[] start = { -1, -1, -1, -1 };
+    private final int[] end = new int[4];
+    private final boolean[] escaped = new boolean[4];
+    private final String[] decoded = new String[4];
+    private final int[] ref = new int[3];           // identifiant de sender, recipient, room ou Symbols.NONE
+
+    private int pos;
+
+    private MessageView(byte[] data, IntFunction<String> names) {
+        this.data = data;
+        this.names = names;
+    }
+
+    static MessageView parse(byte[] data, int offset, int length) {
+        return parse(data, offset, length, null);
+    }
+
+    static MessageView parse(byte[] data, int offset, int length, IntFunction<String> names) {
+        if (length <= 0) return null;
+        MessageView view = new MessageView(data, names);
+        try {
+            boolean ok = ChatMessage.isBinaryBody(data[offset])
+                    ? view.scanBinary(offset, offset + length)
+                    : view.scanJson(offset, offset + length);
+            return ok && view.type != null ? view : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    MessageType getType() { return type; }
+    int getVersion() { return version; }
+    long getTimestamp() { return timestamp; }
+    int getRequestId() { return requestId; }
+    boolean acceptsDeflate() { return deflate; }
+    String getSender() { return field(SENDER); }
+    String getRecipient() { return field(RECIPIENT); }
+    String getRoom() { return field(ROOM); }
+    String getContent() { return field(CONTENT); }
+
+    // identifiants reçus (version 5), Symbols.NONE si le nom était en texte
+    int senderRef() { return ref[SENDER]; }
+    int recipientRef() { return ref[RECIPIENT]; }
+    int roomRef() { return ref[ROOM]; }
+
+    ChatMessage toMessage() {
+        if (type == MessageType.FILE_CHUNK) {
+            // le tableau reçu retourne au pool : les octets du morceau sont copiés
+            ChatMessage chunk = ChatMessage.chunk(getSender(), getRecipient(), getRoom(),
+                    Arrays.copyOfRange(data, contentOffset(), contentOffset() + contentLength()), 0, contentLength());
+            chunk.setVersion(version);
+            return chunk.setRequestId(requestId);
+        }
+        return new ChatMessage(type, version, timestamp,
+                getSender(), getRecipient(), getRoom(), getContent()).setRequestId(requestId).setDeflate(deflate);
+    }
+
+    // content lu comme octets bruts (FILE_CHUNK, corps binaire), en place dans array()
+    byte[] array() { return data; }
+    int contentOffset() { return Math.max(start[CONTENT], 0); }
+    int contentLength() { return start[CONTENT] < 0 ? 0 : end[CONTENT] - start[CONTENT]; }
+
+    private String field(int f) {
+        if (start[f] < 0) return decoded[f];
+        String s = decoded[f];
+        if (s == null) {
+            s = escaped[f] ? unescape(start[f], end[f]) : new String(data, start[f], end[f] - start[f], StandardCharsets.UTF_8);
+            decoded[f] = s;
+        }
+        return s;
+    }
+
+    /* ---------------- BINAIRE ---------------- */
+
+    private boolean scanBinary(int from, int limit) {
+        if (limit - from < 10) return false;            // [version][type][timestamp:8]
+        pos = from;
+        version = data[pos++];
+        int ordinal = data[pos++];
+        if (ordinal < 0 || ordinal >= TYPES.length) return false;
+        type = TYPES[ordinal];
+        long ts = 0;
+        for (int i = 0; i < 8; i++) ts = (ts << 8) | (data[pos++] & 0xFF);
+        timestamp = ts;
+        if (version >= ChatMessage.VERSION_REQUEST_ID) requestId = readVarint(limit);
+
+        for (int f = SENDER; f <= CONTENT; f++) {
+            int n = readVarint(limit);
+            if (version >= ChatMessage.VERSION_INTERNED && f != CONTENT) {
+                if ((n & 1) != 0) {
+                    // identifiant inconnu du lecteur : trame illisible
+                    String name = names == null ? null : names.apply(n >>> 1);
+                    if (name == null) return false;
+                    ref[f] = n >>> 1;
+                    decoded[f] = name;
+                    continue;
+                }
+                n >>>= 1;
+            }
+            if (n == 0) continue;
+            // longueur négative (varint débordé) ou champ au-delà de la trame
+            if (n < 0 || n - 1 > limit - pos) return false;
+            start[f] = pos;
+            pos += n - 1;
+            end[f] = pos;
+        }
+        return pos <= limit;
+    }
+
+    // 5 octets au plus ; le cinquième ne porte que les 4 bits hauts d'un int
+    private int readVarint(int limit) {
+        int n = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = next(limit);
+            if (shift == 28 && (b & 0xF0) != 0) break;
+            n |= (b & 0x7F) << shift;
+            if (b >= 0) return n;
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+
+    /* ---------------- JSON ---------------- */
+
+    private boolean scanJson(int from, int limit) {
+        pos = from;
+        skipWhitespace(limit);
+        if (next(limit) != '{') return false;
+
+        skipWhitespace(limit);
+        if (peek(limit) == '}') return true;
+
+        while (true) {
+            skipWhitespace(limit);
+            if (peek(limit) != '"') return false;
+            int keyStart = pos + 1;
+            skipString(limit);
+            int keyEnd = pos - 1;
+
+            skipWhitespace(limit);
+            if (next(limit) != ':') return false;
+            skipWhitespace(limit);
+
+            readValue(keyStart, keyEnd, limit);
+
+            skipWhitespace(limit);
+            byte c = next(limit);
+            if (c == '}') return true;
+            if (c != ',') return false;
+        }
+    }
+
+    private void readValue(int keyStart, int keyEnd, int limit) {
+        int f = fieldIndex(keyStart, keyEnd);
+        byte c = peek(limit);
+
+        if (c == '"') {
+            int valueStart = pos + 1;
+            boolean hasEscape = skipString(limit);
+            int valueEnd = pos - 1;
+            if (f >= 0) {
+                start[f] = valueStart;
+                end[f] = valueEnd;
+                escaped[f] = hasEscape;
+            } else if (matches(keyStart, keyEnd, TYPE_KEY)) {
+                type = typeOf(valueStart, valueEnd);
+            }
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            long n = readLong(limit);
+            if (matches(keyStart, keyEnd, VERSION_KEY)) version = (int) n;
+            else if (matches(keyStart, keyEnd, TIMESTAMP_KEY)) timestamp = n;
+            else if (matches(keyStart, keyEnd, REQUEST_ID_KEY)) requestId = (int) n;
+            else if (matches(keyStart, keyEnd, DEFLATE_KEY)) deflate = n != 0;
+        } else if (c == 'n') {
+            if (limit - pos < 4 || data[pos + 1] != 'u' || data[pos + 2] != 'l' || data[pos + 3] != 'l') {
+                throw new IllegalArgumentException("bad literal");
+            }
+            pos += 4;
+            if (f >= 0) start[f] = -1;
+        } else {
+            skipValue(limit);
+        }
+    }
+
+    // retourne true si la chaîne contient au moins un échappement ; les
+    // échappements unicode (4 chiffres hexa) sont vérifiés dès ici pour que
+    // unescape() ne puisse plus échouer après parse()
+    private boolean skipString(int limit) {
+        boolean hasEscape = false;
+        pos++;
+        while (pos < limit) {
+            byte c = data[pos++];
+            if (c == '"') return hasEscape;
+            if (c == '\\') {
+                hasEscape = true;
+                if (pos < limit && data[pos] == 'u') {
+                    if (limit - pos < 5) break;
+                    for (int i = 1; i <= 4; i++) {
+                        if (Character.digit(data[pos + i], 16) < 0) throw new IllegalArgumentException("bad \\u escape");
+                    }
+                    pos += 4;
+                }
+                pos++;
+            }
+        }
+        throw new IllegalArgumentException("unterminated string");
+    }
+
+    private long readLong(int limit) {
+        boolean negative = peek(limit) == '-';
+        if (negative) pos++;
+        long n = 0;
+        while (pos < limit && data[pos] >= '0' && data[pos] <= '9') {
+            n = n * 10 + (data[pos++] - '0');
+        }
+        // partie décimale ou exposant éventuels : ignorés
+        while (pos < limit && (data[pos] == '.' || data[pos] == 'e' || data[pos] == 'E'
+                || data[pos] == '+' || data[pos] == '-' || (data[pos] >= '0' && data[pos] <= '9'))) {
+            pos++;
+        }
+        return negative ? -n : n;
+    }
+
+    // objets / tableaux / true / false de clés inconnues
+    private void skipValue(int limit) {
+        int depth = 0;
+        while (pos < limit) {
+            byte c = data[pos];
+            if (c == '"') {
+                skipString(limit);
+                continue;
+            }
+            if (c == '{' || c == '[') depth++;
+            else if (c == '}' || c == ']') {
+                if (depth == 0) return;
+                depth--;
+            } else if (c == ',' && depth == 0) return;
+            pos++;
+        }
+    }
+
+    private byte peek(int limit) {
+        if (pos >= limit) throw new IllegalArgumentException("truncated body");
+        return data[pos];
+    }
+
+    private byte next(int limit) {
+        byte c = peek(limit);
+        pos++;
+        return c;
+    }
+
+    private void skipWhitespace(int limit) {
+        while (pos < limit) {
+            byte c = data[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return;
+            pos++;
+        }
+    }
+
+    private int fieldIndex(int keyStart, int keyEnd) {
+        for (int f = 0; f < KEYS.length; f++) {
+            if (matches(keyStart, keyEnd, KEYS[f])) return f;
+        }
+        return -1;
+    }
+
+    private MessageType typeOf(int from, int to) {
+        for (MessageType t : TYPES) {
+            String name = t.name();
+            if (name.length() != to - from) continue;
+            int i = 0;
+            while (i < name.length() && data[from + i] == name.charAt(i)) i++;
+            if (i == name.length()) return t;
+        }
+        return null;
+    }
+
+    private boolean matches(int from, int to, byte[] key) {
+        if (to - from != key.length) return false;
+        for (int i = 0; i < key.length; i++) {
+            if (data[from + i] != key[i]) return false;
+        }
+        return true;
+    }
+
+    private String unescape(int from, int to) {
+        StringBuilder sb = new StringBuilder(to - from);
+        int runStart = from;
+        int i = from;
+        while (i < to) {
+            if (data[i] != '\\') {
+                i++;
+                continue;
+            }
+            sb.append(new String(data, runStart, i - runStart, StandardCharsets.UTF_8));
+            byte e = data[i + 1];
+            i += 2;
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(new String(data, i, 4, StandardCharsets.US_ASCII), 16));
+                    i += 4;
+                    break;
+                default: sb.append((char) e);               // \" \\ \/
+            }
+            runStart = i;
+        }
+        sb.append(new String(data, runStart, to - runStart, StandardCharsets.UTF_8));
+        return sb.toString();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
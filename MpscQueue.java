@@ -0,0 +1,41 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+// File chaînée à la Vyukov : offer est un seul échange atomique sur la queue,
+// poll ne touche que la tête, qui n'appartient qu'au consommateur.
+final class MpscQueue<T> {
+
+    private static final class Node<T> {
+        T value;
+        volatile Node<T> next;
+
+        Node(T value) { this.value = value; }
+    }
+
+    private final AtomicReference<Node<T>> tail;
+    private Node<T> head;                        // sentinelle, consommateur seulement
+
+    MpscQueue() {
+        Node<T> sentinel = new Node<>(null);
+        head = sentinel;
+        tail = new AtomicReference<>(sentinel);
+    }
+
+    void offer(T value) {
+        Node<T> node = new Node<>(value);
+        tail.getAndSet(node).next = node;
+    }
+
+    // null si vide (ou si un offer n'a pas encore chaîné son noeud)
+    T poll() {
+        Node<T> next = head.next;
+        if (next == null) return null;
+        T value = next.value;
+        next.value = null;
+        head = next;
+        return value;
+    }
+
+    boolean isEmpty() {
+        return head.next == null;
+    }
+}
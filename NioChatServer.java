@@ -0,0 +1,89 @@
+import javax.net.ssl.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.*;
+
+/*
+ * Mode NIO de SecureChatServer : un thread d'accept et un petit nombre de
+ * boucles Selector qui font handshake / unwrap / wrap avec SSLEngine.
+ * Aucun thread par connexion ; le format de trame reste
+ * [longueur][checksum][corps] et chaque trame passe par handleProtocolMessage.
+ */
+class NioChatServer {
+
+    private final SecureChatServer server;
+    private final SSLContext context;
+    private final ServerSocketChannel acceptor;
+    private final NioEventLoop[] loops;
+    private int next;                   // thread d'accept seulement
+
+    // acceptor : lié par bind(), avant que le serveur ne soit entièrement construit
+    NioChatServer(SecureChatServer server, SSLContext context, ServerSocketChannel acceptor, int loopCount) throws IOException {
+        this.server = server;
+        this.context = context;
+        this.acceptor = acceptor;
+
+        loops = new NioEventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop(i);
+        }
+    }
+
+    static ServerSocketChannel bind(int port) throws IOException {
+        ServerSocketChannel acceptor = ServerSocketChannel.open();
+        acceptor.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        acceptor.bind(new InetSocketAddress(port), 4096);
+        return acceptor;
+    }
+
+    void run() {
+        for (NioEventLoop loop : loops) loop.start();
+
+        while (acceptor.isOpen()) {
+            SocketChannel channel = null;
+            try {
+                channel = acceptor.accept();
+                NioEventLoop loop = nextLoop();
+                if (loop == null) {
+                    // toutes les boucles sont tombées (voir NioEventLoop.run) : launch() rend la main
+                    System.err.println("all NIO event loops stopped, no longer accepting");
+                    ChatMetrics.shared().error("nio-stopped");
+                    shutdown();
+                    break;
+                }
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                SSLEngine engine = context.createSSLEngine();
+                engine.setUseClientMode(false);
+
+                NioConnection connection = new NioConnection(server, channel, engine, loop);
+                channel = null;                         // fermé désormais par la connexion
+                loop.register(connection);
+            } catch (IOException | RuntimeException e) {
+                if (!acceptor.isOpen()) break;
+                ChatMetrics.shared().error("accept");
+            } finally {
+                if (channel != null) {
+                    try { channel.close(); } catch (IOException ignored) {}
+                }
+            }
+        }
+    }
+
+    // prochaine boucle encore en marche, tour à tour ; null si aucune
+    private NioEventLoop nextLoop() {
+        for (int i = 0; i < loops.length; i++) {
+            NioEventLoop loop = loops[next];
+            next = (next + 1) % loops.length;
+            if (loop.running()) return loop;
+        }
+        return null;
+    }
+
+    void shutdown() {
+        try { acceptor.close(); } catch (IOException ignored) {}
+        for (NioEventLoop loop : loops) loop.shutdown();
+    }
+}
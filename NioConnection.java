@@ -0,0 +1,450 @@
+import javax.net.ssl.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class NioConnection {
+
+    private static final int MAX_BODY = 10_000_000;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final ByteBuffer[] EMPTY_SRCS = { EMPTY };
+
+    private final SecureChatServer server;
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final NioEventLoop loop;
+    private final OutboundQueue outbound;
+    private final FlushPolicy flush;
+    private final BufferPool pool = BufferPool.shared();
+    final AtomicBoolean writeScheduled = new AtomicBoolean();
+    final ClientSession session;
+
+    private SelectionKey key;
+    private ByteBuffer netIn;      // enregistrement TLS incomplet (pool direct), sinon null
+    private ByteBuffer netOut;     // octets chiffrés pas encore écrits (pool direct), sinon null
+    // lot de trames en clair en cours de wrap ; seule la première peut être entamée
+    private EncodedFrame[] batchFrames = new EncodedFrame[8];
+    private ByteBuffer[] batch = new ByteBuffer[8];
+    private int batchCount;
+    private long lingerDeadline;   // 0 hors fenêtre de linger
+    private volatile boolean lingering;
+    private byte[] frame;          // trame applicative incomplète (pool), sinon null
+    private int frameLength;       // 8 tant que l'en-tête est incomplet, puis 8 + corps
+    private int frameFill;
+    private long handshakeSince;
+    private long handshakeStartNanos;
+    private volatile boolean handshakeDone;     // lu aussi par la roue de minuterie
+    private boolean tasksPending;              // tâches SSLEngine en cours sur l'étage de handshake
+    private volatile boolean tasksDone;
+    private boolean closeAfterFlush;
+    private volatile boolean disconnectRequested;
+    private volatile boolean closed;
+
+    NioConnection(SecureChatServer server, SocketChannel channel, SSLEngine engine, NioEventLoop loop) {
+        this.server = server;
+        this.channel = channel;
+        this.engine = engine;
+        this.loop = loop;
+        this.outbound = server.newOutboundQueue();
+        this.flush = server.flushPolicy();
+        ChatMetrics.shared().connectionsOpened.increment();
+        // le writer de la session est la boucle propriétaire de la connexion
+        this.session = new ClientSession(null, outbound, null, null) {
+            @Override
+            void send(EncodedFrame frame) {
+                super.send(frame);
+                // pendant le linger la file ne replanifie pas le writer : seuil atteint, on réveille
+                if (lingering && outbound.queuedBytes() >= flush.maxBatchBytes()) loop.requestWrite(NioConnection.this);
+            }
+
+            @Override
+            void scheduleWriter() {
+                loop.requestWrite(NioConnection.this);
+            }
+
+            @Override
+            void disconnect() {
+                disconnectRequested = true;
+                loop.requestWrite(NioConnection.this);
+            }
+
+            @Override
+            void disconnectLater() {
+                disconnect();                               // déjà différé sur la boucle
+            }
+        };
+    }
+
+    void register(Selector selector) {
+        try {
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+            handshakeSince = server.handshakeStage().stats().begin();
+            handshakeStartNanos = System.nanoTime();
+            engine.beginHandshake();
+            // même échéance globale qu'en mode bloquant (voir HandshakeStage)
+            TimerWheel timers = TimerWheel.shared();
+            timers.schedule(this::checkHandshake, timers.ticks(server.handshakeStage().timeoutMillis()));
+            server.watchIdle(session);
+            runHandshake();
+        } catch (IOException e) {
+            ChatMetrics.shared().error("nio-handshake");
+            close();
+        }
+    }
+
+    /* ---------------- LECTURE ---------------- */
+
+    void onReadable() {
+        if (tasksPending) return;
+        try {
+            int packetSize = engine.getSession().getPacketBufferSize();
+            ByteBuffer in = netIn != null ? netIn : loop.netScratchIn(packetSize);
+
+            int n = channel.read(in);
+            if (n < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            unwrapAll(in, packetSize);
+        } catch (IOException e) {
+            ChatMetrics.shared().error("nio-read");
+            close();
+        }
+    }
+
+    // in est en mode lecture ; les octets non consommés sont conservés dans netIn
+    private void unwrapAll(ByteBuffer in, int packetSize) throws IOException {
+        int appSize = engine.getSession().getApplicationBufferSize();
+        while (in.hasRemaining() && !closed) {
+            ByteBuffer app = loop.appScratch(appSize);
+            SSLEngineResult result = engine.unwrap(in, app);
+
+            app.flip();
+            if (app.hasRemaining()) onPlaintext(app);
+
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                close();
+                return;
+            }
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) break;
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                appSize = Math.max(appSize * 2, engine.getSession().getApplicationBufferSize());
+                continue;
+            }
+            runHandshake();
+            if (tasksPending) break;
+        }
+        if (closed) return;
+
+        if (in.hasRemaining()) {
+            if (in != netIn) {
+                netIn = pool.acquireDirect(Math.max(packetSize, in.remaining()));
+                netIn.put(in);
+            } else {
+                netIn.compact();
+            }
+        } else if (netIn != null) {
+            pool.releaseDirect(netIn);
+            netIn = null;
+        }
+    }
+
+    private void onPlaintext(ByteBuffer app) {
+        while (app.hasRemaining() && !closeAfterFlush) {
+            if (frame == null) {
+                int size = 8;
+                if (app.remaining() >= 8) {
+                    int bodyLength = app.getInt(app.position()) & ~FrameCompression.FLAG;
+                    if (!checkLength(bodyLength)) return;
+                    size = 8 + bodyLength;
+                    if (app.remaining() >= size) {
+                        byte[] full = pool.acquire(size);
+                        app.get(full, 0, size);
+                        dispatch(full, size);
+                        continue;
+                    }
+                }
+                frame = pool.acquire(size);
+                frameLength = size;
+                frameFill = 0;
+            }
+
+            int chunk = Math.min(frameLength - frameFill, app.remaining());
+            app.get(frame, frameFill, chunk);
+            frameFill += chunk;
+
+            if (frameFill < frameLength) continue;
+
+            if (frameLength == 8) {
+                int bodyLength = FrameCompression.frameLength(frame) - 8;
+                if (!checkLength(bodyLength)) return;
+                byte[] full = pool.acquire(8 + bodyLength);
+                System.arraycopy(frame, 0, full, 0, 8);
+                pool.release(frame);
+                frame = full;
+                frameLength = 8 + bodyLength;
+                continue;
+            }
+
+            byte[] full = frame;
+            frame = null;
+            dispatch(full, frameLength);
+        }
+    }
+
+    private void dispatch(byte[] full, int length) {
+        try {
+            server.handleProtocolMessage(full, length, session);
+        } finally {
+            pool.release(full);
+        }
+    }
+
+    private boolean checkLength(int bodyLength) {
+        if (bodyLength > 0 && bodyLength <= MAX_BODY) return true;
+        ChatMetrics.shared().parseFailures.increment();
+        server.sendError(session, "invalid-length");
+        pool.release(frame);
+        frame = null;
+        closeAfterFlush = true;
+        return false;
+    }
+
+    /* ---------------- ECRITURE ---------------- */
+
+    void onWritable() {
+        flushOutbound();
+    }
+
+    void flushOutbound() {
+        writeScheduled.set(false);
+        if (closed) return;
+        if (disconnectRequested) {
+            close();
+            return;
+        }
+        try {
+            if (tasksPending) {
+                if (!tasksDone) return;
+                resumeHandshake();
+                if (closed || tasksPending) return;
+            }
+            if (!drainNetOut()) return;
+            if (engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                runHandshake();
+                return;
+            }
+
+            if (batchCount == 0 && linger()) return;
+            while (gather() > 0) {
+                if (!wrapAndWrite(batch, batchCount)) return;
+                releaseWritten();
+            }
+
+            key.interestOps(SelectionKey.OP_READ);
+            if (closeAfterFlush) close();
+        } catch (IOException e) {
+            ChatMetrics.shared().error("nio-write");
+            close();
+        }
+    }
+
+    private boolean drainNetOut() throws IOException {
+        if (netOut == null) return true;
+        channel.write(netOut);
+        if (netOut.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return false;
+        }
+        pool.releaseDirect(netOut);
+        netOut = null;
+        key.interestOps(SelectionKey.OP_READ);
+        return true;
+    }
+
+    // true tant que la fenêtre de linger est ouverte (flush différé par la boucle)
+    private boolean linger() {
+        if (!flush.lingers() || outbound.isEmpty() || outbound.queuedBytes() >= flush.maxBatchBytes()) {
+            lingerDeadline = 0;
+            lingering = false;
+            return false;
+        }
+        long now = System.nanoTime();
+        if (lingerDeadline == 0) {
+            lingerDeadline = now + flush.lingerNanos();
+            lingering = true;
+            loop.flushLater(this, lingerDeadline);
+            return true;
+        }
+        if (now - lingerDeadline < 0) return true;
+        lingerDeadline = 0;
+        lingering = false;
+        return false;
+    }
+
+    // complète le lot jusqu'à maxBatchBytes ; retourne le nombre de trames du lot
+    private int gather() {
+        long bytes = 0;
+        for (int i = 0; i < batchCount; i++) bytes += batch[i].remaining();
+        while (bytes < flush.maxBatchBytes()) {
+            EncodedFrame next = outbound.poll();
+            if (next == null) break;
+            if (batchCount == batch.length) {
+                batch = Arrays.copyOf(batch, batchCount * 2);
+                batchFrames = Arrays.copyOf(batchFrames, batchCount * 2);
+            }
+            batchFrames[batchCount] = next;
+            batch[batchCount++] = next.buffer();
+            bytes += next.length();
+        }
+        return batchCount;
+    }
+
+    // Libère les trames entièrement chiffrées et tasse le reste du lot ; appelé
+    // une fois les enregistrements écrits sur le canal, les trames sont marquées écrites.
+    private void releaseWritten() {
+        int done = 0;
+        while (done < batchCount && !batch[done].hasRemaining()) {
+            batchFrames[done].markWritten();
+            batchFrames[done].release();
+            done++;
+        }
+        if (done == 0) return;
+        int left = batchCount - done;
+        System.arraycopy(batch, done, batch, 0, left);
+        System.arraycopy(batchFrames, done, batchFrames, 0, left);
+        for (int i = left; i < batchCount; i++) {
+            batch[i] = null;
+            batchFrames[i] = null;
+        }
+        batchCount = left;
+    }
+
+    private boolean wrapAndWrite(ByteBuffer src) throws IOException {
+        return wrapAndWrite(src == EMPTY ? EMPTY_SRCS : new ByteBuffer[] { src }, 1);
+    }
+
+    // Plusieurs trames par enregistrement TLS (wrap en regroupement) et plusieurs
+    // enregistrements par write() : un seul appel système pour tout le lot.
+    private boolean wrapAndWrite(ByteBuffer[] srcs, int count) throws IOException {
+        int packetSize = engine.getSession().getPacketBufferSize();
+        ByteBuffer net = loop.netScratchOut(packetSize + flush.maxBatchBytes());
+        do {
+            SSLEngineResult result = engine.wrap(srcs, 0, count, net);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED && net.position() == 0) {
+                close();
+                return false;
+            }
+            if (result.getStatus() != SSLEngineResult.Status.OK || result.bytesConsumed() == 0) break;
+        } while (srcs[count - 1].hasRemaining() && net.remaining() >= packetSize);
+        net.flip();
+        channel.write(net);
+        if (net.hasRemaining()) {
+            netOut = pool.acquireDirect(net.remaining());
+            netOut.put(net).flip();
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return false;
+        }
+        return true;
+    }
+
+    /* ---------------- HANDSHAKE ---------------- */
+
+    private void runHandshake() throws IOException {
+        while (!closed) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    offloadTasks();
+                    return;
+                case NEED_WRAP:
+                    if (!drainNetOut() || !wrapAndWrite(EMPTY)) return;
+                    break;
+                case NOT_HANDSHAKING:
+                case FINISHED:
+                    if (!handshakeDone) {
+                        handshakeDone = true;
+                        HandshakeStage stage = server.handshakeStage();
+                        stage.recordLatency(System.nanoTime() - handshakeStartNanos);
+                        stage.stats().record(engine.getSession(), handshakeSince);
+                    }
+                    if (batchCount > 0 || !outbound.isEmpty()) loop.requestWrite(this);
+                    return;
+                default:
+                    // NEED_UNWRAP : on attend des octets ; les trames déjà en file (PING...)
+                    // partiront à la fin du handshake, sans réveiller la boucle d'ici là
+                    return;
+            }
+        }
+    }
+
+    // Les tâches déléguées (signature, vérification...) partent sur l'étage de
+    // handshake ; la connexion ne reçoit plus d'événements d'ici leur fin.
+    private void offloadTasks() {
+        tasksPending = true;
+        tasksDone = false;
+        key.interestOps(0);
+        try {
+            server.handshakeStage().taskExecutor().execute(() -> {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) task.run();
+                tasksDone = true;
+                loop.requestWrite(this);
+            });
+        } catch (RejectedExecutionException e) {
+            close();
+        }
+    }
+
+    private void resumeHandshake() throws IOException {
+        tasksPending = false;
+        key.interestOps(SelectionKey.OP_READ | (netOut != null ? SelectionKey.OP_WRITE : 0));
+        runHandshake();
+        if (!closed && !tasksPending && netIn != null) {
+            netIn.flip();
+            unwrapAll(netIn, engine.getSession().getPacketBufferSize());
+        }
+    }
+
+    // thread de la roue : la fermeture elle-même se fait sur la boucle
+    private void checkHandshake() {
+        if (handshakeDone || closed) return;
+        server.handshakeStage().recordTimeout();
+        session.disconnect();
+    }
+
+    /* ---------------- FERMETURE ---------------- */
+
+    // Connexion jamais prise par sa boucle (arrêtée) : aucun handshake commencé,
+    // rien à envoyer. Appelable hors de la boucle.
+    void reject() {
+        if (closed) return;
+        closed = true;
+        try { channel.close(); } catch (IOException ignored) {}
+        outbound.clear();
+        server.closeSession(session);
+    }
+
+    void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            engine.closeOutbound();
+            if (netOut == null) wrapAndWrite(EMPTY);
+        } catch (IOException | RuntimeException ignored) {}
+        if (key != null) key.cancel();
+        try { channel.close(); } catch (IOException ignored) {}
+        outbound.clear();
+        for (int i = 0; i < batchCount; i++) batchFrames[i].release();
+        batchCount = 0;
+        pool.releaseDirect(netIn);
+        pool.releaseDirect(netOut);
+        pool.release(frame);
+        netIn = netOut = null;
+        frame = null;
+        server.closeSession(session);
+    }
+}
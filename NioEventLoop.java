@@ -0,0 +1,174 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+class NioEventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<NioConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<Deferred> deferredFlushes = new ArrayDeque<>();   // thread de la boucle seulement
+    private volatile boolean running = true;   // faux dès que la boucle s'arrête
+
+    // tampons (directs) partagés par toutes les connexions de la boucle ; une
+    // connexion n'emprunte un tampon au pool que s'il lui reste des octets partiels
+    ByteBuffer netScratchIn;
+    ByteBuffer netScratchOut;
+    ByteBuffer appScratch;
+
+    NioEventLoop(int index) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, "chat-nio-" + index);
+    }
+
+    void start() { thread.start(); }
+
+    void shutdown() {
+        try { selector.close(); } catch (IOException ignored) {}
+    }
+
+    boolean running() { return running; }
+
+    // Une boucle arrêtée ne prendra plus la connexion : elle est refusée ici.
+    // Arrêt pendant l'ajout : la boucle (en sortant) ou nous la retirons de la
+    // file, jamais les deux.
+    void register(NioConnection connection) {
+        if (!running) {
+            connection.reject();
+            return;
+        }
+        pendingRegistrations.add(connection);
+        selector.wakeup();
+        if (!running && pendingRegistrations.remove(connection)) connection.reject();
+    }
+
+    void requestWrite(NioConnection connection) {
+        if (!connection.writeScheduled.compareAndSet(false, true)) return;
+        pendingWrites.add(connection);
+        if (Thread.currentThread() != thread) selector.wakeup();
+    }
+
+    // flush différé (fenêtre de linger) ; le linger étant le même pour toutes
+    // les connexions, la file reste triée par échéance
+    void flushLater(NioConnection connection, long deadline) {
+        deferredFlushes.add(new Deferred(connection, deadline));
+    }
+
+    ByteBuffer netScratchIn(int size) {
+        if (netScratchIn == null || netScratchIn.capacity() < size) netScratchIn = ByteBuffer.allocateDirect(size);
+        netScratchIn.clear();
+        return netScratchIn;
+    }
+
+    ByteBuffer netScratchOut(int size) {
+        if (netScratchOut == null || netScratchOut.capacity() < size) netScratchOut = ByteBuffer.allocateDirect(size);
+        netScratchOut.clear();
+        return netScratchOut;
+    }
+
+    ByteBuffer appScratch(int size) {
+        if (appScratch == null || appScratch.capacity() < size) appScratch = ByteBuffer.allocateDirect(size);
+        appScratch.clear();
+        return appScratch;
+    }
+
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select(key -> {
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (!key.isValid()) return;
+                        if (key.isWritable()) connection.onWritable();
+                        if (key.isValid() && key.isReadable()) connection.onReadable();
+                    } catch (ClosedSelectorException e) {
+                        throw e;
+                    } catch (RuntimeException e) {
+                        fail(connection);
+                    }
+                }, selectTimeoutMillis());
+
+                NioConnection connection;
+                while ((connection = pendingRegistrations.poll()) != null) {
+                    try {
+                        connection.register(selector);
+                    } catch (ClosedSelectorException e) {
+                        throw e;
+                    } catch (RuntimeException e) {
+                        fail(connection);
+                    }
+                }
+                while ((connection = pendingWrites.poll()) != null) {
+                    flush(connection);
+                }
+                long now = System.nanoTime();
+                Deferred deferred;
+                while ((deferred = deferredFlushes.peek()) != null && now - deferred.deadline >= 0) {
+                    deferredFlushes.poll();
+                    flush(deferred.connection);
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                // Selector inutilisable : ses connexions ne seraient plus jamais
+                // servies, on les ferme et NioChatServer n'y envoie plus personne
+                System.err.println(thread.getName() + " stopped: " + e);
+                ChatMetrics.shared().error("nio-select");
+                closeAll();
+                break;
+            }
+        }
+        running = false;
+        NioConnection connection;
+        while ((connection = pendingRegistrations.poll()) != null) connection.reject();
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            NioConnection connection = (NioConnection) key.attachment();
+            if (connection != null) connection.close();
+        }
+        try { selector.close(); } catch (IOException ignored) {}
+    }
+
+    private void flush(NioConnection connection) {
+        try {
+            connection.flushOutbound();
+        } catch (ClosedSelectorException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            fail(connection);
+        }
+    }
+
+    // Une exception imprévue ne ferme que la connexion en cause : le thread de
+    // la boucle et les autres connexions qu'il porte continuent.
+    private static void fail(NioConnection connection) {
+        ChatMetrics.shared().error("nio-unexpected");
+        connection.close();
+    }
+
+    // 0 = attente illimitée ; au moins 1 ms sinon (granularité du Selector)
+    private long selectTimeoutMillis() {
+        Deferred next = deferredFlushes.peek();
+        if (next == null) return 0;
+        long nanos = next.deadline - System.nanoTime();
+        return Math.max(1, (nanos + 999_999) / 1_000_000);
+    }
+
+    private static final class Deferred {
+        final NioConnection connection;
+        final long deadline;
+
+        Deferred(NioConnection connection, long deadline) {
+            this.connection = connection;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,470 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/*
+ * Messages privés en attente pour des destinataires hors ligne, sur disque.
+ * Une boîte par destinataire (<nom>.mbox, le nom de fichier sert d'index),
+ * en ajout seul : [déposé à (ms) : 8][trame binaire]. À la connexion la
+ * boîte est relue par blocs et livrée par lots, en attendant que la file de
+ * sortie de la session se vide entre deux lots : le tas ne contient jamais
+ * plus d'un lot. Un enregistrement ne quitte la boîte qu'une fois sa trame
+ * écrite sur la connexion : une session fermée avant garde le reste pour la
+ * suivante. Limites : octets par boîte, octets au total, durée de vie.
+ * Le dépôt se fait sur le thread de lecture de l'émetteur : le canal
+ * d'écriture des boîtes récemment utilisées reste ouvert (LRU), un dépôt ne
+ * coûte alors qu'une écriture.
+ */
+final class OfflineStore {
+
+    enum Result { STORED, MAILBOX_FULL, STORE_FULL }
+
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final int BATCH_FRAMES = 256;
+    private static final int MAX_FRAME = 10_000_000;
+    private static final long BACKPRESSURE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int OPEN_WRITERS = 256;                // canaux d'écriture gardés ouverts
+
+    private final Path directory;
+    private final long maxMailboxBytes;
+    private final long maxTotalBytes;
+    private final long ttlMillis;
+    private final Executor delivery;
+    private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final BufferPool pool = BufferPool.shared();
+    // boîtes dont le canal d'écriture est ouvert, de la moins à la plus récemment utilisée ;
+    // pris sous le verrou d'une boîte, jamais l'inverse
+    private final ReentrantLock writersLock = new ReentrantLock();
+    private final LinkedHashMap<Mailbox, Boolean> writers = new LinkedHashMap<>(16, 0.75f, true);
+
+    OfflineStore(Path directory, long maxMailboxBytes, long maxTotalBytes, long ttlMillis, Executor delivery) throws IOException {
+        this.directory = directory;
+        this.maxMailboxBytes = maxMailboxBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.ttlMillis = ttlMillis;
+        this.delivery = delivery;
+        Files.createDirectories(directory);
+        totalBytes.set(bytesOnDisk());
+        purgeExpired();
+    }
+
+    // Ne touche qu'à la boîte du destinataire ; la trame n'est pas retenue.
+    Result store(String recipient, EncodedFrame frame) {
+        long record = 8 + frame.length();
+        if (totalBytes.get() + record > maxTotalBytes) {
+            purgeExpired();
+            if (totalBytes.get() + record > maxTotalBytes) return Result.STORE_FULL;
+        }
+        while (true) {
+            Mailbox box = mailbox(recipient);
+            box.lock.lock();
+            try {
+                if (box.removed) continue;               // boîte vidée entre-temps : on la recrée
+                if (box.bytes + record > maxMailboxBytes) return Result.MAILBOX_FULL;
+                ByteBuffer header = ByteBuffer.allocate(8).putLong(0, System.currentTimeMillis());
+                if (box.writer == null) {
+                    box.writer = FileChannel.open(box.path,
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+                ByteBuffer[] srcs = { header, frame.buffer() };
+                while (srcs[1].hasRemaining()) box.writer.write(srcs);
+                box.bytes += record;
+                totalBytes.addAndGet(record);
+                keepOpen(box);
+                return Result.STORED;
+            } catch (IOException e) {
+                closeWriter(box);
+                System.err.println("offline message for " + recipient + " not stored: " + e);
+                return Result.STORE_FULL;
+            } finally {
+                box.lock.unlock();
+            }
+        }
+    }
+
+    // Sous box.lock. Au-delà de OPEN_WRITERS, le canal de la boîte la moins
+    // récemment utilisée est fermé, si elle n'est pas occupée ; sinon elle
+    // reste ouverte et repasse en fin de liste.
+    private void keepOpen(Mailbox box) {
+        Mailbox eldest = null;
+        writersLock.lock();
+        try {
+            writers.put(box, Boolean.TRUE);
+            if (writers.size() > OPEN_WRITERS) {
+                eldest = writers.keySet().iterator().next();
+                writers.remove(eldest);
+            }
+        } finally {
+            writersLock.unlock();
+        }
+        if (eldest == null) return;
+        if (eldest.lock.tryLock()) {
+            try {
+                closeWriter(eldest);
+            } finally {
+                eldest.lock.unlock();
+            }
+        } else {
+            writersLock.lock();
+            try {
+                writers.put(eldest, Boolean.TRUE);
+            } finally {
+                writersLock.unlock();
+            }
+        }
+    }
+
+    // sous box.lock : avant de supprimer ou de remplacer le fichier
+    private void closeWriter(Mailbox box) {
+        if (box.writer == null) return;
+        try {
+            box.writer.close();
+        } catch (IOException ignored) {}
+        box.writer = null;
+        writersLock.lock();
+        try {
+            writers.remove(box);
+        } finally {
+            writersLock.unlock();
+        }
+    }
+
+    boolean hasMail(String recipient) {
+        return mailboxes.containsKey(HistoryLog.fileName(recipient)) || Files.exists(pathOf(recipient));
+    }
+
+    // Livraison asynchrone : encode rend la trame à envoyer pour chaque trame
+    // (binaire) non expirée, elle-même retenue ou une copie réencodée, ou null ;
+    // il ne garde pas la trame reçue au-delà de l'appel.
+    void deliver(String recipient, ClientSession session, UnaryOperator<EncodedFrame> encode) {
+        if (!hasMail(recipient)) return;
+        delivery.execute(() -> drain(recipient, session, encode));
+    }
+
+    private void drain(String recipient, ClientSession session, UnaryOperator<EncodedFrame> encode) {
+        Mailbox box = lockForDelivery(recipient);
+        Progress progress = new Progress();
+        try (FileChannel ch = FileChannel.open(box.path, StandardOpenOption.READ)) {
+            long position = 0;
+            long now = System.currentTimeMillis();
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+
+            while (!session.closed) {
+                long size = ch.size();
+                if (position >= size) {
+                    // la boîte n'est supprimée qu'une fois tout rendu par le writer, session ouverte ;
+                    // une trame jetée par la politique de la file compte comme livrée
+                    if (progress.awaitWritten(BACKPRESSURE_WAIT_NANOS) && !session.closed
+                            && removeIfDelivered(box, ch, position)) return;
+                    continue;
+                }
+
+                chunk.clear();
+                ch.read(chunk, position);
+                chunk.flip();
+                int frames = 0;
+                while (frames < BATCH_FRAMES && chunk.remaining() >= 16) {
+                    long storedAt = chunk.getLong(chunk.position());
+                    int length = chunk.getInt(chunk.position() + 8);
+                    int record = 16 + length;
+                    if (length <= 0 || length > MAX_FRAME || position + record > size) {
+                        position = skipDamaged(box, ch, position, record);
+                        break;
+                    }
+                    if (record > chunk.remaining()) {
+                        if (record > chunk.capacity()) chunk = ByteBuffer.allocate(record);
+                        break;
+                    }
+                    chunk.position(chunk.position() + 8);
+                    byte[] bytes = pool.acquire(8 + length);
+                    chunk.get(bytes, 0, 8 + length);
+                    position += record;
+                    if (storedAt + ttlMillis < now) {
+                        pool.release(bytes);
+                        continue;
+                    }
+                    EncodedFrame frame = new EncodedFrame(bytes, 8 + length, pool);
+                    EncodedFrame out = encode.apply(frame);
+                    frame.release();
+                    if (out != null) {
+                        progress.track(out, position);
+                        session.send(out);
+                        out.release();
+                    }
+                    frames++;
+                }
+                // contre-pression : le lot suivant attend que la file de sortie ait de la place
+                while (!session.closed && !session.outbound.awaitBelow(BATCH_FRAMES, BACKPRESSURE_WAIT_NANOS)) {}
+            }
+            compact(box, ch, progress.delivered(position));
+        } catch (NoSuchFileException e) {
+            forget(box);
+        } catch (IOException e) {
+            System.err.println("offline delivery failed: " + e);
+        } finally {
+            box.deliveryLock.unlock();
+        }
+    }
+
+    // Verrou de livraison d'une boîte toujours dans la table, comme store : une
+    // boîte retirée entre-temps (purge, livraison terminée) ne doit ni tronquer
+    // ni supprimer le fichier d'une boîte recréée depuis sous le même nom.
+    private Mailbox lockForDelivery(String recipient) {
+        while (true) {
+            Mailbox box = mailbox(recipient);
+            box.deliveryLock.lock();
+            box.lock.lock();
+            try {
+                if (!box.removed) return box;
+            } finally {
+                box.lock.unlock();
+            }
+            box.deliveryLock.unlock();
+        }
+    }
+
+    // fichier absent (supprimé hors du serveur...) : l'entrée disparaît, hasMail redevient faux
+    private void forget(Mailbox box) {
+        box.lock.lock();
+        try {
+            if (box.removed || Files.exists(box.path)) return;
+            closeWriter(box);
+            totalBytes.addAndGet(-box.bytes);
+            box.bytes = 0;
+            box.removed = true;
+            mailboxes.remove(box.name, box);
+        } finally {
+            box.lock.unlock();
+        }
+    }
+
+    // Enregistrement illisible ou incomplet. Un dépôt en cours tient le verrou
+    // de la boîte : s'il est toujours incomplet une fois le verrou pris, c'est
+    // un reste d'arrêt brutal ; on repart de la fin actuelle du fichier.
+    private long skipDamaged(Mailbox box, FileChannel ch, long position, long record) throws IOException {
+        box.lock.lock();
+        try {
+            long size = ch.size();
+            boolean complete = record > 16 && record <= 16 + MAX_FRAME && position + record <= size;
+            return complete ? position : size;
+        } finally {
+            box.lock.unlock();
+        }
+    }
+
+    // tout a été livré et rien n'a été déposé depuis : la boîte disparaît
+    private boolean removeIfDelivered(Mailbox box, FileChannel ch, long position) throws IOException {
+        box.lock.lock();
+        try {
+            if (box.removed) return true;
+            if (ch.size() != position) return false;
+            closeWriter(box);
+            Files.deleteIfExists(box.path);
+            totalBytes.addAndGet(-box.bytes);
+            box.bytes = 0;
+            box.removed = true;
+            mailboxes.remove(box.name, box);
+            return true;
+        } finally {
+            box.lock.unlock();
+        }
+    }
+
+    // session fermée en cours de livraison : on ne garde que le reste
+    private void compact(Mailbox box, FileChannel ch, long position) throws IOException {
+        if (position == 0 || removeIfDelivered(box, ch, position)) return;
+        box.lock.lock();
+        try {
+            Path tmp = box.path.resolveSibling(box.path.getFileName() + ".tmp");
+            long size = ch.size();
+            try (FileChannel out = FileChannel.open(tmp,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long copied = 0;
+                while (copied < size - position) copied += ch.transferTo(position + copied, size - position - copied, out);
+            }
+            closeWriter(box);                                    // rouvert sur le nouveau fichier au prochain dépôt
+            Files.move(tmp, box.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            totalBytes.addAndGet(-(box.bytes - (size - position)));
+            box.bytes = size - position;
+        } finally {
+            box.lock.unlock();
+        }
+    }
+
+    // Supprime les boîtes dont le dernier dépôt a expiré (date de modification
+    // du fichier) ; une boîte en cours de livraison est gardée. Le total est
+    // diminué de ce qui est supprimé : les dépôts concurrents restent comptés.
+    void purgeExpired() {
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.mbox")) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() + ttlMillis < now) deleteExpired(file);
+                } catch (IOException ignored) {}
+            }
+        } catch (IOException e) {
+            System.err.println("offline store purge failed: " + e);
+        }
+    }
+
+    private long bytesOnDisk() throws IOException {
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.mbox")) {
+            for (Path file : files) {
+                try {
+                    total += Files.size(file);
+                } catch (IOException ignored) {}
+            }
+        }
+        return total;
+    }
+
+    private void deleteExpired(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        Mailbox box = mailbox(name.substring(0, name.length() - ".mbox".length()), file);
+        if (!box.deliveryLock.tryLock()) return;
+        box.lock.lock();
+        try {
+            if (box.removed) return;
+            closeWriter(box);
+            Files.deleteIfExists(file);
+            totalBytes.addAndGet(-box.bytes);
+            box.bytes = 0;
+            box.removed = true;
+            mailboxes.remove(box.name, box);
+        } finally {
+            box.lock.unlock();
+            box.deliveryLock.unlock();
+        }
+    }
+
+    long totalBytes() { return totalBytes.get(); }
+
+    // ferme les canaux d'écriture encore ouverts ; un dépôt ultérieur les rouvre
+    void close() {
+        Mailbox[] open;
+        writersLock.lock();
+        try {
+            open = writers.keySet().toArray(new Mailbox[0]);
+        } finally {
+            writersLock.unlock();
+        }
+        for (Mailbox box : open) {
+            box.lock.lock();
+            try {
+                closeWriter(box);
+            } finally {
+                box.lock.unlock();
+            }
+        }
+    }
+
+    private Mailbox mailbox(String recipient) {
+        return mailbox(HistoryLog.fileName(recipient), pathOf(recipient));
+    }
+
+    private Mailbox mailbox(String name, Path path) {
+        return mailboxes.computeIfAbsent(name, n -> {
+            long bytes = 0;
+            try {
+                if (Files.exists(path)) bytes = Files.size(path);
+            } catch (IOException ignored) {}
+            return new Mailbox(n, path, bytes);
+        });
+    }
+
+    private Path pathOf(String recipient) {
+        return directory.resolve(HistoryLog.fileName(recipient) + ".mbox");
+    }
+
+    // Trames d'une livraison pas encore rendues par le writer de la session.
+    // Une trame rendue sans être écrite (jetée par la file, session fermée)
+    // n'avance pas la position livrée.
+    private static final class Progress {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition settled = lock.newCondition();
+        private int pending;
+        private long written;                                    // fin du dernier enregistrement écrit
+        private boolean lost;                                    // une trame rendue sans être écrite
+
+        // end : position dans la boîte juste après l'enregistrement de la trame
+        void track(EncodedFrame frame, long end) {
+            lock.lock();
+            try {
+                pending++;
+            } finally {
+                lock.unlock();
+            }
+            frame.whenReleased(() -> settle(end, frame.written()));
+        }
+
+        private void settle(long end, boolean wasWritten) {
+            lock.lock();
+            try {
+                pending--;
+                if (!wasWritten) lost = true;
+                else if (end > written) written = end;
+                if (pending == 0) settled.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean awaitWritten(long waitNanos) {
+            lock.lock();
+            try {
+                long remaining = waitNanos;
+                while (pending > 0 && remaining > 0) remaining = settled.awaitNanos(remaining);
+                return pending == 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Position jusqu'où la boîte peut être vidée : tout ce qui a été lu si
+        // tout a été écrit (les enregistrements expirés compris), sinon la fin
+        // de la dernière trame écrite.
+        long delivered(long position) {
+            lock.lock();
+            try {
+                return pending == 0 && !lost ? position : written;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Mailbox {
+        final String name;
+        final Path path;
+        final ReentrantLock lock = new ReentrantLock();          // dépôts et réécritures du fichier
+        final ReentrantLock deliveryLock = new ReentrantLock();  // une seule livraison à la fois
+        FileChannel writer;                                      // sous lock ; null : fermé (voir keepOpen)
+        long bytes;
+        boolean removed;
+
+        Mailbox(String name, Path path, long bytes) {
+            this.name = name;
+            this.path = path;
+            this.bytes = bytes;
+        }
+    }
+}
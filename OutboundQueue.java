@@ -0,0 +1,223 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * File de sortie bornée d'une ClientSession. Les émetteurs ne font que
+ * déposer la trame ; un seul writer (thread dédié ou boucle NIO) la vide.
+ * offer() indique à l'appelant quand il faut réveiller ce writer.
+ * La file possède la référence de chaque trame reçue par offer() : elle la
+ * libère si la trame est jetée, sinon c'est le writer qui la libère.
+ * Une liaison de symbole (SYMBOL), une réponse à une requête ou un morceau de
+ * fichier n'est jamais jeté : les trames suivantes, un futur du client ou la
+ * séquence du transfert (acquitté à l'émetteur à la libération) en dépendent. Ces trames
+ * échappent à maxFrames mais pas à maxBytes ; au-delà, la session déborde.
+ */
+final class OutboundQueue {
+
+    enum OverflowPolicy {
+        DROP_OLDEST,    // on jette la plus ancienne trame en attente
+        DROP_NEW,       // on jette la trame qui arrive
+        DISCONNECT      // le client est trop lent : on le déconnecte
+    }
+
+    enum Offer {
+        SCHEDULE,           // trame en file, le writer doit être planifié
+        QUEUED,             // trame en file, un writer est déjà actif
+        DROPPED,            // file pleine, une trame a été jetée
+        DROPPED_SCHEDULE,   // une trame jetée ET le writer doit être planifié
+        OVERFLOW            // file pleine, politique DISCONNECT
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private int lowWater = -1;          // seuil attendu par awaitBelow, -1 sans attente
+    private final ArrayDeque<EncodedFrame> frames = new ArrayDeque<>();
+    private final int maxFrames;
+    private final long maxBytes;
+    private final OverflowPolicy policy;
+
+    private boolean draining;
+    private volatile int depth;         // frames.size(), lisible sans verrou (métriques)
+    private volatile long queuedBytes;
+    private volatile long droppedFrames;
+    private volatile long droppedBytes;
+
+    OutboundQueue(int maxFrames, long maxBytes, OverflowPolicy policy) {
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+    }
+
+    Offer offer(EncodedFrame frame) {
+        lock.lock();
+        try {
+            if (!fits(frame) && !frames.isEmpty()) {
+                switch (policy) {
+                    case DISCONNECT:
+                        return overflow(frame);
+                    case DROP_NEW:
+                        if (!pinned(frame)) {
+                            drop(frame);
+                            return Offer.DROPPED;
+                        }
+                        // une trame gardée fait de la place comme DROP_OLDEST
+                        return makeRoom(frame);
+                    default:
+                        return makeRoom(frame);
+                }
+            }
+            return enqueue(frame, false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Offer makeRoom(EncodedFrame frame) {
+        if (evictFor(frame)) return enqueue(frame, true);
+        if (pinned(frame)) return overflow(frame);
+        drop(frame);
+        return Offer.DROPPED;
+    }
+
+    // Jette les plus anciennes trames ordinaires ; false si cela ne suffit pas.
+    // Une trame plus grosse que maxBytes passe seule, comme avant.
+    private boolean evictFor(EncodedFrame frame) {
+        Iterator<EncodedFrame> it = frames.iterator();
+        while (it.hasNext() && !fits(frame)) {
+            EncodedFrame oldest = it.next();
+            if (pinned(oldest)) continue;
+            it.remove();
+            queuedBytes -= oldest.length();
+            drop(oldest);
+        }
+        return frames.isEmpty() || fits(frame);
+    }
+
+    private boolean fits(EncodedFrame frame) {
+        return (pinned(frame) || frames.size() < maxFrames) && queuedBytes + frame.length() <= maxBytes;
+    }
+
+    private Offer overflow(EncodedFrame frame) {
+        frame.release();
+        return Offer.OVERFLOW;
+    }
+
+    private Offer enqueue(EncodedFrame frame, boolean dropped) {
+        frames.add(frame);
+        depth = frames.size();
+        queuedBytes += frame.length();
+        if (!draining) {
+            draining = true;
+            return dropped ? Offer.DROPPED_SCHEDULE : Offer.SCHEDULE;
+        }
+        notEmpty.signal();                              // writer éventuellement en attente (linger)
+        return dropped ? Offer.DROPPED : Offer.QUEUED;
+    }
+
+    // null quand la file est vide : le writer s'arrête et le prochain offer le replanifie
+    EncodedFrame poll() {
+        lock.lock();
+        try {
+            EncodedFrame frame = frames.poll();
+            if (frame == null) {
+                draining = false;
+            } else {
+                queuedBytes -= frame.length();
+                depth = frames.size();
+            }
+            if (lowWater >= 0 && frames.size() <= lowWater) drained.signalAll();
+            return frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Comme poll(), mais attend jusqu'à waitNanos qu'une trame arrive avant de
+    // rendre la main ; le writer reste propriétaire de la file pendant l'attente.
+    EncodedFrame poll(long waitNanos) {
+        if (waitNanos <= 0) return poll();
+        lock.lock();
+        try {
+            long remaining = waitNanos;
+            while (frames.isEmpty() && remaining > 0) {
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+        return poll();
+    }
+
+    // Attend (au plus waitNanos) que la file ne compte plus que maxFrames trames ;
+    // contre-pression pour les producteurs en masse (livraison hors ligne...).
+    boolean awaitBelow(int maxFrames, long waitNanos) {
+        lock.lock();
+        try {
+            long remaining = waitNanos;
+            while (frames.size() > maxFrames && remaining > 0) {
+                lowWater = maxFrames;
+                remaining = drained.awaitNanos(remaining);
+            }
+            lowWater = -1;
+            return frames.size() <= maxFrames;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return frames.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void clear() {
+        lock.lock();
+        try {
+            EncodedFrame frame;
+            while ((frame = frames.poll()) != null) frame.release();
+            queuedBytes = 0;
+            depth = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean pinned(EncodedFrame frame) {
+        MessageType type = frame.type();
+        return type == MessageType.SYMBOL || type == MessageType.ACK
+                || type == MessageType.LOGIN_RESPONSE || type == MessageType.ERROR_RESPONSE
+                || type == MessageType.FILE_CHUNK;
+    }
+
+    private void drop(EncodedFrame frame) {
+        droppedFrames++;
+        droppedBytes += frame.length();
+        frame.release();
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int depth() { return depth; }
+    long queuedBytes() { return queuedBytes; }
+    long droppedFrames() { return droppedFrames; }
+    long droppedBytes() { return droppedBytes; }
+}
@@ -0,0 +1,43 @@
+import java.util.function.IntFunction;
+
+/*
+ * Décodage des trames reçues [longueur][checksum][corps]. Le checksum et le
+ * corps sont lus directement dans le tableau reçu : aucune copie, et les
+ * champs texte ne sont décodés que s'ils sont demandés.
+ */
+class ProtocolParser {
+
+    ChatMessage parse(byte[] data) {
+        MessageView view = view(data);
+        return view == null ? null : view.toMessage();
+    }
+
+    // null si la trame est tronquée, corrompue ou illisible
+    MessageView view(byte[] data) {
+        return view(data, 0, data.length);
+    }
+
+    MessageView view(byte[] data, int offset, int length) {
+        return view(data, offset, length, null);
+    }
+
+    // names : liaisons de la connexion pour la version 5, null les refuse
+    MessageView view(byte[] data, int offset, int length, IntFunction<String> names) {
+        if (length < 8) return null;
+
+        int bodyLength = ((data[offset] & 0xFF) << 24) |
+                         ((data[offset + 1] & 0xFF) << 16) |
+                         ((data[offset + 2] & 0xFF) << 8) |
+                         (data[offset + 3] & 0xFF);
+        if (bodyLength <= 0 || bodyLength > length - 8) return null;
+
+        long expected = ((data[offset + 4] & 0xFFL) << 24) |
+                        ((data[offset + 5] & 0xFFL) << 16) |
+                        ((data[offset + 6] & 0xFFL) << 8) |
+                        (data[offset + 7] & 0xFFL);
+
+        if (ChatMessage.checksum(data, offset + 8, bodyLength) != expected) return null;
+
+        return MessageView.parse(data, offset + 8, bodyLength, names);
+    }
+}
@@ -0,0 +1,203 @@
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Historiques des salons actifs. Celui d'un salon fermé (vide) quitte la
+// mémoire ; il est relu depuis son journal au prochain accès, sur le thread
+// de chargement : jamais de lecture disque sur la boucle NIO ni sur le thread
+// qui diffuse. Seul un salon ouvert (live) a une entrée : une diffusion encore
+// en file sur un shard après la fermeture ne recrée rien.
+// Un journal projeté coûte un segment d'espace d'adressage et de cache de
+// pages : au plus maxMapped à la fois (le plus anciennement projeté est
+// relâché), et la projection d'un salon sans ajout depuis IDLE_MILLIS est
+// relâchée par un passage périodique sur la roue de temporisation.
+final class RoomHistories {
+
+    static final int MAX_MAPPED = 256;
+    static final long IDLE_MILLIS = 60_000;
+    private static final EncodedFrame[] EMPTY = new EncodedFrame[0];
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "history-load");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConcurrentHashMap<String, RoomHistory> rooms = new ConcurrentHashMap<>();
+    private final int maxFrames;
+    private final Path directory;     // null : pas de persistance
+    private final Predicate<String> live;
+    private final int maxMapped;
+    // historiques dont le journal est projeté, du plus ancien au plus récent ;
+    // pris sans tenir le verrou d'un historique (park() n'essaie que tryLock)
+    private final ReentrantLock mappedLock = new ReentrantLock();
+    private final LinkedHashMap<RoomHistory, Boolean> mapped = new LinkedHashMap<>();
+    private volatile boolean closed;
+
+    RoomHistories(int maxFrames, Path directory, Predicate<String> live) {
+        this(maxFrames, directory, live, MAX_MAPPED);
+    }
+
+    RoomHistories(int maxFrames, Path directory, Predicate<String> live, int maxMapped) {
+        this.maxFrames = maxFrames;
+        this.directory = directory;
+        this.live = live;
+        this.maxMapped = maxMapped;
+        if (directory != null && maxFrames > 0) scheduleSweep();
+    }
+
+    boolean enabled() { return maxFrames > 0; }
+
+    void append(String room, EncodedFrame frame) {
+        if (maxFrames <= 0) return;
+        while (true) {
+            RoomHistory history = rooms.get(room);
+            if (history == null) {
+                if (!live.test(room)) return;
+                history = open(room);
+            }
+            if (history.append(frame)) return;
+            rooms.remove(room, history);
+        }
+    }
+
+    // Historique d'un salon pour un nouveau membre (voir RoomHistory.replay) :
+    // replay reçoit les trames retenues, tout de suite si l'historique est en
+    // mémoire, sinon sur le thread de chargement une fois le journal relu.
+    void replay(String room, Consumer<EncodedFrame[]> replay) {
+        if (maxFrames <= 0) {
+            replay.accept(EMPTY);
+            return;
+        }
+        while (true) {
+            RoomHistory history = rooms.get(room);
+            if (history == null) history = open(room);
+            if (history.replay(replay)) return;
+            rooms.remove(room, history);
+            if (!live.test(room)) {
+                replay.accept(EMPTY);
+                return;
+            }
+        }
+    }
+
+    // attend la lecture du journal : jamais sur la boucle NIO
+    EncodedFrame[] snapshot(String room) {
+        CompletableFuture<EncodedFrame[]> frames = new CompletableFuture<>();
+        replay(room, frames::complete);
+        return frames.join();
+    }
+
+    // La fermeture (segment relâché) se fait hors du verrou de la table ; une
+    // réouverture du même salon relit le journal déjà écrit dans la projection.
+    void evict(String room) {
+        RoomHistory history = rooms.get(room);
+        if (history != null && !live.test(room) && rooms.remove(room, history)) {
+            history.close();
+            unmapped(history);
+        }
+    }
+
+    // Attend les lectures en cours : elles écrivent encore au journal ce qui a
+    // été diffusé pendant. Jamais sur la boucle NIO.
+    void close() {
+        closed = true;
+        for (String room : rooms.keySet()) {
+            RoomHistory history = rooms.remove(room);
+            if (history != null) {
+                history.close();
+                unmapped(history);
+            }
+        }
+        if (directory == null) return;
+        try {
+            LOADER.submit(() -> {}).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RejectedExecutionException ignored) {}
+    }
+
+    // Un seul chargeur par salon : l'entrée est publiée avant la lecture, les
+    // autres accès la trouvent et attendent la fin sans bloquer. Le salon a pu
+    // fermer pendant l'ouverture : evict() revérifie après publication.
+    private RoomHistory open(String room) {
+        RoomHistory created = new RoomHistory(maxFrames,
+                directory == null ? null : new HistoryLog(directory, room), this::mapped);
+        RoomHistory existing = rooms.putIfAbsent(room, created);
+        if (existing != null) return existing;
+        if (directory != null) {
+            try {
+                LOADER.execute(() -> created.load(room));
+            } catch (RejectedExecutionException e) {
+                created.load(room);
+            }
+        }
+        evict(room);
+        return created;
+    }
+
+    // Journal tout juste projeté (lecture, premier ajout ou reprise après
+    // park) ; au-delà de maxMapped, le plus anciennement projeté qui n'est
+    // pas occupé est relâché.
+    private void mapped(RoomHistory history) {
+        mappedLock.lock();
+        try {
+            mapped.remove(history);
+            mapped.put(history, Boolean.TRUE);
+            Iterator<RoomHistory> eldest = mapped.keySet().iterator();
+            while (mapped.size() > maxMapped && eldest.hasNext()) {
+                RoomHistory candidate = eldest.next();
+                if (candidate != history && candidate.park(0)) eldest.remove();
+            }
+        } finally {
+            mappedLock.unlock();
+        }
+    }
+
+    private void unmapped(RoomHistory history) {
+        mappedLock.lock();
+        try {
+            mapped.remove(history);
+        } finally {
+            mappedLock.unlock();
+        }
+    }
+
+    // Relâche les projections sans ajout depuis idleNanos (0 : toutes celles
+    // qui ne sont pas occupées). Thread de la roue : rien de bloquant.
+    void parkIdle(long idleNanos) {
+        mappedLock.lock();
+        try {
+            mapped.keySet().removeIf(history -> history.park(idleNanos));
+        } finally {
+            mappedLock.unlock();
+        }
+    }
+
+    int mappedLogs() {
+        mappedLock.lock();
+        try {
+            return mapped.size();
+        } finally {
+            mappedLock.unlock();
+        }
+    }
+
+    private void scheduleSweep() {
+        TimerWheel timers = TimerWheel.shared();
+        timers.schedule(() -> {
+            if (closed) return;
+            parkIdle(TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS));
+            scheduleSweep();
+        }, timers.ticks(IDLE_MILLIS / 2));
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/*
+ * Historique récent d'un salon : anneau de trames déjà encodées (binaires),
+ * borné en nombre et en octets. La diffusion n'y ajoute qu'une référence
+ * (plus une copie dans le journal projeté s'il y en a un) ; le rejeu envoie
+ * les mêmes octets aux nouveaux membres.
+ *
+ * Le journal est relu par load(), hors du verrou et hors du thread qui a
+ * ouvert le salon (boucle NIO...). Pendant la lecture, les ajouts vont dans
+ * l'anneau et attendent pour le journal ; les rejeux attendent la fin.
+ * Chaque journal qui vient d'être projeté est signalé à onMapped, qui borne
+ * le nombre de projections (voir RoomHistories).
+ */
+final class RoomHistory {
+
+    static final long MAX_BYTES = 1L << 20;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final EncodedFrame[] ring;
+    private final HistoryLog log;      // null : historique en mémoire seulement
+    private int head;                  // prochaine case écrite
+    private int count;
+    private long bytes;
+    private boolean logFailed;
+    private boolean closed;
+    private boolean loading;           // journal en cours de lecture, voir load()
+    private final List<EncodedFrame> unlogged = new ArrayList<>();           // ajoutés pendant la lecture
+    private final List<Consumer<EncodedFrame[]>> waiting = new ArrayList<>();   // rejeux en attente
+    private final Consumer<RoomHistory> onMapped;
+    private long lastUsed = System.nanoTime();       // dernier ajout, sous le verrou
+
+    RoomHistory(int maxFrames, HistoryLog log, Consumer<RoomHistory> onMapped) {
+        this.ring = new EncodedFrame[maxFrames];
+        this.log = log;
+        this.loading = log != null;
+        this.onMapped = onMapped;
+    }
+
+    // Relit le journal sans tenir le verrou ; les trames lues passent avant
+    // celles ajoutées entre-temps, qui sont ensuite écrites dans le journal.
+    void load(String room) {
+        List<EncodedFrame> loaded = new ArrayList<>();
+        try {
+            log.load(loaded::add);
+        } catch (IOException e) {
+            System.err.println("room history for " + room + " not loaded: " + e);
+        }
+        List<Consumer<EncodedFrame[]>> replays;
+        EncodedFrame[][] snapshots;
+        boolean mapped;
+        lock.lock();
+        try {
+            loading = false;
+            // fermé entre-temps ou non, ce qui a été diffusé va au journal
+            for (EncodedFrame frame : unlogged) {
+                writeLog(frame);
+                frame.release();
+            }
+            unlogged.clear();
+            if (closed) {
+                for (EncodedFrame frame : loaded) frame.release();
+                log.close();
+            } else {
+                EncodedFrame[] recent = drainRing();
+                for (EncodedFrame frame : loaded) push(frame);
+                for (EncodedFrame frame : recent) push(frame);
+            }
+            replays = new ArrayList<>(waiting);
+            waiting.clear();
+            snapshots = new EncodedFrame[replays.size()][];
+            for (int i = 0; i < snapshots.length; i++) snapshots[i] = closed ? new EncodedFrame[0] : snapshotLocked();
+            mapped = !closed && log.mapped();
+        } finally {
+            lock.unlock();
+        }
+        if (mapped) onMapped.accept(this);
+        for (int i = 0; i < replays.size(); i++) replays.get(i).accept(snapshots[i]);
+    }
+
+    // false si l'historique a été fermé entre-temps
+    boolean append(EncodedFrame frame) {
+        boolean mapped = false;
+        lock.lock();
+        try {
+            if (closed) return false;
+            push(frame.retain());
+            lastUsed = System.nanoTime();
+            if (loading) {
+                unlogged.add(frame.retain());
+            } else if (log != null && !log.mapped()) {
+                writeLog(frame);
+                mapped = log.mapped();
+            } else {
+                writeLog(frame);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (mapped) onMapped.accept(this);
+        return true;
+    }
+
+    // Relâche la projection du journal si le dernier ajout date d'au moins
+    // idleNanos (0 : dans tous les cas). true si l'historique ne tient plus de
+    // projection ; false s'il est occupé (verrou pris), utilisé depuis ou en lecture.
+    boolean park(long idleNanos) {
+        if (!lock.tryLock()) return false;
+        try {
+            if (closed || log == null) return true;
+            if (loading || System.nanoTime() - lastUsed < idleNanos) return false;
+            log.park();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeLog(EncodedFrame frame) {
+        if (log == null || logFailed) return;
+        try {
+            log.append(frame);
+        } catch (IOException e) {
+            logFailed = true;     // on garde l'historique en mémoire
+            System.err.println("room history log disabled: " + e);
+        }
+    }
+
+    private void push(EncodedFrame frame) {
+        if (count == ring.length) evictOldest();
+        ring[head] = frame;
+        head = (head + 1) % ring.length;
+        count++;
+        bytes += frame.length();
+        while (bytes > MAX_BYTES && count > 1) evictOldest();
+    }
+
+    private void evictOldest() {
+        int oldest = (head - count + ring.length) % ring.length;
+        EncodedFrame frame = ring[oldest];
+        ring[oldest] = null;
+        count--;
+        bytes -= frame.length();
+        frame.release();
+    }
+
+    // vide l'anneau sans rendre les références, de la plus ancienne à la plus récente
+    private EncodedFrame[] drainRing() {
+        EncodedFrame[] frames = new EncodedFrame[count];
+        int oldest = (head - count + ring.length) % ring.length;
+        for (int i = 0; i < count; i++) {
+            frames[i] = ring[(oldest + i) % ring.length];
+            ring[(oldest + i) % ring.length] = null;
+        }
+        head = 0;
+        count = 0;
+        bytes = 0;
+        return frames;
+    }
+
+    // Passe à replay les trames de la plus ancienne à la plus récente, chacune
+    // retenue pour lui : tout de suite, ou à la fin de la lecture du journal
+    // (sur le thread de load). false si l'historique a été fermé entre-temps.
+    boolean replay(Consumer<EncodedFrame[]> replay) {
+        EncodedFrame[] frames;
+        lock.lock();
+        try {
+            if (closed) return false;
+            if (loading) {
+                waiting.add(replay);
+                return true;
+            }
+            frames = snapshotLocked();
+        } finally {
+            lock.unlock();
+        }
+        replay.accept(frames);
+        return true;
+    }
+
+    private EncodedFrame[] snapshotLocked() {
+        EncodedFrame[] frames = new EncodedFrame[count];
+        int oldest = (head - count + ring.length) % ring.length;
+        for (int i = 0; i < count; i++) {
+            frames[i] = ring[(oldest + i) % ring.length].retain();
+        }
+        return frames;
+    }
+
+    // le journal d'un historique en cours de lecture est fermé par load()
+    void close() {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            while (count > 0) evictOldest();
+            if (log != null && !loading) log.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
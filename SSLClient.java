@@ -8,6 +8,8 @@ import java.security.cert.X509Certificate;
 
 public class SSLClient {
 
+    private static SSLContext sharedTrustAllContext;
+
     private SSLSocket socket;
     private DataOutputStream out;
     private DataInputStream in;
@@ -22,7 +24,8 @@ public class SSLClient {
     }
 
     public void connect() throws Exception {
-        SSLContext context = trustAllCerts ? createTrustAllContext() : SSLContext.getDefault();
+        // contexte partagé entre clients : son cache permet la reprise de session TLS
+        SSLContext context = trustAllCerts ? sharedTrustAllContext() : SSLContext.getDefault();
         SSLSocketFactory factory = context.getSocketFactory();
         socket = (SSLSocket) factory.createSocket(host, port);
         socket.startHandshake();
@@ -31,7 +34,12 @@ public class SSLClient {
         socket.setSoTimeout(1000);
     }
 
-    private SSLContext createTrustAllContext() throws Exception {
+    private static synchronized SSLContext sharedTrustAllContext() throws Exception {
+        if (sharedTrustAllContext == null) sharedTrustAllContext = createTrustAllContext();
+        return sharedTrustAllContext;
+    }
+
+    private static SSLContext createTrustAllContext() throws Exception {
         TrustManager[] trustAll = new TrustManager[]{
             new X509TrustManager() {
                 public X509Certificate[] getAcceptedIssuers() { return new X509Certificate[0]; }
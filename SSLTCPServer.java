@@ -3,12 +3,20 @@ import javax.net.ssl.*;
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.security.KeyStore;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SSLTCPServer {
 
     private int port;
     private SSLServerSocket serverSocket;
-    private boolean isRunning;
+    private volatile boolean isRunning;
+    private Executor connectionExecutor = ConnectionExecutors.platformThreads();
+    private final HandshakeStage handshakeStage = HandshakeStage.withDefaults(new HandshakeStats());
+    private final TimerWheel timers = TimerWheel.shared();
+    private volatile long idleTimeoutTicks;         // 0 : pas de limite
 
     public SSLTCPServer(int port, String keystorePath, String password) throws Exception {
         this.port = port;
@@ -22,16 +30,43 @@ public class SSLTCPServer {
         System.out.println("Server running on port " + port); // seule ligne d’output
     }
 
+    public void setConnectionExecutor(Executor executor) {
+        this.connectionExecutor = executor;
+    }
+
+    // connexion fermée après timeoutSeconds sans ligne reçue ; 0 désactive
+    public void setIdleTimeout(int timeoutSeconds) {
+        this.idleTimeoutTicks = timeoutSeconds <= 0 ? 0 : timers.ticks(TimeUnit.SECONDS.toMillis(timeoutSeconds));
+    }
+
     public void launch() {
         isRunning = true;
         while (isRunning) {
             try {
                 SSLSocket client = (SSLSocket) serverSocket.accept();
-                new Thread(() -> handleClient(client)).start();
-            } catch (IOException ignored) {}
+                handshakeStage.submit(client, established -> {
+                    try {
+                        connectionExecutor.execute(() -> handleClient(established));
+                    } catch (RejectedExecutionException rejected) {
+                        try { established.close(); } catch (IOException ignored) {}
+                    }
+                });
+            } catch (IOException e) {
+                if (!isRunning) break;
+                // erreur d'accept (ex. EMFILE) : on temporise au lieu de boucler à vide
+                System.err.println("accept failed: " + e.getMessage());
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
         }
     }
 
+    HandshakeStage handshakeStage() { return handshakeStage; }
+
     private SSLContext createSSLContext(String keystorePath, String password) throws Exception {
         KeyStore ks = KeyStore.getInstance("PKCS12");
         ks.load(new FileInputStream(keystorePath), password.toCharArray());
@@ -41,33 +76,59 @@ public class SSLTCPServer {
 
         SSLContext context = SSLContext.getInstance("TLS");
         context.init(kmf.getKeyManagers(), null, null);
+
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(SecureChatServer.DEFAULT_SESSION_CACHE_SIZE);
+        sessions.setSessionTimeout(SecureChatServer.DEFAULT_SESSION_TIMEOUT);
         return context;
     }
 
     private void handleClient(SSLSocket client) {
         try {
-            client.startHandshake();
-
             BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
             PrintWriter out = new PrintWriter(client.getOutputStream(), true);
+            AtomicLong lastRead = new AtomicLong(timers.now());
+            if (idleTimeoutTicks > 0) timers.schedule(() -> checkIdle(client, lastRead), idleTimeoutTicks);
 
             String line;
             while ((line = in.readLine()) != null) {
+                lastRead.lazySet(timers.now());
                 out.println(line); // echo minimal
             }
 
             client.close();
-        } catch (Exception ignored) {}
+        } catch (Exception e) {
+            ChatMetrics.shared().error("echo");
+        }
+    }
+
+    // même principe que SecureChatServer : une échéance par connexion sur la roue partagée
+    private void checkIdle(SSLSocket client, AtomicLong lastRead) {
+        long timeout = idleTimeoutTicks;
+        if (client.isClosed() || timeout == 0) return;
+        long idle = timers.now() - lastRead.get();
+        if (idle < timeout) {
+            timers.schedule(() -> checkIdle(client, lastRead), timeout - idle);
+            return;
+        }
+        ChatMetrics.shared().idleDisconnects.increment();
+        // hors du thread de la roue : close() peut attendre un pair mort
+        Thread.startVirtualThread(() -> {
+            try { client.close(); } catch (IOException ignored) {}
+        });
     }
 
     public void shutdown() {
         isRunning = false;
+        handshakeStage.shutdown();
         try { serverSocket.close(); } catch (IOException ignored) {}
     }
 
     public static void main(String[] args) {
         try {
             SSLTCPServer server = new SSLTCPServer(8443, "server.jks", "password123");
+            server.setConnectionExecutor(ConnectionExecutors.fromName(System.getProperty("chat.executor", "platform")));
+            server.setIdleTimeout(Integer.getInteger("chat.idle.timeoutSeconds", 120));
             server.launch();
         } catch (Exception e) {
             e.printStackTrace();
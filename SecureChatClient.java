@@ -1,25 +1,85 @@
 import javax.net.ssl.*;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 public class SecureChatClient {
 
+    private static final int MAX_BODY = 10_000_000;          // même limite que le serveur
+    static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 30_000;
+    private static SSLContext sharedContext;
+    static final HandshakeStats HANDSHAKE_STATS = new HandshakeStats();
+
     private SSLSocket socket;
     private DataInputStream in;
-    private DataOutputStream out;
+    private OutputStream out;
+    private volatile int wireVersion = ChatMessage.VERSION_JSON;
+    private volatile boolean deflate = true;   // trames compressées acceptées et envoyées (version 4+)
+    private final BufferPool bufferPool = BufferPool.shared();
+    private final FrameCompression compression = new FrameCompression();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private FlushPolicy flush = FlushPolicy.IMMEDIATE;
+    private int pendingBytes;              // écrits dans le tampon, pas encore vidés
+    private boolean flushScheduled;
+    private final Map<Integer, Semaphore> fileCredits = new ConcurrentHashMap<>();   // rendus par FILE_ACK
+    private final AtomicInteger nextFileId = new AtomicInteger();
+    private final Map<String, Download> downloads = new HashMap<>();   // "<émetteur> <id>", thread de lecture du CLI
+    private final Map<Integer, String> names = new HashMap<>();             // liaisons SYMBOL reçues (version 5), thread de lecture
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Integer, CompletableFuture<ChatMessage>> pending = new ConcurrentHashMap<>();   // par requestId
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private volatile long requestTimeoutMillis = DEFAULT_REQUEST_TIMEOUT_MILLIS;
+    private volatile Consumer<ChatMessage> listener = msg -> {};
 
     public SecureChatClient(String host, int port) throws Exception {
-        SSLContext ctx = createTrustAllContext();
+        this(host, port, sharedContext());
+    }
+
+    // Un SSLContext partagé garde le cache de sessions client : les
+    // reconnexions vers le même hôte/port reprennent la session TLS.
+    public SecureChatClient(String host, int port, SSLContext ctx) throws Exception {
         SSLSocketFactory factory = ctx.getSocketFactory();
         socket = (SSLSocket) factory.createSocket(host, port);
+        socket.setTcpNoDelay(true);             // petites trames (FILE_ACK, chat) sans attendre Nagle
+        long handshakeSince = HANDSHAKE_STATS.begin();
         socket.startHandshake();
+        HANDSHAKE_STATS.record(socket.getSession(), handshakeSince);
 
         in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
-        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        // pas de DataOutputStream : ses write() sont synchronized et épinglent les threads virtuels
+        out = new BufferedOutputStream(socket.getOutputStream(), FlushPolicy.DEFAULT_BATCH_BYTES);
+    }
+
+    // Regroupe les envois : flush dès maxBatchBytes en attente ou lingerMicros
+    // après le premier message non vidé ; par défaut chaque message part seul.
+    public void setWriteBatching(int maxBatchBytes, long lingerMicros) {
+        writeLock.lock();
+        try {
+            flushPending();
+            flush = new FlushPolicy(maxBatchBytes, lingerMicros);
+        } finally {
+            writeLock.unlock();
+        }
     }
 
-    private SSLContext createTrustAllContext() throws Exception {
+    static synchronized SSLContext sharedContext() throws Exception {
+        if (sharedContext == null) sharedContext = createTrustAllContext();
+        return sharedContext;
+    }
+
+    private static SSLContext createTrustAllContext() throws Exception {
         TrustManager[] trustAll = new TrustManager[]{
                 new X509TrustManager() {
                     public java.security.cert.X509Certificate[] getAcceptedIssuers() { return new java.security.cert.X509Certificate[0]; }
@@ -32,44 +92,390 @@ public class SecureChatClient {
         return ctx;
     }
 
-    private void sendMessage(ChatMessage msg) {
+    // false si le message n'a pas pu être écrit
+    boolean sendMessage(ChatMessage msg) {
+        return sendMessage(msg, wireVersion);
+    }
+
+    private boolean sendMessage(ChatMessage msg, int version) {
+        // en version 5, salon et destinataire déjà liés par le serveur partent en identifiants
+        if (version >= ChatMessage.VERSION_INTERNED) {
+            msg.setSymbols(Symbols.NONE, idOf(msg.getRecipient()), idOf(msg.getRoom()));
+        }
+        EncodedFrame frame = EncodedFrame.of(msg, version, deflate);
+        if (frame == null) return false;
+        writeLock.lock();
+        try {
+            frame.writeTo(out);
+            pendingBytes += frame.length();
+            if (!flush.lingers() || pendingBytes >= flush.maxBatchBytes()) {
+                flushPending();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                FlushPolicy.timer().schedule(this::flushNow, flush.lingerNanos(), TimeUnit.NANOSECONDS);
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            writeLock.unlock();
+            frame.release();
+        }
+    }
+
+    /* ---------------- API ASYNCHRONE ---------------- */
+
+    // Réponse ERROR_RESPONSE du serveur à une requête ; code = son contenu
+    public static final class ServerError extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final String code;
+
+        ServerError(String code) {
+            super(code);
+            this.code = code;
+        }
+
+        public String code() { return code; }
+    }
+
+    // Messages qui ne répondent à aucune requête (salons, privés, fichiers,
+    // erreurs non numérotées), appelé sur le thread de lecture.
+    public void setListener(Consumer<ChatMessage> listener) {
+        this.listener = listener;
+    }
+
+    // Lance le thread de lecture : il complète les futurs des requêtes et
+    // passe le reste au listener. Les deux s'exécutent sur ce thread.
+    public void start() {
+        Thread reader = new Thread(this::readLoop, "chat-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    // login, sendToRoom et sendPrivate : le futur reçoit la réponse du serveur
+    // (LOGIN_RESPONSE, ACK) ou échoue avec ServerError, en JSON (version 1)
+    // comme en version 6. ATTENTION : face à un serveur qui a négocié une
+    // version binaire de 2 à 5, les trames ne portent pas de numéro de
+    // requête ; le futur est alors complété avec null dès l'écriture, sans
+    // réponse ni erreur associée (les erreurs éventuelles arrivent au
+    // listener). Un futur complété avec null signifie donc « écrit, pas de
+    // suivi possible », jamais « accepté par le serveur ».
+    public CompletableFuture<ChatMessage> login(String username, String password) {
+        ChatMessage login = new ChatMessage(MessageType.LOGIN_REQUEST, username, null, null, password);
+        login.setVersion(ChatMessage.MAX_VERSION);
+        return request(login.setDeflate(deflate));
+    }
+
+    // À appeler avant login() : false négocie la même version sans aucune
+    // trame compressée, dans un sens comme dans l'autre.
+    public void setCompression(boolean accept) {
+        deflate = accept;
+    }
+
+    // Échéance des futurs de requête : sans réponse à temps, le futur échoue
+    // avec TimeoutException et la réponse tardive va au listener.
+    public void setRequestTimeout(long millis) {
+        if (millis <= 0) throw new IllegalArgumentException("request timeout must be positive");
+        requestTimeoutMillis = millis;
+    }
+
+    public CompletableFuture<ChatMessage> sendToRoom(String room, String text) {
+        return request(new ChatMessage(MessageType.TEXT_MESSAGE, null, null, room, text));
+    }
+
+    public CompletableFuture<ChatMessage> sendPrivate(String recipient, String text) {
+        return request(new ChatMessage(MessageType.PRIVATE_MESSAGE, null, recipient, null, text));
+    }
+
+    // Requête numérotée, sans attendre les précédentes : le futur reçoit la
+    // réponse (LOGIN_RESPONSE, PONG, ACK) ou échoue avec ServerError. En
+    // binaire avant la version 6, sans numéro, il est complété avec null dès
+    // l'écriture (voir login). Sans réponse avant l'échéance (voir
+    // setRequestTimeout), il échoue avec TimeoutException.
+    CompletableFuture<ChatMessage> request(ChatMessage msg) {
+        int version = wireVersion;
+        if (version >= ChatMessage.VERSION_BINARY && version < ChatMessage.VERSION_REQUEST_ID) {
+            return sendMessage(msg, version)
+                    ? CompletableFuture.completedFuture(null)
+                    : CompletableFuture.failedFuture(new IOException("connection closed"));
+        }
+        int id = nextRequestId.incrementAndGet();
+        if (id == 0) id = nextRequestId.incrementAndGet();
+        CompletableFuture<ChatMessage> future = new CompletableFuture<>();
+        pending.put(id, future);
+        int key = id;
+        future.orTimeout(requestTimeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((reply, error) -> pending.remove(key, future));
+        // fermée pendant l'envoi : readLoop a pu vider pending avant notre put
+        if (!sendMessage(msg.setRequestId(id), version) || isClosed()) {
+            pending.remove(id);
+            future.completeExceptionally(new IOException("connection closed"));
+        }
+        return future;
+    }
+
+    // Quelle que soit la sortie du thread (fermeture, exception imprévue),
+    // la connexion est fermée et aucun futur ne reste en attente.
+    private void readLoop() {
+        Throwable failure = null;
+        try {
+            while (true) {
+                ChatMessage msg = readMessage();
+                if (msg == null) {
+                    if (isClosed()) break;
+                    continue;                           // trame illisible, la suivante peut l'être
+                }
+                if (complete(msg)) continue;
+                try {
+                    listener.accept(msg);
+                } catch (RuntimeException e) {
+                    System.err.println("chat listener failed: " + e);
+                }
+            }
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+            IOException closed = failure == null
+                    ? new IOException("connection closed")
+                    : new IOException("client reader failed", failure);
+            for (Integer id : pending.keySet()) {
+                CompletableFuture<ChatMessage> future = pending.remove(id);
+                if (future != null) future.completeExceptionally(closed);
+            }
+        }
+    }
+
+    private boolean complete(ChatMessage msg) {
+        CompletableFuture<ChatMessage> future = msg.getRequestId() == 0 ? null : pending.remove(msg.getRequestId());
+        if (future == null) return false;
+        if (msg.getType() == MessageType.ERROR_RESPONSE) future.completeExceptionally(new ServerError(msg.getContent()));
+        else future.complete(msg);
+        return true;
+    }
+
+    private int idOf(String name) {
+        Integer id = name == null ? null : ids.get(name);
+        return id == null ? Symbols.NONE : id;
+    }
+
+    private void flushNow() {
+        writeLock.lock();
+        try {
+            flushScheduled = false;
+            flushPending();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void flushPending() {
+        if (pendingBytes == 0) return;
+        pendingBytes = 0;
         try {
-            byte[] full = msg.toBytes();
-            int bodyLength = full.length - 8;
-            out.writeInt(bodyLength);
-            out.write(full, 4, 4 + bodyLength);
             out.flush();
         } catch (IOException ignored) {}
     }
 
-    private ChatMessage readMessage() {
+    // null si la trame est illisible ou la connexion perdue (voir isClosed)
+    ChatMessage readMessage() {
+        byte[] full = null;
         try {
-            int bodyLength = in.readInt();
-            byte[] full = new byte[8 + bodyLength];
-            full[0] = (byte) ((bodyLength >> 24) & 0xFF);
-            full[1] = (byte) ((bodyLength >> 16) & 0xFF);
-            full[2] = (byte) ((bodyLength >> 8) & 0xFF);
-            full[3] = (byte) (bodyLength & 0xFF);
+            int header = in.readInt();
+            int bodyLength = header & ~FrameCompression.FLAG;
+            // longueur hors bornes : flux désynchronisé ou pair hostile, la connexion est perdue
+            if (bodyLength <= 0 || bodyLength > MAX_BODY) throw new IOException("invalid frame length " + bodyLength);
+            full = bufferPool.acquire(8 + bodyLength);
+            full[0] = (byte) ((header >> 24) & 0xFF);
+            full[1] = (byte) ((header >> 16) & 0xFF);
+            full[2] = (byte) ((header >> 8) & 0xFF);
+            full[3] = (byte) (header & 0xFF);
             in.readFully(full, 4, 4 + bodyLength);
-            return ChatMessage.fromBytes(full);
+            if (header != bodyLength) {
+                byte[] plain = compression.inflate(full, 8 + bodyLength, bufferPool);
+                bufferPool.release(full);
+                full = plain;
+                if (plain == null) return null;
+            }
+            ChatMessage msg = ChatMessage.fromBytes(full, names::get);
+            // le serveur répond en binaire s'il accepte la version annoncée
+            if (msg != null && msg.getType() == MessageType.LOGIN_RESPONSE && msg.getVersion() >= ChatMessage.VERSION_BINARY) {
+                wireVersion = Math.min(msg.getVersion(), ChatMessage.MAX_VERSION);
+            }
+            if (msg != null && msg.getType() == MessageType.SYMBOL) learn(msg);
+            if (msg != null && msg.getType() == MessageType.PING) {
+                sendMessage(new ChatMessage(MessageType.PONG, null, null, null, msg.getContent()));
+            }
+            if (msg != null && msg.getType() == MessageType.FILE_ACK) {
+                Semaphore credits = fileCredits.get(FileTransfer.parseId(msg.getContent()));
+                if (credits != null) credits.release();
+            }
+            return msg;
         } catch (IOException e) {
+            try {
+                socket.close();                     // pas de flush : la connexion est perdue
+            } catch (IOException ignored) {}
             return null;
+        } finally {
+            bufferPool.release(full);
+        }
+    }
+
+    private void learn(ChatMessage symbol) {
+        try {
+            int id = Integer.parseInt(symbol.getContent());
+            if (id <= Symbols.NONE || id >= Symbols.LIMIT || symbol.getSender() == null) return;
+            names.put(id, symbol.getSender());
+            // nom relié sous un nouvel identifiant après libération : l'ancien ne sert plus
+            Integer previous = ids.put(symbol.getSender(), id);
+            if (previous != null && previous != id) names.remove(previous);
+        } catch (NumberFormatException ignored) {}
+    }
+
+    boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    void close() {
+        flushNow();
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    /* ---------------- FICHIERS (voir FileTransfer) ---------------- */
+
+    // Envoie file à recipient, ou au salon room, par morceaux de MAX_CHUNK
+    // octets, au plus WINDOW non acquittés : la mémoire ne dépend pas de la
+    // taille du fichier. Protocole binaire requis ; rend la main à la fin.
+    public void sendFile(String recipient, String room, Path file) throws IOException {
+        if (wireVersion < ChatMessage.VERSION_BINARY) throw new IOException("file transfer needs the binary protocol");
+        int id = nextFileId.incrementAndGet();
+        Semaphore credits = new Semaphore(FileTransfer.WINDOW);
+        fileCredits.put(id, credits);
+        long size = Files.size(file);
+        long sent = 0;
+        try (InputStream input = Files.newInputStream(file)) {
+            sendMessage(new ChatMessage(MessageType.FILE_START, null, recipient, room,
+                    id + " " + size + " " + file.getFileName()));
+            // [id][seq] puis les octets ; le tableau est recopié à l'encodage, donc réutilisable
+            byte[] chunk = new byte[8 + FileTransfer.MAX_CHUNK];
+            FileTransfer.writeInt(chunk, 0, id);
+            for (int seq = 0; sent < size; seq++) {
+                int n = input.readNBytes(chunk, 8, (int) Math.min(FileTransfer.MAX_CHUNK, size - sent));
+                if (n == 0) break;                                  // fichier raccourci entre-temps
+                if (!credits.tryAcquire(30, TimeUnit.SECONDS) || isClosed()) {
+                    throw new IOException("transfer " + id + " stalled");
+                }
+                FileTransfer.writeInt(chunk, 4, seq);
+                sendMessage(ChatMessage.chunk(null, recipient, room, chunk, 0, 8 + n));
+                sent += n;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("transfer " + id + " interrupted");
+        } finally {
+            fileCredits.remove(id);
+            sendMessage(new ChatMessage(MessageType.FILE_END, null, recipient, room,
+                    sent == size ? Integer.toString(id) : id + " aborted"));
         }
     }
 
+    private static final class Download {
+        final Path path;
+        final long size;
+        final OutputStream out;
+        int nextSeq;
+        long received;
+
+        Download(Path path, long size) throws IOException {
+            this.path = path;
+            this.size = size;
+            this.out = new BufferedOutputStream(Files.newOutputStream(path), FileTransfer.MAX_CHUNK);
+        }
+    }
+
+    // Fichiers reçus, écrits au fil des morceaux sous downloads/.
+    private void receiveFile(ChatMessage msg) {
+        String key;
+        Download download;
+        try {
+            if (msg.getType() == MessageType.FILE_START) {
+                String[] parts = msg.getContent().split(" ", 3);
+                Path dir = Files.createDirectories(Paths.get("downloads"));
+                Path path = dir.resolve(HistoryLog.fileName(msg.getSender() + "-" + parts[2]));
+                Download previous = downloads.put(msg.getSender() + " " + parts[0],
+                        new Download(path, Long.parseLong(parts[1])));
+                if (previous != null) previous.out.close();
+                System.out.println("[FILE] receiving " + parts[2] + " (" + parts[1] + " bytes) from " + msg.getSender());
+                return;
+            }
+            if (msg.getType() == MessageType.FILE_CHUNK) {
+                byte[] data = msg.rawContent();
+                int offset = msg.rawOffset();
+                key = msg.getSender() + " " + FileTransfer.readInt(data, offset);
+                download = downloads.get(key);
+                if (download == null) return;
+                if (FileTransfer.readInt(data, offset + 4) != download.nextSeq++) {
+                    throw new IOException("missing chunk");
+                }
+                download.out.write(data, offset + 8, msg.rawLength() - 8);
+                download.received += msg.rawLength() - 8;
+                return;
+            }
+            key = msg.getSender() + " " + FileTransfer.parseId(msg.getContent());
+            download = downloads.remove(key);
+            if (download == null) return;
+            download.out.close();
+            if (msg.getContent().endsWith("aborted") || download.received != download.size) {
+                Files.deleteIfExists(download.path);
+                System.out.println("[FILE] transfer from " + msg.getSender() + " aborted");
+            } else {
+                System.out.println("[FILE] saved " + download.path);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("[FILE] dropped a transfer from " + msg.getSender() + ": " + e.getMessage());
+        }
+    }
+
+    private static void print(ChatMessage msg) {
+        System.out.println("[SERVER] " + msg.getType() + " | " +
+                "from=" + msg.getSender() +
+                " | room=" + msg.getRoom() +
+                " | content=" + msg.getContent());
+    }
+
+    // la réponse s'affiche quand elle arrive ; la saisie continue en attendant
+    private static void report(CompletableFuture<ChatMessage> reply) {
+        reply.whenComplete((msg, error) -> {
+            if (error instanceof ServerError) {
+                System.out.println("[SERVER] ERROR_RESPONSE | content=" + ((ServerError) error).code());
+            } else if (error != null) {
+                System.out.println("[ERROR] " + error.getMessage());
+            } else if (msg != null && (msg.getType() != MessageType.ACK || msg.getContent() != null)) {
+                print(msg);                     // un ACK n'est affiché que s'il précise quelque chose
+            }
+        });
+    }
+
     public void runCLI() {
         Scanner sc = new Scanner(System.in);
 
-        new Thread(() -> {
-            while (true) {
-                ChatMessage msg = readMessage();
-                if (msg == null) continue;
-                System.out.println("[SERVER] " + msg.getType() + " | " +
-                        "from=" + msg.getSender() +
-                        " | room=" + msg.getRoom() +
-                        " | content=" + msg.getContent());
+        setListener(msg -> {
+            MessageType type = msg.getType();
+            if (type == MessageType.FILE_START || type == MessageType.FILE_CHUNK || type == MessageType.FILE_END) {
+                receiveFile(msg);
+                return;
             }
-        }).start();
+            if (type == MessageType.FILE_ACK || type == MessageType.PING || type == MessageType.PONG
+                    || type == MessageType.SYMBOL || (type == MessageType.ACK && msg.getContent() == null)) return;
+            print(msg);
+        });
+        start();
 
         while (true) {
             String line = sc.nextLine().trim();
@@ -82,13 +488,7 @@ public class SecureChatClient {
                 }
                 String username = parts[1];
                 String password = parts.length >= 3 ? parts[2] : "";
-                sendMessage(new ChatMessage(
-                        MessageType.LOGIN_REQUEST,
-                        username,
-                        null,
-                        null,
-                        password
-                ));
+                report(login(username, password));
             }
 
             else if (line.startsWith("/join ")) {
@@ -98,13 +498,7 @@ public class SecureChatClient {
                     continue;
                 }
                 String room = parts[1];
-                sendMessage(new ChatMessage(
-                        MessageType.TEXT_MESSAGE,
-                        null,
-                        null,
-                        room,
-                        "joined room"
-                ));
+                report(sendToRoom(room, "joined room"));
             }
 
             else if (line.startsWith("/msg ")) {
@@ -115,13 +509,26 @@ public class SecureChatClient {
                 }
                 String target = parts[1];
                 String text = parts[2];
-                sendMessage(new ChatMessage(
-                        MessageType.PRIVATE_MESSAGE,
-                        null,
-                        target,
-                        null,
-                        text
-                ));
+                report(sendPrivate(target, text));
+            }
+
+            else if (line.startsWith("/file ") || line.startsWith("/roomfile ")) {
+                String[] parts = line.split("\\s+", 3);
+                if (parts.length < 3) {
+                    System.out.println("Usage: /file <username> <path>  or  /roomfile <room> <path>");
+                    continue;
+                }
+                boolean toRoom = parts[0].equals("/roomfile");
+                Path file = Paths.get(parts[2]);
+                // en arrière-plan : l'envoi suit le rythme des acquittements
+                new Thread(() -> {
+                    try {
+                        sendFile(toRoom ? null : parts[1], toRoom ? parts[1] : null, file);
+                        System.out.println("[FILE] sent " + file);
+                    } catch (IOException e) {
+                        System.out.println("[FILE] " + file + ": " + e.getMessage());
+                    }
+                }).start();
             }
 
             else if (line.equals("/rooms")) {
@@ -134,14 +541,12 @@ public class SecureChatClient {
 
             else if (line.equals("/quit")) {
                 System.out.println("Closing client.");
-                try {
-                    socket.close();
-                } catch (IOException ignored) {}
+                close();
                 System.exit(0);
             }
 
             else {
-                System.out.println("Unknown command. Use: /login /join /msg /rooms /users /quit");
+                System.out.println("Unknown command. Use: /login /join /msg /file /roomfile /rooms /users /quit");
             }
         }
     }
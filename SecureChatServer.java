@@ -1,98 +1,397 @@
 import javax.net.ssl.*;
 import java.io.*;
 import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.KeyStore;
 import javax.net.ssl.KeyManagerFactory;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class SecureChatServer {
 
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 20_000;
+    public static final int DEFAULT_SESSION_TIMEOUT = 24 * 60 * 60;   // secondes
+    static final int STORED_VERSION = ChatMessage.VERSION_CRC32C;      // historique et hors ligne, sur disque
+
+    public enum Mode {
+        BLOCKING,   // un thread par SSLSocket
+        NIO         // SocketChannel + SSLEngine, une boucle par coeur
+    }
+
+    private final Mode mode;
+    private final SSLContext sslContext;
+    private final SSLContext clusterContext;        // liens entre noeuds : TLS mutuel sur le même keystore
+    private final HandshakeStats handshakeStats = new HandshakeStats();
+    private HandshakeStage handshakeStage = HandshakeStage.withDefaults(handshakeStats);
     private SSLServerSocket serverSocket;
-    private final Map<String, ClientSession> activeSessions = new HashMap<>();
-    private final Map<String, ChatRoom> chatRooms = new HashMap<>();
+    private ServerSocketChannel nioAcceptor;        // mode NIO : lié dès le constructeur, servi par launch()
+    private final ChatRegistry registry = new ChatRegistry(this::roomClosed);
+    private volatile RoomHistories history = new RoomHistories(0, null, name -> false);
+    private volatile OfflineStore offline;          // null : messages privés hors ligne perdus
     private final ProtocolParser messageParser = new ProtocolParser();
+    private final BufferPool bufferPool = BufferPool.shared();
+    private final ChatMetrics metrics = ChatMetrics.shared();
+    private Executor connectionExecutor = ConnectionExecutors.platformThreads();
+    private Executor writerExecutor = ConnectionExecutors.virtualThreads();
+    private int outboundMaxFrames = 1024;
+    private long outboundMaxBytes = 16L * 1024 * 1024;
+    private OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.DROP_OLDEST;
+    private FlushPolicy flushPolicy = FlushPolicy.IMMEDIATE;
+    private volatile boolean compress = true;       // false : aucune trame compressée envoyée
+    private volatile TimerWheel timers;             // null tant que l'inactivité n'est pas surveillée
+    private volatile long idleTimeoutTicks;         // 0 : sessions jamais fermées pour inactivité
+    private volatile ClusterNode cluster;           // null hors mode cluster
+    private volatile ShardPool shards;              // null : diffusion sur le thread de l'émetteur
+    private volatile double messagesPerSecond;      // limites de débit (voir TokenBucket), 0 : aucune
+    private volatile long bytesPerSecond;
+    private volatile long roomBytesPerSecond;
 
     public SecureChatServer(int port, String keystorePath, String password) throws Exception {
-        SSLContext context = createSSLContext(keystorePath, password);
-        SSLServerSocketFactory factory = context.getServerSocketFactory();
-        serverSocket = (SSLServerSocket) factory.createServerSocket();
-        serverSocket.bind(new InetSocketAddress(port));
-        System.out.println("SecureChatServer listening on " + port);
+        this(port, keystorePath, password, Mode.BLOCKING);
     }
 
-    private SSLContext createSSLContext(String keystorePath, String password) throws Exception {
+    public SecureChatServer(int port, String keystorePath, String password, Mode mode) throws Exception {
+        this.mode = mode;
         KeyStore ks = KeyStore.getInstance("PKCS12");
         try (FileInputStream fis = new FileInputStream(keystorePath)) {
             ks.load(fis, password.toCharArray());
         }
+        SSLContext context = createSSLContext(ks, password);
+        this.sslContext = context;
+        this.clusterContext = createClusterContext(ks, password);
+        if (mode == Mode.NIO) {
+            nioAcceptor = NioChatServer.bind(port);
+        } else {
+            SSLServerSocketFactory factory = context.getServerSocketFactory();
+            serverSocket = (SSLServerSocket) factory.createServerSocket();
+            serverSocket.bind(new InetSocketAddress(port));
+        }
+        System.out.println("SecureChatServer listening on " + port + " (" + mode + ")");
+    }
+
+    // sans TLS ni socket : les sessions sont créées par l'appelant (benchmarks)
+    SecureChatServer() {
+        this.mode = Mode.BLOCKING;
+        this.sslContext = null;
+        this.clusterContext = null;
+    }
+
+    private SSLContext createSSLContext(KeyStore ks, String password) throws Exception {
         KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
         kmf.init(ks, password.toCharArray());
+
         SSLContext context = SSLContext.getInstance("TLS");
         context.init(kmf.getKeyManagers(), null, new SecureRandom());
+
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(DEFAULT_SESSION_CACHE_SIZE);
+        sessions.setSessionTimeout(DEFAULT_SESSION_TIMEOUT);
         return context;
     }
 
+    // Les noeuds se présentent avec le certificat du keystore et n'acceptent
+    // que des pairs qui présentent un certificat de ce même keystore.
+    private static SSLContext createClusterContext(KeyStore ks, String password) throws Exception {
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(ks, password.toCharArray());
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(ks);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), new SecureRandom());
+        return context;
+    }
+
+    // taille 0 = cache illimité (convention de SSLSessionContext)
+    public void setSessionCache(int size, int timeoutSeconds) {
+        SSLSessionContext sessions = sslContext.getServerSessionContext();
+        sessions.setSessionCacheSize(size);
+        sessions.setSessionTimeout(timeoutSeconds);
+    }
+
+    HandshakeStats handshakeStats() { return handshakeStats; }
+
+    // pool dédié aux handshakes (et aux tâches SSLEngine en mode NIO), file bornée
+    public void setHandshakeStage(int threads, int queueCapacity, int timeoutMillis) {
+        HandshakeStage previous = handshakeStage;
+        handshakeStage = new HandshakeStage(threads, queueCapacity, timeoutMillis, handshakeStats);
+        previous.shutdown();
+    }
+
+    HandshakeStage handshakeStage() { return handshakeStage; }
+
+    // Exécuteur des handleClient en mode BLOCKING (threads virtuels, pool borné...)
+    public void setConnectionExecutor(Executor executor) {
+        this.connectionExecutor = executor;
+    }
+
+    // Exécuteur des writers qui vident les files de sortie en mode BLOCKING
+    public void setWriterExecutor(Executor executor) {
+        this.writerExecutor = executor;
+    }
+
+    public void setOutboundLimits(int maxFrames, long maxBytes, OutboundQueue.OverflowPolicy policy) {
+        this.outboundMaxFrames = maxFrames;
+        this.outboundMaxBytes = maxBytes;
+        this.overflowPolicy = policy;
+    }
+
+    // Regroupement des écritures : flush dès maxBatchBytes en attente, ou au plus
+    // tard lingerMicros après la première trame non vidée (0 = sans attente)
+    public void setWriteBatching(int maxBatchBytes, long lingerMicros) {
+        this.flushPolicy = new FlushPolicy(maxBatchBytes, lingerMicros);
+    }
+
+    FlushPolicy flushPolicy() { return flushPolicy; }
+
+    // Compression des corps d'au moins thresholdBytes pour les clients en
+    // version 4 et plus qui l'acceptent (level : 0 à 9). thresholdBytes < 0
+    // n'envoie plus rien de compressé, sans limiter la version négociée.
+    public void setCompression(int thresholdBytes, int level) {
+        if (thresholdBytes >= 0) FrameCompression.configure(thresholdBytes, level);
+        compress = thresholdBytes >= 0;
+    }
+
+    // Session sans aucune trame reçue pendant timeoutSeconds : PING à mi-délai,
+    // fermeture au délai complet (salons et annuaire nettoyés). 0 désactive.
+    public void setIdleTimeout(int timeoutSeconds) {
+        if (timeoutSeconds <= 0) {
+            idleTimeoutTicks = 0;
+            return;
+        }
+        TimerWheel wheel = TimerWheel.shared();
+        timers = wheel;
+        idleTimeoutTicks = Math.max(2, wheel.ticks(TimeUnit.SECONDS.toMillis(timeoutSeconds)));
+    }
+
+    // Mode cluster (voir ClusterNode) : ce serveur est le noeud nodeId, écoute
+    // ses pairs sur clusterPort et se connecte à chaque adresse de peers.
+    public void enableCluster(String nodeId, int clusterPort, List<InetSocketAddress> peers) throws IOException {
+        ClusterNode node = new ClusterNode(this, registry, nodeId, clusterPort, peers, clusterContext);
+        cluster = node;
+        node.start();
+    }
+
+    // Exécution répartie (voir ShardPool) : chaque salon appartient à un shard
+    // qui fait seul sa diffusion, son historique et son relais cluster ; la
+    // livraison passe ensuite au shard de chaque session destinataire.
+    // 0 = diffusion sur le thread de l'émetteur. À fixer avant launch().
+    public void setShards(int count) {
+        shards = count > 0 ? new ShardPool(count) : null;
+    }
+
+    // Limites par session (messages et octets de TEXT_MESSAGE / PRIVATE_MESSAGE
+    // reçus par seconde) et par salon (octets diffusés par seconde, taille de
+    // la trame × membres). Seaux d'une seconde de capacité ; 0 = pas de limite.
+    // Au-delà, le message est refusé avec rate-limited. À fixer avant launch().
+    public void setRateLimits(double messagesPerSecond, long bytesPerSecond, long roomBytesPerSecond) {
+        this.messagesPerSecond = messagesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.roomBytesPerSecond = roomBytesPerSecond;
+    }
+
+    // Historique par salon : les maxFrames derniers messages sont rejoués à
+    // chaque nouveau membre ; directory != null les journalise sur disque.
+    public void setRoomHistory(int maxFrames, Path directory) {
+        RoomHistories previous = history;
+        history = new RoomHistories(maxFrames, directory, name -> registry.room(name) != null);
+        previous.close();
+    }
+
+    // Messages privés pour des destinataires hors ligne, gardés sur disque et
+    // livrés à leur prochaine connexion ; directory == null désactive le stockage.
+    public void setOfflineStore(Path directory, long maxMailboxBytes, long maxTotalBytes, long ttlMillis) throws IOException {
+        OfflineStore previous = offline;
+        offline = directory == null ? null
+                : new OfflineStore(directory, maxMailboxBytes, maxTotalBytes, ttlMillis, ConnectionExecutors.virtualThreads());
+        if (previous != null) previous.close();
+    }
+
+    // Métriques : MBean chat:type=ChatMetrics et, si port > 0, page texte
+    // http://127.0.0.1:<port>/metrics
+    public void enableMetrics(int port) {
+        metrics.gauge("chat_users", registry::userCount);
+        metrics.gauge("chat_rooms", registry::roomCount);
+        metrics.gauge("chat_symbols", () -> registry.symbols().size());
+        metrics.gauge("chat_handshake_queue_depth", () -> handshakeStage.queueDepth());
+        metrics.gauge("chat_handshake_active", () -> handshakeStage.active());
+        metrics.gauge("chat_handshake_rejected_total", () -> handshakeStage.rejected());
+        metrics.gauge("chat_handshake_failed_total", () -> handshakeStage.failed());
+        metrics.gauge("chat_handshake_timed_out_total", () -> handshakeStage.timedOut());
+        metrics.gauge("chat_tls_full_handshakes_total", handshakeStats::full);
+        metrics.gauge("chat_tls_resumed_handshakes_total", handshakeStats::resumed);
+        metrics.gauge("chat_offline_store_bytes", () -> offline == null ? 0 : offline.totalBytes());
+        metrics.gauge("chat_cluster_links", () -> cluster == null ? 0 : cluster.linkCount());
+        metrics.gauge("chat_cluster_remote_users", () -> cluster == null ? 0 : cluster.remoteUserCount());
+        metrics.registerMBean();
+        if (port <= 0) return;
+        try {
+            metrics.startEndpoint(port);
+        } catch (IOException e) {
+            System.err.println("metrics endpoint not started on " + port + ": " + e.getMessage());
+        }
+    }
+
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(outboundMaxFrames, outboundMaxBytes, overflowPolicy);
+    }
+
     public void launch() {
+        if (mode == Mode.NIO) {
+            // construit ici et non dans le constructeur : il garde une référence au serveur
+            NioChatServer nio;
+            try {
+                nio = new NioChatServer(this, sslContext, nioAcceptor, Runtime.getRuntime().availableProcessors());
+            } catch (IOException e) {
+                metrics.error("nio-start");
+                return;
+            }
+            nio.run();
+            return;
+        }
         while (true) {
             try {
                 SSLSocket client = (SSLSocket) serverSocket.accept();
-                new Thread(() -> handleClient(client)).start();
+                client.setTcpNoDelay(true);             // comme en NIO : FILE_ACK et petites trames sans attendre Nagle
+                handshakeStage.submit(client, this::dispatchEstablished);
             } catch (IOException e) {
+                metrics.error("accept");
                 break;
             }
         }
     }
 
+    // appelé par l'étage de handshake une fois la session TLS négociée
+    private void dispatchEstablished(SSLSocket socket) {
+        try {
+            connectionExecutor.execute(() -> handleClient(socket));
+        } catch (RejectedExecutionException rejected) {
+            metrics.error("dispatch-rejected");
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
     private void handleClient(SSLSocket socket) {
+        ClientSession session = null;
         try (SSLSocket s = socket) {
-            s.startHandshake();
-
             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
-            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            // pas de DataOutputStream : ses write() sont synchronized et épinglent les threads virtuels
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), flushPolicy.maxBatchBytes());
 
-            ClientSession session = new ClientSession(null, out);
+            session = new ClientSession(out, newOutboundQueue(), writerExecutor, s, flushPolicy);
+            metrics.connectionsOpened.increment();
+            watchIdle(session);
 
             while (true) {
-                int bodyLength;
+                int header;
                 try {
-                    bodyLength = in.readInt();
+                    header = in.readInt();
                 } catch (EOFException eof) {
                     break;
                 }
+                int bodyLength = header & ~FrameCompression.FLAG;
 
                 if (bodyLength <= 0 || bodyLength > 10_000_000) {
+                    metrics.parseFailures.increment();
                     sendError(session, "invalid-length");
+                    session.drain();
                     break;
                 }
 
-                byte[] full = new byte[8 + bodyLength];
-                full[0] = (byte) ((bodyLength >> 24) & 0xFF);
-                full[1] = (byte) ((bodyLength >> 16) & 0xFF);
-                full[2] = (byte) ((bodyLength >> 8) & 0xFF);
-                full[3] = (byte) (bodyLength & 0xFF);
-
-                in.readFully(full, 4, 4 + bodyLength);
-                handleProtocolMessage(full, session);
-            }
+                byte[] full = bufferPool.acquire(8 + bodyLength);
+                full[0] = (byte) ((header >> 24) & 0xFF);
+                full[1] = (byte) ((header >> 16) & 0xFF);
+                full[2] = (byte) ((header >> 8) & 0xFF);
+                full[3] = (byte) (header & 0xFF);
 
-            if (session.username != null) {
-                activeSessions.remove(session.username);
-                for (ChatRoom room : chatRooms.values()) {
-                    room.removeMember(session);
+                try {
+                    in.readFully(full, 4, 4 + bodyLength);
+                    handleProtocolMessage(full, 8 + bodyLength, session);
+                } finally {
+                    bufferPool.release(full);
                 }
             }
 
-        } catch (Exception ignored) {}
+        } catch (IOException e) {
+            metrics.error("client-io");
+        } catch (Exception e) {
+            metrics.error("client");
+        } finally {
+            if (session != null) closeSession(session);
+        }
+    }
+
+    void closeSession(ClientSession session) {
+        if (session.closed) return;
+        session.closed = true;
+        metrics.connectionsClosed.increment();
+        registry.unregister(session);
+        ClusterNode node = cluster;
+        if (node != null && session.username != null) node.userChanged(session.username);
+        for (FileTransfer transfer : session.transfers.values()) abortTransfer(session, transfer);
     }
 
     public void handleProtocolMessage(byte[] messageData, ClientSession session) {
-        ChatMessage msg = messageParser.parse(messageData);
+        handleProtocolMessage(messageData, messageData.length, session);
+    }
+
+    // la vue lit directement messageData : le tableau ne doit pas être réutilisé avant le retour
+    void handleProtocolMessage(byte[] messageData, int length, ClientSession session) {
+        touch(session);
+        if (!FrameCompression.isCompressed(messageData)) {
+            handleMessage(messageData, length, length, session);
+            return;
+        }
+        // trame compressée : acceptée seulement si la version 4 a été négociée
+        byte[] plain = session.wireVersion >= ChatMessage.VERSION_DEFLATE
+                ? session.compression.inflate(messageData, length, bufferPool)
+                : null;
+        if (plain == null) {
+            metrics.frameIn(null, length);
+            metrics.parseFailures.increment();
+            sendError(session, "malformed-message");
+            return;
+        }
+        try {
+            handleMessage(plain, FrameCompression.frameLength(plain), length, session);
+        } finally {
+            bufferPool.release(plain);
+        }
+    }
+
+    // wireLength : taille reçue, avant décompression
+    private void handleMessage(byte[] messageData, int length, int wireLength, ClientSession session) {
+        MessageView msg = messageParser.view(messageData, 0, length, session.names);
+        metrics.frameIn(msg == null ? null : msg.getType(), wireLength);
         if (msg == null) {
+            metrics.parseFailures.increment();
             sendError(session, "malformed-message");
             return;
         }
 
+        // réponses et erreurs envoyées pendant le traitement portent ce numéro
+        session.requestId = msg.getRequestId();
+        session.answered = false;
+        try {
+            dispatch(msg, wireLength, session);
+        } catch (RuntimeException e) {
+            // une trame qui fait échouer son traitement reçoit une erreur : la
+            // connexion (et en NIO la boucle qui la porte) continue
+            metrics.error("dispatch");
+            sendError(session, "internal-error");
+        } finally {
+            if (session.requestId != 0 && !session.answered) {
+                reply(session, new ChatMessage(MessageType.ACK, "server", session.username, null, null));
+            }
+            session.requestId = 0;
+        }
+    }
+
+    private void dispatch(MessageView msg, int wireLength, ClientSession session) {
         MessageType type = msg.getType();
 
         switch (type) {
@@ -105,6 +404,7 @@ public class SecureChatServer {
                     sendError(session, "not-authenticated");
                     return;
                 }
+                if (!admit(session, 1, wireLength)) return;
                 ChatMessage textMsg = new ChatMessage(
                         MessageType.TEXT_MESSAGE,
                         session.username,
@@ -112,7 +412,7 @@ public class SecureChatServer {
                         msg.getRoom(),
                         msg.getContent()
                 );
-                broadcastToRoom(textMsg);
+                broadcastToRoom(textMsg, msg.roomRef(), wireLength, session);
                 break;
 
             case PRIVATE_MESSAGE:
@@ -120,34 +420,82 @@ public class SecureChatServer {
                     sendError(session, "not-authenticated");
                     return;
                 }
+                if (!admit(session, 1, wireLength)) return;
                 ChatMessage privMsg = new ChatMessage(
                         MessageType.PRIVATE_MESSAGE,
                         session.username,
                         msg.getRecipient(),
                         null,
                         msg.getContent()
-                );
-                sendPrivateMessage(privMsg);
+                ).setSymbols(session.userId, msg.recipientRef(), Symbols.NONE);
+                sendPrivateMessage(privMsg, session);
+                break;
+
+            case FILE_START:
+            case FILE_CHUNK:
+            case FILE_END:
+                if (session.username == null) {
+                    sendError(session, "not-authenticated");
+                    return;
+                }
+                if (session.wireVersion < ChatMessage.VERSION_BINARY) {
+                    sendError(session, "binary-protocol-required");
+                    return;
+                }
+                if (type == MessageType.FILE_START) {
+                    if (admit(session, 1, wireLength)) startTransfer(msg, session);
+                } else if (type == MessageType.FILE_CHUNK) {
+                    relayChunk(msg, wireLength, session);
+                }
+                else endTransfer(msg, session);
+                break;
+
+            case PING:
+                reply(session, new ChatMessage(MessageType.PONG, "server", session.username, null, msg.getContent()));
                 break;
 
+            case PONG:
+                break;                                  // touch() a déjà noté l'activité
+
             default:
                 sendError(session, "unknown-type");
         }
     }
 
-    private void processLogin(ChatMessage message, ClientSession session) {
+    // Seaux de la session créés au premier message, sur son thread de lecture.
+    // Un morceau de fichier ne compte que ses octets (messages = 0).
+    private boolean admit(ClientSession session, int messages, int wireLength) {
+        if (session.messageLimit == null) {
+            session.messageLimit = TokenBucket.perSecond(messagesPerSecond);
+            session.byteLimit = TokenBucket.perSecond(bytesPerSecond);
+        }
+        if ((messages == 0 || session.messageLimit.tryAcquire(messages)) && session.byteLimit.tryAcquire(wireLength)) {
+            return true;
+        }
+        metrics.sessionThrottled.increment();
+        metrics.throttledBytes.add(wireLength);
+        sendError(session, "rate-limited");
+        return false;
+    }
+
+    private void processLogin(MessageView message, ClientSession session) {
         String username = message.getSender();
         if (username == null || username.trim().isEmpty()) {
             sendError(session, "empty-username");
             return;
         }
-        if (activeSessions.containsKey(username)) {
+        ClusterNode node = cluster;
+        if ((node != null && node.locate(username) != null) || !registry.register(username, session)) {
             sendError(session, "username-taken");
             return;
         }
-
         session.username = username;
-        activeSessions.put(username, session);
+        if (node != null) node.userChanged(username);
+        // on répond dans la plus haute version commune (voir ChatMessage)
+        if (message.getVersion() >= ChatMessage.VERSION_BINARY) {
+            session.wireVersion = Math.min(message.getVersion(), ChatMessage.MAX_VERSION);
+        }
+        session.deflate = compress && message.acceptsDeflate();
 
         ChatMessage response = new ChatMessage(
                 MessageType.LOGIN_RESPONSE,
@@ -156,34 +504,360 @@ public class SecureChatServer {
                 null,
                 "login-success"
         );
-        sendToSession(session, response);
+        reply(session, response);
+
+        joinRoom("General", Symbols.NONE, session);
 
-        ChatRoom room = chatRooms.computeIfAbsent("General", ChatRoom::new);
-        room.addMember(session);
+        OfflineStore store = offline;
+        if (store != null) store.deliver(username, session, frame -> storedFor(session, frame));
     }
 
-    private void broadcastToRoom(ChatMessage message) {
+    // Un nouveau membre reçoit d'abord l'historique du salon, tel qu'encodé.
+    // Un message diffusé pendant l'arrivée peut apparaître dans le rejeu et en direct.
+    // Historique pas encore en mémoire : relu hors de ce thread, rejoué ensuite,
+    // le direct peut alors précéder le rejeu.
+    // roomId (version 5) évite de hacher le nom quand le salon existe déjà.
+    private ChatRoom joinRoom(String roomName, int roomId, ClientSession session) {
+        ChatRoom known = findRoom(roomName, roomId);
+        if (known != null && session.rooms.contains(known)) return known;
+
+        ChatRoom room = registry.join(roomName, session);
+        ClusterNode node = cluster;
+        if (node != null) node.roomChanged(roomName);
+        if (history.enabled()) {
+            history.replay(roomName, frames -> {
+                for (EncodedFrame frame : frames) {
+                    if (!session.closed) sendStored(session, frame);
+                    frame.release();
+                }
+            });
+        }
+        return room;
+    }
+
+    // identifiant libéré depuis (salon fermé puis recréé) : on retombe sur le nom
+    private ChatRoom findRoom(String roomName, int roomId) {
+        ChatRoom known = registry.room(roomId);
+        return known != null ? known : registry.room(roomName);
+    }
+
+    // Trame conservée en binaire (historique, messages hors ligne) : envoyée
+    // telle quelle si la session comprend sa version, réencodée sinon.
+    private void sendStored(ClientSession session, EncodedFrame frame) {
+        EncodedFrame out = storedFor(session, frame);
+        if (out == null) return;
+        sendToSession(session, out);
+        out.release();
+    }
+
+    // la trame à envoyer à la session pour une trame conservée : elle-même
+    // (retenue) ou une copie réencodée, à rendre par l'appelant ; null si illisible
+    private EncodedFrame storedFor(ClientSession session, EncodedFrame frame) {
+        if (session.wireVersion >= ChatMessage.VERSION_BINARY && frame.bodyVersion() <= session.wireVersion) {
+            return frame.retain();
+        }
+        ChatMessage stored = ChatMessage.fromBytes(frame.array());
+        if (stored == null) return null;
+        stored.setVersion(session.wireVersion);
+        return EncodedFrame.of(stored, session.wireVersion, session.deflate);
+    }
+
+    private void roomClosed(String roomName) {
+        history.evict(roomName);
+        ClusterNode node = cluster;
+        if (node != null) node.roomChanged(roomName);
+    }
+
+    private void broadcastToRoom(ChatMessage message, int roomId, int wireLength, ClientSession sender) {
         String roomName = message.getRoom();
         if (roomName == null) return;
 
-        ChatRoom room = chatRooms.computeIfAbsent(roomName, ChatRoom::new);
-        room.addMember(activeSessions.get(message.getSender()));
+        // La limite du salon est vérifiée avant d'y faire entrer l'émetteur :
+        // un message refusé ne l'ajoute pas aux membres et ne rejoue rien.
+        // Un salon créé par ce message a un seau plein, qui accepterait.
+        ChatRoom known = findRoom(roomName, roomId);
+        if (known != null) {
+            int members = known.getMembers().length + (sender.rooms.contains(known) ? 0 : 1);
+            long fanoutBytes = (long) wireLength * members;
+            if (!known.fanoutLimit(roomBytesPerSecond).tryAcquire(fanoutBytes)) {
+                metrics.roomThrottled.increment();
+                metrics.throttledBytes.add(fanoutBytes);
+                sendError(sender, "rate-limited");
+                return;
+            }
+        }
+        ChatRoom room = joinRoom(roomName, roomId, sender);
+        message.setSymbols(sender.userId, Symbols.NONE, room.id);
+        ShardPool pool = shards;
+        if (pool != null) {
+            // file du shard propriétaire : l'ordre d'un émetteur dans un salon est conservé
+            pool.execute(pool.shardOf(roomName), () -> publish(room, message, true));
+            return;
+        }
+        publish(room, message, true);
+    }
+
+    private void publish(ChatRoom room, ChatMessage message, boolean forward) {
+        FrameVariants frames = new FrameVariants(message);
+        fanOut(room, frames);
+        // une seule trame par noeud distant, quel que soit son nombre de membres
+        ClusterNode node = cluster;
+        if (forward && node != null) node.forwardRoom(room.getName(), frames.forVersion(STORED_VERSION));
+        frames.release();
+    }
+
+    // Message de salon relayé par un autre noeud : livré aux membres locaux
+    // (le salon n'est pas créé s'il n'existe pas ici) et jamais relayé plus loin.
+    void deliverRoomFromCluster(ChatMessage message) {
+        ChatRoom room = message.getRoom() == null ? null : registry.room(message.getRoom());
+        if (room == null) return;
+        message.setSymbols(Symbols.NONE, Symbols.NONE, room.id);
+        ShardPool pool = shards;
+        if (pool != null) {
+            pool.execute(pool.shardOf(room.getName()), () -> publish(room, message, false));
+            return;
+        }
+        publish(room, message, false);
+    }
+
+    private void fanOut(ChatRoom room, FrameVariants frames) {
+        if (history.enabled()) history.append(room.getName(), frames.forVersion(STORED_VERSION));
+        long start = System.nanoTime();
+        ShardPool pool = shards;
+        if (pool == null) {
+            for (ClientSession member : room.getMembers()) {
+                sendToSession(member, frames.forVersion(member.wireVersion, member.deflate));
+            }
+        } else {
+            handOff(pool, room, frames);
+        }
+        metrics.fanoutNanos.record(System.nanoTime() - start);
+    }
+
+    // Sur le shard du salon : un lot par shard de sessions, pour que chaque file
+    // de sortie ne soit alimentée que depuis son propre shard. Toutes les versions
+    // utiles sont encodées ici, avant publication : les autres shards ne font
+    // que lire les variantes (la version d'une session est fixée avant sa connexion).
+    private void handOff(ShardPool pool, ChatRoom room, FrameVariants frames) {
+        ClientSession[][] byShard = room.membersByShard(pool);
+        for (ClientSession[] part : byShard) {
+            for (ClientSession member : part) frames.forVersion(member.wireVersion, member.deflate);
+        }
+        int own = pool.shardOf(room.getName());
+        for (int i = 0; i < byShard.length; i++) {
+            ClientSession[] part = byShard[i];
+            if (part.length == 0 || i == own) continue;
+            frames.retain();
+            pool.execute(i, () -> {
+                for (ClientSession member : part) sendToSession(member, frames.forVersion(member.wireVersion, member.deflate));
+                frames.release();
+            });
+        }
+        for (ClientSession member : byShard[own]) sendToSession(member, frames.forVersion(member.wireVersion, member.deflate));
+    }
+
+    // sender == null : message reçu d'un autre noeud, pas d'erreur à renvoyer
+    void deliverPrivateFromCluster(ChatMessage message) {
+        sendPrivateMessage(message, null);
+    }
+
+    private void sendPrivateMessage(ChatMessage message, ClientSession sender) {
+        String recipient = message.getRecipient();
+        int recipientId = message.getRecipientId();
+        ClientSession dest = registry.user(recipientId);
+        if (dest == null) dest = registry.user(recipient);      // nom en texte, ou identifiant libéré depuis
+        if (dest != null) {
+            sendToSession(dest, message.setSymbols(message.getSenderId(), dest.userId, Symbols.NONE));
+            return;
+        }
+        ClusterNode node = cluster;
+        if (sender != null && node != null && node.forwardPrivate(recipient, message)) return;
+
+        OfflineStore store = offline;
+        if (store == null || recipient == null) {
+            sendError(sender, "user-offline");
+            return;
+        }
+        EncodedFrame frame = EncodedFrame.of(message, STORED_VERSION);
+        if (frame == null) return;
+        OfflineStore.Result result = store.store(recipient, frame);
+        frame.release();
+        if (result != OfflineStore.Result.STORED) {
+            sendError(sender, result == OfflineStore.Result.MAILBOX_FULL ? "mailbox-full" : "user-offline");
+            return;
+        }
+        // pas une erreur : le message est accepté, il sera livré à la connexion
+        if (sender != null) {
+            reply(sender, new ChatMessage(MessageType.ACK, "server", sender.username, null, "user-offline-queued"));
+        }
+
+        // connecté entre-temps : sa livraison a pu se terminer avant ce dépôt
+        ClientSession late = registry.user(recipient);
+        if (late != null) store.deliver(recipient, late, f -> storedFor(late, f));
+    }
+
+    /* ---------------- TRANSFERTS DE FICHIERS (voir FileTransfer) ---------------- */
+
+    private void startTransfer(MessageView msg, ClientSession session) {
+        long[] start = FileTransfer.parseStart(msg.getContent());
+        if (start == null) {
+            sendError(session, "malformed-message");
+            return;
+        }
+        int id = (int) start[0];
+        if (session.transfers.containsKey(id)) {
+            sendError(session, "transfer-exists");
+            return;
+        }
+        if (session.transfers.size() >= FileTransfer.MAX_PER_SESSION) {
+            sendError(session, "too-many-transfers");
+            return;
+        }
+
+        String recipient = msg.getRecipient();
+        String roomName = recipient == null ? msg.getRoom() : null;
+        ClientSession[] members;
+        if (recipient != null) {
+            int recipientId = msg.recipientRef();
+            ClientSession dest = registry.user(recipientId);
+            if (dest == null) dest = registry.user(recipient);
+            if (dest == null) {
+                sendError(session, "user-offline");
+                return;
+            }
+            if (dest.wireVersion < ChatMessage.VERSION_BINARY) {
+                sendError(session, "recipient-cannot-receive-files");
+                return;
+            }
+            members = new ClientSession[] { dest };
+        } else if (roomName != null) {
+            members = joinRoom(roomName, msg.roomRef(), session).getMembers();
+        } else {
+            sendError(session, "malformed-message");
+            return;
+        }
 
-        for (ClientSession member : room.getMembers()) {
-            sendToSession(member, message);
+        // les membres en JSON ne savent pas lire un contenu binaire : ils ne reçoivent rien
+        ClientSession[] targets = new ClientSession[members.length];
+        int count = 0;
+        for (ClientSession member : members) {
+            if (member != session && member.wireVersion >= ChatMessage.VERSION_BINARY) targets[count++] = member;
         }
+        FileTransfer transfer = new FileTransfer(id, start[1], recipient, roomName, Arrays.copyOf(targets, count));
+        session.transfers.put(id, transfer);
+        relay(new ChatMessage(MessageType.FILE_START, session.username, recipient, roomName, msg.getContent()),
+                transfer.targets);
     }
 
-    private void sendPrivateMessage(ChatMessage message) {
-        ClientSession dest = activeSessions.get(message.getRecipient());
-        if (dest == null) {
-            sendError(activeSessions.get(message.getSender()), "user-offline");
+    // Le morceau est recopié une seule fois, du tableau reçu vers la trame
+    // partagée ; l'acquittement part quand le dernier destinataire l'a écrite.
+    private void relayChunk(MessageView msg, int wireLength, ClientSession session) {
+        byte[] data = msg.array();
+        int offset = msg.contentOffset();
+        int length = msg.contentLength();
+        FileTransfer transfer = length < 8 ? null : session.transfers.get(FileTransfer.readInt(data, offset));
+        if (transfer == null) {
+            sendError(session, "unknown-transfer");
+            return;
+        }
+        // un morceau refusé laisserait un trou dans la séquence : le transfert est abandonné
+        if (!admit(session, 0, wireLength)) {
+            abortTransfer(session, transfer);
+            return;
+        }
+        int seq = FileTransfer.readInt(data, offset + 4);
+        if (!transfer.accept(seq, length - 8)) {
+            abortTransfer(session, transfer);
+            sendError(session, "transfer-rejected");
+            return;
+        }
+
+        // [id][seq] restent en tête : le destinataire retrouve son transfert et vérifie l'ordre
+        ChatMessage chunk = ChatMessage.chunk(session.username, transfer.recipient, transfer.room, data, offset, length);
+        EncodedFrame frame = EncodedFrame.of(chunk, transfer.chunkVersion, transfer.chunkDeflate);
+        if (frame == null) {
+            abortTransfer(session, transfer);
             return;
         }
-        sendToSession(dest, message);
+        String ack = transfer.id + " " + seq;
+        frame.whenReleased(() -> {
+            transfer.acknowledged();
+            if (!session.closed) {
+                sendToSession(session, new ChatMessage(MessageType.FILE_ACK, "server", session.username, null, ack));
+            }
+        });
+        for (ClientSession target : transfer.targets) {
+            if (!target.closed) sendToSession(target, frame);
+        }
+        frame.release();
     }
 
-    private void sendError(ClientSession session, String code) {
+    private void endTransfer(MessageView msg, ClientSession session) {
+        FileTransfer transfer = session.transfers.remove(FileTransfer.parseId(msg.getContent()));
+        if (transfer == null) {
+            sendError(session, "unknown-transfer");
+            return;
+        }
+        String end = transfer.complete() ? Integer.toString(transfer.id) : transfer.id + " aborted";
+        relay(new ChatMessage(MessageType.FILE_END, session.username, transfer.recipient, transfer.room, end),
+                transfer.targets);
+    }
+
+    private void abortTransfer(ClientSession session, FileTransfer transfer) {
+        if (session.transfers.remove(transfer.id, transfer)) {
+            relay(new ChatMessage(MessageType.FILE_END, session.username, transfer.recipient, transfer.room,
+                    transfer.id + " aborted"), transfer.targets);
+        }
+    }
+
+    // un encodage par version, partagé par les destinataires
+    private void relay(ChatMessage message, ClientSession[] targets) {
+        FrameVariants frames = new FrameVariants(message);
+        for (ClientSession target : targets) {
+            if (!target.closed) sendToSession(target, frames.forVersion(target.wireVersion, target.deflate));
+        }
+        frames.release();
+    }
+
+    /* ---------------- INACTIVITÉ (voir TimerWheel) ---------------- */
+
+    // Une seule échéance par session, réarmée paresseusement d'après lastRead :
+    // recevoir une trame ne touche jamais à la roue, seulement à lastRead.
+    void watchIdle(ClientSession session) {
+        TimerWheel wheel = timers;
+        long timeout = idleTimeoutTicks;
+        if (wheel == null || timeout == 0) return;
+        session.lastRead = wheel.now();
+        wheel.schedule(() -> checkIdle(session), timeout / 2);
+    }
+
+    private void touch(ClientSession session) {
+        TimerWheel wheel = timers;
+        if (wheel == null) return;
+        long now = wheel.now();
+        if (session.lastRead != now) session.lastRead = now;    // au plus une écriture par tick
+    }
+
+    // thread de la roue : rien de bloquant ici
+    private void checkIdle(ClientSession session) {
+        long timeout = idleTimeoutTicks;
+        if (session.closed || timeout == 0) return;
+        TimerWheel wheel = timers;
+        long idle = wheel.now() - session.lastRead;
+        if (idle >= timeout) {
+            metrics.idleDisconnects.increment();
+            session.disconnectLater();
+            return;
+        }
+        if (idle >= timeout / 2) {
+            sendToSession(session, new ChatMessage(MessageType.PING, "server", session.username, null, null));
+            wheel.schedule(() -> checkIdle(session), timeout - idle);
+        } else {
+            wheel.schedule(() -> checkIdle(session), timeout / 2 - idle);
+        }
+    }
+
+    void sendError(ClientSession session, String code) {
         if (session == null) return;
 
         ChatMessage err = new ChatMessage(
@@ -193,58 +867,73 @@ public class SecureChatServer {
                 null,
                 code
         );
-        sendToSession(session, err);
+        reply(session, err);
+    }
+
+    // Réponse à la requête en cours de traitement sur le thread de la session
+    private void reply(ClientSession session, ChatMessage response) {
+        session.answered = true;
+        sendToSession(session, response.setRequestId(session.requestId));
     }
 
     private void sendToSession(ClientSession session, ChatMessage msg) {
-        if (session == null || session.out == null) return;
+        if (session == null) return;
+        EncodedFrame frame = EncodedFrame.of(msg, session.wireVersion, session.deflate);
+        sendToSession(session, frame);
+        if (frame != null) frame.release();
+    }
 
-        try {
-            byte[] full = msg.toBytes();
-            int bodyLength = full.length - 8;
-            session.out.writeInt(bodyLength);
-            session.out.write(full, 4, 4 + bodyLength);
-            session.out.flush();
-        } catch (IOException ignored) {}
+    private void sendToSession(ClientSession session, EncodedFrame frame) {
+        if (session == null || frame == null) return;
+        session.send(frame);
     }
 
     public static void main(String[] args) {
-        int port = 9000;
-        String ks = "server.jks";
-        String pw = "password123";
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9000;
+        String ks = args.length > 1 ? args[1] : "server.jks";
+        String pw = args.length > 2 ? args[2] : "password123";
+        Mode mode = args.length > 3 ? Mode.valueOf(args[3].toUpperCase()) : Mode.BLOCKING;
 
         try {
-            SecureChatServer server = new SecureChatServer(port, ks, pw);
+            SecureChatServer server = new SecureChatServer(port, ks, pw, mode);
+            server.setConnectionExecutor(ConnectionExecutors.fromName(System.getProperty("chat.executor", "platform")));
+            server.setSessionCache(
+                    Integer.getInteger("chat.tls.cacheSize", DEFAULT_SESSION_CACHE_SIZE),
+                    Integer.getInteger("chat.tls.cacheTimeout", DEFAULT_SESSION_TIMEOUT));
+            String historyDir = System.getProperty("chat.history.dir", "history");
+            server.setRoomHistory(Integer.getInteger("chat.history.size", 50),
+                    historyDir.isEmpty() ? null : Paths.get(historyDir));
+            String offlineDir = System.getProperty("chat.offline.dir", "offline");
+            server.setOfflineStore(offlineDir.isEmpty() ? null : Paths.get(offlineDir),
+                    Long.getLong("chat.offline.mailboxBytes", 64L << 20),
+                    Long.getLong("chat.offline.maxBytes", 1L << 30),
+                    TimeUnit.HOURS.toMillis(Long.getLong("chat.offline.ttlHours", 7 * 24L)));
+            server.enableMetrics(Integer.getInteger("chat.metrics.port", 9464));
+            server.setIdleTimeout(Integer.getInteger("chat.idle.timeoutSeconds", 120));
+            server.setShards(Integer.getInteger("chat.shards", 0));
+            server.setRateLimits(
+                    Double.parseDouble(System.getProperty("chat.rate.messages", "0")),
+                    Long.getLong("chat.rate.bytes", 0L),
+                    Long.getLong("chat.rate.roomBytes", 0L));
+            String nodeId = System.getProperty("chat.cluster.node", "");
+            if (!nodeId.isEmpty()) {
+                List<InetSocketAddress> peers = new ArrayList<>();
+                for (String peer : System.getProperty("chat.cluster.peers", "").split(",")) {
+                    if (peer.isBlank()) continue;
+                    int colon = peer.lastIndexOf(':');
+                    peers.add(new InetSocketAddress(peer.substring(0, colon).trim(), Integer.parseInt(peer.substring(colon + 1).trim())));
+                }
+                server.enableCluster(nodeId, Integer.getInteger("chat.cluster.port", port + 100), peers);
+            }
+            server.setCompression(
+                    Integer.getInteger("chat.compress.threshold", FrameCompression.DEFAULT_THRESHOLD),
+                    Integer.getInteger("chat.compress.level", FrameCompression.DEFAULT_LEVEL));
+            server.setWriteBatching(
+                    Integer.getInteger("chat.flush.batchBytes", FlushPolicy.DEFAULT_BATCH_BYTES),
+                    Long.getLong("chat.flush.lingerMicros", 0L));
             server.launch();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 }
-
-class ClientSession {
-    String username;
-    final DataOutputStream out;
-
-    ClientSession(String username, DataOutputStream out) {
-        this.username = username;
-        this.out = out;
-    }
-}
-
-class ChatRoom {
-    private final String name;
-    private final Set<ClientSession> members = new HashSet<>();
-
-    ChatRoom(String name) { this.name = name; }
-
-    void addMember(ClientSession session) { members.add(session); }
-    void removeMember(ClientSession session) { members.remove(session); }
-    Set<ClientSession> getMembers() { return members; }
-}
-
-class ProtocolParser {
-    ChatMessage parse(byte[] data) {
-        return ChatMessage.fromBytes(data);
-    }
-}
@@ -0,0 +1,80 @@
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Workers à file unique : chaque shard est un thread qui exécute, dans
+ * l'ordre, les tâches déposées dans sa file MPSC (plusieurs producteurs,
+ * un seul consommateur, sans verrou). Tout ce qu'on confie toujours au même
+ * shard n'a qu'un écrivain : pas de verrou, pas de ligne de cache qui
+ * voyage entre les coeurs.
+ *
+ * Le worker tourne quelques instants à vide avant de se garer ; un
+ * producteur ne le réveille (unpark) que s'il est garé.
+ */
+final class ShardPool {
+
+    // attente active inutile sur un seul coeur : le producteur a besoin du CPU
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 200 : 0;
+
+    private final Worker[] workers;
+
+    ShardPool(int shards) {
+        workers = new Worker[shards];
+        for (int i = 0; i < shards; i++) {
+            workers[i] = new Worker("chat-shard-" + i);
+            workers[i].thread.start();
+        }
+    }
+
+    int size() { return workers.length; }
+
+    // shard propriétaire d'une clé (nom de salon) ou d'un numéro de session
+    int shardOf(String key) { return Math.floorMod(key.hashCode(), workers.length); }
+    int shardOf(int seq) { return Math.floorMod(seq, workers.length); }
+
+    void execute(int shard, Runnable task) {
+        workers[shard].submit(task);
+    }
+
+    private static final class Worker implements Runnable {
+        final Thread thread;
+        final MpscQueue<Runnable> tasks = new MpscQueue<>();
+        volatile boolean parked;
+
+        Worker(String name) {
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        void submit(Runnable task) {
+            tasks.offer(task);
+            if (parked) LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (true) {
+                Runnable task = tasks.poll();
+                if (task != null) {
+                    idle = 0;
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        ChatMetrics.shared().error("shard");
+                    }
+                    continue;
+                }
+                if (++idle < SPINS) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                // parked est publié avant de relire la file : un offer concurrent
+                // voit parked == true, ou bien la file n'est plus vide ici
+                parked = true;
+                if (tasks.isEmpty()) LockSupport.park(this);
+                parked = false;
+                idle = 0;
+            }
+        }
+    }
+}
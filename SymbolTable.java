@@ -0,0 +1,88 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntPredicate;
+
+/*
+ * Liaisons identifiant -> nom envoyées à une connexion (adressage ouvert).
+ * C'est la seule table consultée pour les identifiants que cette connexion
+ * renvoie : un client ne peut désigner que des noms qu'on lui a liés.
+ * get() est sans verrou ; put() doit être appelé sous le verrou du
+ * propriétaire. Les liaisons d'identifiants libérés (voir Symbols.release)
+ * sont purgées quand la table doit grandir.
+ */
+final class SymbolTable {
+
+    private volatile Slots slots = new Slots(16);
+    private int size;
+
+    private static final class Slots {
+        final AtomicIntegerArray ids;
+        final AtomicReferenceArray<String> names;
+
+        Slots(int capacity) {
+            ids = new AtomicIntegerArray(capacity);
+            names = new AtomicReferenceArray<>(capacity);
+        }
+
+        int capacity() { return ids.length(); }
+    }
+
+    // null si id n'a pas été lié à cette connexion
+    String get(int id) {
+        if (id == Symbols.NONE) return null;
+        Slots table = slots;
+        int mask = table.capacity() - 1;
+        for (int i = mix(id) & mask; ; i = (i + 1) & mask) {
+            int slot = table.ids.get(i);
+            if (slot == id) return table.names.get(i);
+            if (slot == Symbols.NONE) return null;
+        }
+    }
+
+    boolean contains(int id) {
+        return get(id) != null;
+    }
+
+    // live : identifiants encore attribués, seuls gardés quand la table grandit
+    void put(int id, String name, IntPredicate live) {
+        Slots table = slots;
+        if ((size + 1) * 2 > table.capacity()) {
+            int kept = 0;
+            for (int i = 0; i < table.capacity(); i++) {
+                int slot = table.ids.get(i);
+                if (slot != Symbols.NONE && live.test(slot)) kept++;
+            }
+            int capacity = table.capacity();
+            while ((kept + 1) * 2 > capacity) capacity *= 2;
+            Slots rebuilt = new Slots(capacity);
+            for (int i = 0; i < table.capacity(); i++) {
+                int slot = table.ids.get(i);
+                if (slot != Symbols.NONE && live.test(slot)) insert(rebuilt, slot, table.names.get(i));
+            }
+            table = rebuilt;
+            size = kept;
+            slots = table;
+        }
+        if (insert(table, id, name)) size++;
+    }
+
+    // le nom est écrit avant l'identifiant : un lecteur qui voit l'un voit l'autre
+    private static boolean insert(Slots table, int id, String name) {
+        int mask = table.capacity() - 1;
+        for (int i = mix(id) & mask; ; i = (i + 1) & mask) {
+            int slot = table.ids.get(i);
+            if (slot == id) return false;
+            if (slot == Symbols.NONE) {
+                table.names.set(i, name);
+                table.ids.set(i, id);
+                return true;
+            }
+        }
+    }
+
+    // identifiants consécutifs : on les étale sur la table
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
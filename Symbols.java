@@ -0,0 +1,104 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Identifiants entiers des noms d'utilisateurs et de salons (protocole 5).
+ * Un nom reçoit son identifiant au login ou à la création du salon et le
+ * garde tant qu'un utilisateur ou un salon le porte ; au dernier release()
+ * l'emplacement est libéré. L'identifiant combine l'emplacement (20 bits)
+ * et une génération (10 bits) incrémentée à chaque réutilisation : un
+ * identifiant libéré ne désigne jamais un autre nom (sauf après 1024
+ * réutilisations du même emplacement). Au-delà de MAX emplacements occupés,
+ * les nouveaux noms restent en texte sur le fil (NONE).
+ */
+final class Symbols {
+
+    static final int NONE = 0;
+    static final int MAX = 1 << 20;                 // emplacements
+    static final int LIMIT = 1 << 30;               // tout identifiant est < LIMIT : (id << 1) | 1 reste positif
+    private static final int SLOT_MASK = MAX - 1;
+    private static final int GENERATION_MASK = LIMIT / MAX - 1;
+
+    // intern() et release() au login, à la déconnexion et autour de la vie
+    // d'un salon seulement : un verrou suffit ; name() reste sans verrou
+    private final ReentrantLock lock = new ReentrantLock();
+    private final HashMap<String, Symbol> byName = new HashMap<>();
+    private final IdTable<Symbol> bySlot = new IdTable<>();
+    private int[] freed = new int[16];              // prochains identifiants des emplacements libérés
+    private int freedCount;
+    private int nextSlot = 1;
+    private volatile int size;
+
+    private static final class Symbol {
+        final String name;
+        final int id;
+        int holders;                                // utilisateur et/ou salon qui portent le nom
+
+        Symbol(String name, int id) {
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    // Une référence de plus sur le nom, à rendre par release(id).
+    // NONE si name est null ou si tous les emplacements sont occupés.
+    int intern(String name) {
+        if (name == null) return NONE;
+        lock.lock();
+        try {
+            Symbol symbol = byName.get(name);
+            if (symbol == null) {
+                int id;
+                if (freedCount > 0) id = freed[--freedCount];
+                else if (nextSlot < MAX) id = nextSlot++;
+                else return NONE;
+                symbol = new Symbol(name, id);
+                byName.put(name, symbol);
+                bySlot.set(slot(id), symbol);
+                size = byName.size();
+            }
+            symbol.holders++;
+            return symbol.id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // au dernier release() le nom n'est plus résolu et l'emplacement sert à
+    // un autre nom, sous un nouvel identifiant
+    void release(int id) {
+        if (id == NONE) return;
+        lock.lock();
+        try {
+            Symbol symbol = bySlot.get(slot(id));
+            if (symbol == null || symbol.id != id || --symbol.holders > 0) return;
+            byName.remove(symbol.name);
+            bySlot.set(slot(id), null);
+            size = byName.size();
+            if (freedCount == freed.length) freed = Arrays.copyOf(freed, freedCount * 2);
+            int generation = ((id >>> 20) + 1) & GENERATION_MASK;
+            freed[freedCount++] = (generation << 20) | slot(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // null si id n'est pas (ou plus) attribué
+    String name(int id) {
+        if (id <= NONE || id >= LIMIT) return null;
+        Symbol symbol = bySlot.get(slot(id));
+        return symbol != null && symbol.id == id ? symbol.name : null;
+    }
+
+    boolean isLive(int id) {
+        return name(id) != null;
+    }
+
+    int size() { return size; }
+
+    // index dans les tables par identifiant (voir ChatRegistry)
+    static int slot(int id) {
+        return id & SLOT_MASK;
+    }
+}
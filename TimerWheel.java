@@ -0,0 +1,126 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Roue de minuterie hachée : un seul thread, un tableau de cases d'un tick
+ * chacune. Une échéance est rangée dans la case (tick % taille) ; celles qui
+ * tombent plus d'un tour plus loin y restent et sont simplement ignorées
+ * jusqu'à leur tour. Armer coûte un ajout dans une file sans verrou, quel
+ * que soit le nombre d'échéances : pas de tâche planifiée par connexion.
+ *
+ * La précision est d'un tick (largement assez pour des délais d'inactivité),
+ * et now() sert d'horloge grossière : le lire ne coûte qu'une lecture volatile.
+ * Les tâches tournent sur le thread de la roue : elles doivent être courtes
+ * et ne jamais bloquer.
+ */
+final class TimerWheel implements Runnable {
+
+    static final long DEFAULT_TICK_MILLIS = 100;
+    static final int DEFAULT_SIZE = 512;                 // un tour = 51,2 s
+
+    private static volatile TimerWheel shared;
+
+    private final long tickNanos;
+    private final long tickMillis;
+    private final Entry[] buckets;                       // thread de la roue seulement
+    private final int mask;
+    private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private volatile long tick;
+
+    private static final class Entry {
+        final Runnable task;
+        long deadline;                                   // en ticks
+        Entry next;
+
+        Entry(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+
+    // size arrondi à une puissance de deux
+    TimerWheel(String name, long tickMillis, int size) {
+        this.tickMillis = tickMillis;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int n = Integer.highestOneBit(Math.max(2, size - 1) << 1);
+        this.buckets = new Entry[n];
+        this.mask = n - 1;
+        Thread thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // roue partagée par les serveurs du processus
+    static TimerWheel shared() {
+        TimerWheel w = shared;
+        if (w == null) {
+            synchronized (TimerWheel.class) {
+                w = shared;
+                if (w == null) shared = w = new TimerWheel("timer-wheel", DEFAULT_TICK_MILLIS, DEFAULT_SIZE);
+            }
+        }
+        return w;
+    }
+
+    // ticks écoulés depuis le démarrage de la roue
+    long now() { return tick; }
+
+    // délai en ticks, arrondi au-dessus, au moins 1
+    long ticks(long millis) {
+        return Math.max(1, (millis + tickMillis - 1) / tickMillis);
+    }
+
+    void schedule(Runnable task, long delayTicks) {
+        pending.add(new Entry(task, tick + Math.max(1, delayTicks)));
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        while (true) {
+            long wait = start + (tick + 1) * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            // un seul écrivain : le thread de la roue ; rattrape tick par tick après une pause
+            long now = tick + 1;
+            tick = now;
+            transferPending(now);
+            expire(now);
+        }
+    }
+
+    private void transferPending(long now) {
+        Entry e;
+        while ((e = pending.poll()) != null) {
+            // armée juste avant le passage à now : échue dans la case courante, pas un tour plus tard
+            if (e.deadline < now) e.deadline = now;
+            int i = (int) (e.deadline & mask);
+            e.next = buckets[i];
+            buckets[i] = e;
+        }
+    }
+
+    private void expire(long now) {
+        int i = (int) (now & mask);
+        Entry e = buckets[i];
+        Entry kept = null;
+        while (e != null) {
+            Entry next = e.next;
+            if (e.deadline <= now) {
+                try {
+                    e.task.run();
+                } catch (RuntimeException ex) {
+                    ChatMetrics.shared().error("timer");
+                }
+            } else {
+                e.next = kept;
+                kept = e;
+            }
+            e = next;
+        }
+        buckets[i] = kept;
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Seau à jetons sans verrou, à la façon GCRA : tout l'état tient dans un
+ * AtomicLong, l'instant (nanoTime) où le seau sera de nouveau plein. Prendre
+ * des jetons repousse cet instant ; un seul compareAndSet par appel, aucun
+ * thread de remplissage. Les durées sont saturées à Long.MAX_VALUE et la
+ * somme dette + coût est bornée par la capacité avant tout ajout : aucun
+ * débordement ne peut rendre un seau vide de nouveau plein.
+ */
+final class TokenBucket {
+
+    static final TokenBucket UNLIMITED = new TokenBucket(0, 0);
+
+    private final double nanosPerToken;             // 0 : pas de limite
+    private final long capacityNanos;               // capacité du seau, exprimée en temps
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+    private TokenBucket(double tokensPerSecond, double capacity) {
+        this.nanosPerToken = tokensPerSecond > 0 ? 1e9 / tokensPerSecond : 0;
+        this.capacityNanos = nanos(capacity);
+    }
+
+    // capacité d'une seconde de débit ; UNLIMITED si tokensPerSecond <= 0
+    static TokenBucket perSecond(double tokensPerSecond) {
+        return tokensPerSecond > 0 ? new TokenBucket(tokensPerSecond, Math.max(1, tokensPerSecond)) : UNLIMITED;
+    }
+
+    // false si les jetons manquent, rien n'est pris alors. Une demande
+    // au-delà de la capacité est toujours refusée, même sur un seau plein.
+    boolean tryAcquire(long tokens) {
+        if (nanosPerToken == 0) return true;
+        if (tokens < 0) return false;
+        long cost = nanos(tokens);
+        if (cost > capacityNanos) return false;
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            long debt = Math.max(0, current - now);    // temps avant que le seau soit plein
+            if (cost > capacityNanos - debt) return false;
+            if (fullAt.compareAndSet(current, now + debt + cost)) return true;
+        }
+    }
+
+    // jetons -> nanosecondes, arrondi au-dessus et saturé à Long.MAX_VALUE
+    private long nanos(double tokens) {
+        double nanos = Math.ceil(tokens * nanosPerToken);
+        return nanos >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) nanos;
+    }
+}
@@ -0,0 +1,101 @@
+import securechat.bench.ChatWorkload;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Implémentation de ChatWorkload dans le paquet par défaut : accès direct
+ * aux classes package-private du chat.
+ */
+public class ChatWorkloads implements ChatWorkload {
+
+    private final ProtocolParser parser = new ProtocolParser();
+    private final BufferPool pool = BufferPool.shared();
+
+    @Override
+    public Object message(int contentChars) {
+        StringBuilder content = new StringBuilder(contentChars);
+        for (int i = 0; i < contentChars; i++) content.append((char) ('a' + i % 26));
+        return new ChatMessage(MessageType.TEXT_MESSAGE, "alice", null, "General", content.toString());
+    }
+
+    @Override
+    public String toJson(Object message) {
+        return ((ChatMessage) message).toJSON();
+    }
+
+    @Override
+    public Object fromJson(String json) {
+        // même chemin que le serveur : vue sur le corps, puis message complet
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        MessageView view = MessageView.parse(body, 0, body.length);
+        return view == null ? null : view.toMessage();
+    }
+
+    @Override
+    public byte[] toBytes(Object message, int wireVersion) {
+        return ((ChatMessage) message).toBytes(wireVersion);
+    }
+
+    @Override
+    public Object fromBytes(byte[] frame) {
+        return ChatMessage.fromBytes(frame);
+    }
+
+    @Override
+    public int encodePooled(Object message, int wireVersion) {
+        EncodedFrame frame = ((ChatMessage) message).encode(wireVersion, pool);
+        int length = frame.length();
+        frame.release();
+        return length;
+    }
+
+    @Override
+    public long checksum(byte[] data, boolean crc32c) {
+        return crc32c ? ChatMessage.crc32c(data, 0, data.length) : ChatMessage.byteSum(data, 0, data.length);
+    }
+
+    @Override
+    public Object parse(byte[] frame) {
+        return parser.parse(frame);
+    }
+
+    @Override
+    public Object view(byte[] frame) {
+        return parser.view(frame);
+    }
+
+    @Override
+    public Object room(int members, int binaryPercent) {
+        SecureChatServer server = new SecureChatServer();
+        // grandes files : la mesure porte sur la diffusion, pas sur la politique de débordement
+        server.setOutboundLimits(1 << 20, Long.MAX_VALUE, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        ClientSession sender = null;
+        for (int i = 0; i < members; i++) {
+            // writer synchrone vers un flux nul : chaque envoi est écrit aussitôt
+            ClientSession session = new ClientSession(OutputStream.nullOutputStream(),
+                    server.newOutboundQueue(), Runnable::run, () -> {});
+            ChatMessage login = new ChatMessage(MessageType.LOGIN_REQUEST, "user" + i, null, null, "pw");
+            if (i * 100 < members * binaryPercent) login.setVersion(ChatMessage.VERSION_BINARY);
+            server.handleProtocolMessage(login.toBytes(), session);
+            if (sender == null) sender = session;
+        }
+        return new Room(server, sender);
+    }
+
+    @Override
+    public void deliver(Object room, byte[] frame) {
+        Room r = (Room) room;
+        r.server.handleProtocolMessage(frame, r.sender);
+    }
+
+    private static final class Room {
+        final SecureChatServer server;
+        final ClientSession sender;
+
+        Room(SecureChatServer server, ClientSession sender) {
+            this.server = server;
+            this.sender = sender;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package securechat.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Diffusion d'un message dans un salon de N membres, de la trame reçue
+ * jusqu'à l'écriture dans chaque session (flux nul, sans TLS). Moitié des
+ * membres en JSON, moitié en binaire : les deux encodages sont produits.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgsAppend = "-Xms1g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BroadcastBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int members;
+
+    @Param({"50"})
+    public int binaryPercent;
+
+    private ChatWorkload chat;
+    private Object room;
+    private byte[] frame;
+
+    @Setup
+    public void setup() {
+        chat = ChatWorkload.create();
+        room = chat.room(members, binaryPercent);
+        frame = chat.toBytes(chat.message(80), 1);
+    }
+
+    @Benchmark
+    public void broadcast() {
+        chat.deliver(room, frame);
+    }
+}
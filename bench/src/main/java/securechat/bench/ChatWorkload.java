@@ -0,0 +1,54 @@
+package securechat.bench;
+
+/*
+ * Pont vers le code du chat, qui vit dans le paquet par défaut : une classe
+ * d'un paquet nommé ne peut pas l'importer, et JMH refuse les benchmarks
+ * hors paquet. L'implémentation (ChatWorkloads, paquet par défaut, même jar)
+ * est chargée par nom ; l'appel d'interface monomorphe est inliné par le JIT.
+ * Les objets du chat circulent en Object opaques.
+ */
+public interface ChatWorkload {
+
+    static ChatWorkload create() {
+        try {
+            return (ChatWorkload) Class.forName("ChatWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("ChatWorkloads not on the classpath", e);
+        }
+    }
+
+    /* ---- codec ---- */
+
+    // TEXT_MESSAGE dans "General" avec un contenu de contentChars caractères
+    Object message(int contentChars);
+
+    String toJson(Object message);
+
+    Object fromJson(String json);
+
+    byte[] toBytes(Object message, int wireVersion);
+
+    Object fromBytes(byte[] frame);
+
+    // encodage dans un tableau du pool, rendu aussitôt ; retourne la longueur
+    int encodePooled(Object message, int wireVersion);
+
+    // somme des octets (versions 1 et 2) ou CRC32C (version 3)
+    long checksum(byte[] data, boolean crc32c);
+
+    /* ---- parser ---- */
+
+    Object parse(byte[] frame);
+
+    // vue paresseuse seulement, sans construire de ChatMessage
+    Object view(byte[] frame);
+
+    /* ---- diffusion ---- */
+
+    // serveur sans réseau, members sessions connectées à "General" ; binaryPercent
+    // d'entre elles en protocole binaire. Retourne la session émettrice.
+    Object room(int members, int binaryPercent);
+
+    // un TEXT_MESSAGE reçu de l'émetteur, traité de bout en bout (parse, diffusion, écriture)
+    void deliver(Object sender, byte[] frame);
+}
@@ -0,0 +1,42 @@
+package securechat.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Somme de contrôle des trames seule, sur des corps de 64 o à 1 Mo :
+ * somme des octets (versions 1 et 2) contre CRC32C (version 3).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgsAppend = "-Xms1g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ChecksumBenchmark {
+
+    @Param({"64", "4096", "1048576"})
+    public int bytes;
+
+    @Param({"sum", "crc32c"})
+    public String algorithm;
+
+    private ChatWorkload chat;
+    private byte[] data;
+    private boolean crc32c;
+
+    @Setup
+    public void setup() {
+        chat = ChatWorkload.create();
+        data = new byte[bytes];
+        new Random(42).nextBytes(data);
+        crc32c = "crc32c".equals(algorithm);
+    }
+
+    @Benchmark
+    public long checksum() {
+        return chat.checksum(data, crc32c);
+    }
+}
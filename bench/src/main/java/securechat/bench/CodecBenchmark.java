@@ -0,0 +1,81 @@
+package securechat.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Encodage et décodage d'un TEXT_MESSAGE, JSON et binaire. "small" est un
+ * message de discussion courant, "large" un collage de plusieurs kilo-octets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = "-Xms1g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CodecBenchmark {
+
+    @Param({"small", "large"})
+    public String size;
+
+    private ChatWorkload chat;
+    private Object message;
+    private String json;
+    private byte[] jsonFrame;
+    private byte[] binaryFrame;
+
+    @Setup
+    public void setup() {
+        chat = ChatWorkload.create();
+        message = chat.message("small".equals(size) ? 40 : 8000);
+        json = chat.toJson(message);
+        jsonFrame = chat.toBytes(message, 1);
+        binaryFrame = chat.toBytes(message, 2);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return chat.toJson(message);
+    }
+
+    @Benchmark
+    public Object fromJson() {
+        return chat.fromJson(json);
+    }
+
+    @Benchmark
+    public byte[] toBytesJson() {
+        return chat.toBytes(message, 1);
+    }
+
+    @Benchmark
+    public byte[] toBytesBinary() {
+        return chat.toBytes(message, 2);
+    }
+
+    @Benchmark
+    public byte[] toBytesCrc32c() {
+        return chat.toBytes(message, 3);
+    }
+
+    @Benchmark
+    public byte[] toBytesDeflate() {
+        return chat.toBytes(message, 4);
+    }
+
+    @Benchmark
+    public int encodePooledBinary() {
+        return chat.encodePooled(message, 2);
+    }
+
+    @Benchmark
+    public Object fromBytesJson() {
+        return chat.fromBytes(jsonFrame);
+    }
+
+    @Benchmark
+    public Object fromBytesBinary() {
+        return chat.fromBytes(binaryFrame);
+    }
+}
@@ -0,0 +1,43 @@
+package securechat.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * ProtocolParser sur une trame reçue : vue paresseuse seule (ce que fait le
+ * serveur pour router) et décodage complet en ChatMessage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = "-Xms1g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParserBenchmark {
+
+    @Param({"small", "large"})
+    public String size;
+
+    @Param({"1", "2", "3"})
+    public int version;
+
+    private ChatWorkload chat;
+    private byte[] frame;
+
+    @Setup
+    public void setup() {
+        chat = ChatWorkload.create();
+        frame = chat.toBytes(chat.message("small".equals(size) ? 40 : 8000), version);
+    }
+
+    @Benchmark
+    public Object view() {
+        return chat.view(frame);
+    }
+
+    @Benchmark
+    public Object parse() {
+        return chat.parse(frame);
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * BufferPool : classes de taille en puissances de deux, réutilisation des
+ * tampons rendus, rejet des tableaux étrangers ; EncodedFrame ne rend son
+ * tableau qu'à la dernière référence.
+ */
+class BufferPoolTest {
+
+    @Test
+    void roundsUpToTheSizeClass() {
+        BufferPool pool = new BufferPool();
+        assertEquals(256, pool.acquire(1).length);
+        assertEquals(512, pool.acquire(300).length);
+        assertEquals(1 << 20, pool.acquire(1 << 20).length);
+        assertEquals(256, pool.acquireDirect(100).capacity());
+    }
+
+    @Test
+    void reusesReleasedBuffers() {
+        BufferPool pool = new BufferPool();
+        byte[] array = pool.acquire(1000);
+        pool.release(array);
+        assertSame(array, pool.acquire(600));
+        assertEquals(1, pool.hits());
+
+        ByteBuffer direct = pool.acquireDirect(1000);
+        direct.position(10);
+        pool.releaseDirect(direct);
+        ByteBuffer again = pool.acquireDirect(1000);
+        assertSame(direct, again);
+        assertEquals(0, again.position());
+        assertEquals(again.capacity(), again.limit());
+    }
+
+    @Test
+    void doesNotPoolOversizedOrForeignArrays() {
+        BufferPool pool = new BufferPool();
+        byte[] huge = pool.acquire((1 << 20) + 1);
+        assertEquals((1 << 20) + 1, huge.length);
+        pool.release(huge);
+        pool.release(new byte[300]);
+        pool.releaseDirect(ByteBuffer.allocate(256));   // tas : ignoré
+        assertEquals(2, pool.discards());
+        assertEquals(0, pool.releases());
+    }
+
+    @Test
+    void boundsEachSizeClass() {
+        BufferPool pool = new BufferPool();
+        for (int i = 0; i < 5; i++) pool.release(new byte[1 << 20]);      // 4 Mo par classe
+        assertEquals(4, pool.releases());
+        assertEquals(1, pool.discards());
+    }
+
+    @Test
+    void frameReturnsItsArrayOnTheLastRelease() {
+        BufferPool pool = new BufferPool();
+        byte[] array = pool.acquire(100);
+        EncodedFrame frame = new EncodedFrame(array, 100, pool);
+        frame.retain();
+        frame.release();
+        assertEquals(0, pool.releases());
+        frame.release();
+        assertEquals(1, pool.releases());
+        assertSame(array, pool.acquire(100));
+    }
+}
@@ -0,0 +1,99 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * ChatRegistry : noms uniques, membres des salons et index inverse tenus
+ * ensemble, salon vidé retiré puis recréé, départs et arrivées concurrents.
+ */
+class ChatRegistryTest {
+
+    private final ChatRegistry registry = new ChatRegistry();
+
+    private static ClientSession session(String username) {
+        ClientSession session = new ClientSession(OutputStream.nullOutputStream(),
+                new OutboundQueue(16, 1 << 20, OutboundQueue.OverflowPolicy.DROP_OLDEST), Runnable::run, () -> {});
+        session.username = username;
+        return session;
+    }
+
+    @Test
+    void registersEachNameOnce() {
+        ClientSession alice = session("alice");
+        assertTrue(registry.register("alice", alice));
+        assertFalse(registry.register("alice", session("alice")));
+        assertSame(alice, registry.user("alice"));
+        assertNull(registry.user(null));
+        assertEquals(1, registry.userCount());
+    }
+
+    @Test
+    void joinKeepsMembersAndReverseIndexTogether() {
+        ClientSession alice = session("alice");
+        ChatRoom room = registry.join("General", alice);
+        assertSame(room, registry.join("General", alice));
+        assertEquals(List.of(alice), List.of(room.getMembers()));
+        assertTrue(alice.rooms.contains(room));
+        assertSame(room, registry.room("General"));
+    }
+
+    @Test
+    void unregisterLeavesEveryRoomOfTheSession() {
+        ClientSession alice = session("alice");
+        ClientSession bob = session("bob");
+        registry.register("alice", alice);
+        registry.register("bob", bob);
+        registry.join("General", alice);
+        ChatRoom shared = registry.join("Shared", alice);
+        registry.join("Shared", bob);
+
+        registry.unregister(alice);
+        assertTrue(alice.rooms.isEmpty());
+        assertNull(registry.user("alice"));
+        assertNull(registry.room("General"));
+        assertSame(shared, registry.room("Shared"));
+        assertEquals(List.of(bob), List.of(shared.getMembers()));
+        assertEquals(1, registry.roomCount());
+    }
+
+    @Test
+    void emptiedRoomIsClosedAndRecreated() {
+        ClientSession alice = session("alice");
+        ChatRoom room = registry.join("General", alice);
+        registry.leave(room, alice);
+        assertTrue(room.isClosed());
+        assertEquals(0, registry.roomCount());
+
+        ChatRoom again = registry.join("General", alice);
+        assertNotSame(room, again);
+        assertFalse(again.isClosed());
+        assertTrue(alice.rooms.contains(again));
+    }
+
+    @Test
+    void concurrentJoinsAndLeavesLeaveNoRoomBehind() throws InterruptedException {
+        int threads = 8;
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicInteger missing = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            ClientSession session = session("user" + t);
+            new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    ChatRoom room = registry.join("room" + (i % 4), session);
+                    if (!session.rooms.contains(room)) missing.incrementAndGet();
+                    registry.leave(room, session);
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(0, missing.get());
+        assertEquals(0, registry.roomCount());
+    }
+}
@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * ClientSession : l'émetteur ne fait que déposer ; l'écriture comme la
+ * fermeture d'une session débordée passent par le writer.
+ */
+class ClientSessionTest {
+
+    private static EncodedFrame frame(int length) {
+        return new EncodedFrame(new byte[length]);
+    }
+
+    @Test
+    void overflowClosesOnTheWriterNotTheSender() {
+        List<Runnable> writer = new ArrayList<>();
+        AtomicInteger closes = new AtomicInteger();
+        Closeable connection = closes::incrementAndGet;
+        ClientSession session = new ClientSession(new ByteArrayOutputStream(),
+                new OutboundQueue(1, 1 << 20, OutboundQueue.OverflowPolicy.DISCONNECT), writer::add, connection);
+
+        session.send(frame(1));
+        assertEquals(1, writer.size());                 // drain planifié
+        session.send(frame(1));
+        assertEquals(0, closes.get());                  // rien de fermé sur le thread de l'émetteur
+        assertEquals(2, writer.size());
+        writer.get(1).run();
+        assertEquals(1, closes.get());
+    }
+
+    @Test
+    void rejectedWriterClosesInline() {
+        AtomicInteger closes = new AtomicInteger();
+        ClientSession session = new ClientSession(new ByteArrayOutputStream(),
+                new OutboundQueue(1, 1 << 20, OutboundQueue.OverflowPolicy.DISCONNECT),
+                task -> { throw new RejectedExecutionException(); },
+                closes::incrementAndGet);
+        session.disconnectLater();
+        assertEquals(1, closes.get());
+    }
+}
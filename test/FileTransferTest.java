@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * FileTransfer : en-têtes FILE_START et identifiants, morceaux acceptés dans
+ * l'ordre, sans dépasser la taille annoncée ni la fenêtre de WINDOW morceaux
+ * non acquittés ; un seul encodage à la plus basse version des destinataires,
+ * compressé seulement si tous l'acceptent.
+ */
+class FileTransferTest {
+
+    private static final int CHUNK = FileTransfer.MAX_CHUNK;
+
+    private static ClientSession target(int wireVersion, boolean deflate) {
+        ClientSession session = new ClientSession(OutputStream.nullOutputStream(),
+                new OutboundQueue(16, 1 << 20, OutboundQueue.OverflowPolicy.DROP_OLDEST), Runnable::run, () -> {});
+        session.wireVersion = wireVersion;
+        session.deflate = deflate;
+        return session;
+    }
+
+    private static FileTransfer transfer(long size) {
+        return new FileTransfer(1, size, "bob", null, new ClientSession[] { target(ChatMessage.MAX_VERSION, true) });
+    }
+
+    @Test
+    void parsesStartHeadersAndIds() {
+        assertArrayEquals(new long[] { 7, 1000 }, FileTransfer.parseStart("7 1000 photo de vacances.jpg"));
+        assertNull(FileTransfer.parseStart(null));
+        assertNull(FileTransfer.parseStart("7 1000"));
+        assertNull(FileTransfer.parseStart("7 1000 "));
+        assertNull(FileTransfer.parseStart("7 -1 x"));
+        assertNull(FileTransfer.parseStart("sept 1000 x"));
+        assertEquals(12, FileTransfer.parseId("12 aborted"));
+        assertEquals(12, FileTransfer.parseId("12"));
+        assertEquals(-1, FileTransfer.parseId("x"));
+        assertEquals(-1, FileTransfer.parseId(null));
+    }
+
+    @Test
+    void holdsAtMostAWindowOfUnacknowledgedChunks() {
+        FileTransfer transfer = transfer(10L * CHUNK);
+        for (int seq = 0; seq < FileTransfer.WINDOW; seq++) assertTrue(transfer.accept(seq, CHUNK), "chunk " + seq);
+        assertFalse(transfer.accept(FileTransfer.WINDOW, CHUNK));
+        transfer.acknowledged();
+        assertTrue(transfer.accept(FileTransfer.WINDOW, CHUNK));
+        assertFalse(transfer.complete());
+    }
+
+    @Test
+    void rejectsOutOfOrderOversizedOrOverrunningChunks() {
+        FileTransfer transfer = transfer(100);
+        assertFalse(transfer.accept(1, 10));            // hors d'ordre
+        assertFalse(transfer.accept(0, 0));
+        assertFalse(transfer.accept(0, CHUNK + 1));
+        assertFalse(transfer.accept(0, 101));           // au-delà de la taille annoncée
+        assertTrue(transfer.accept(0, 60));
+        assertFalse(transfer.accept(1, 41));
+        assertTrue(transfer.accept(1, 40));
+        assertTrue(transfer.complete());
+    }
+
+    @Test
+    void encodesChunksForTheOldestTarget() {
+        FileTransfer transfer = new FileTransfer(1, 10, null, "General",
+                new ClientSession[] { target(ChatMessage.MAX_VERSION, true), target(ChatMessage.VERSION_BINARY, false) });
+        assertEquals(ChatMessage.VERSION_BINARY, transfer.chunkVersion);
+        assertFalse(transfer.chunkDeflate);
+        assertTrue(transfer(10).chunkDeflate);
+    }
+
+    @Test
+    void writesAndReadsBigEndianInts() {
+        byte[] b = new byte[6];
+        FileTransfer.writeInt(b, 1, -2);
+        assertEquals(-2, FileTransfer.readInt(b, 1));
+        FileTransfer.writeInt(b, 2, 0x01020304);
+        assertEquals(1, b[2]);
+        assertEquals(4, b[5]);
+    }
+}
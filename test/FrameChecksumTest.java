@@ -0,0 +1,80 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * Checksum des trames : CRC32C à partir de la version 3, somme des octets
+ * avant ; le parseur refuse une trame version 3 dont un seul bit a changé.
+ */
+class FrameChecksumTest {
+
+    private static final ChatMessage MESSAGE =
+            new ChatMessage(MessageType.TEXT_MESSAGE, "alice", null, "General", "bonjour");
+
+    private static long header(byte[] frame) {
+        return ((frame[4] & 0xFFL) << 24) | ((frame[5] & 0xFFL) << 16) | ((frame[6] & 0xFFL) << 8) | (frame[7] & 0xFFL);
+    }
+
+    @Test
+    void crc32cMatchesTheReferenceValue() {
+        byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0xE3069283L, ChatMessage.crc32c(data, 0, data.length));
+    }
+
+    @Test
+    void versionThreeFramesCarryACrc32c() {
+        byte[] frame = MESSAGE.toBytes(ChatMessage.VERSION_CRC32C);
+        assertEquals(ChatMessage.VERSION_CRC32C, frame[8]);
+        assertEquals(ChatMessage.crc32c(frame, 8, frame.length - 8), header(frame));
+    }
+
+    @Test
+    void olderVersionsKeepTheByteSum() {
+        for (int version : new int[] { ChatMessage.VERSION_JSON, ChatMessage.VERSION_BINARY }) {
+            byte[] frame = MESSAGE.toBytes(version);
+            assertEquals(ChatMessage.byteSum(frame, 8, frame.length - 8), header(frame), "version " + version);
+        }
+    }
+
+    @Test
+    void parserRejectsAnyFlippedBit() {
+        ProtocolParser parser = new ProtocolParser();
+        byte[] frame = MESSAGE.toBytes(ChatMessage.VERSION_CRC32C);
+        assertNotNull(parser.view(frame));
+        for (int i = 8; i < frame.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] corrupted = frame.clone();
+                corrupted[i] ^= (byte) (1 << bit);
+                assertNull(parser.view(corrupted), "byte " + i + " bit " + bit);
+            }
+        }
+    }
+
+    @Test
+    void crc32cCatchesSwappedBytesTheByteSumMisses() {
+        ProtocolParser parser = new ProtocolParser();
+        for (int version : new int[] { ChatMessage.VERSION_BINARY, ChatMessage.VERSION_CRC32C }) {
+            byte[] frame = MESSAGE.toBytes(version);
+            int at = indexOf(frame, "bonjour".getBytes(StandardCharsets.US_ASCII));
+            byte swap = frame[at];
+            frame[at] = frame[at + 1];
+            frame[at + 1] = swap;                       // "obnjour" : même somme des octets
+            MessageView view = parser.view(frame);
+            if (version == ChatMessage.VERSION_BINARY) assertEquals("obnjour", view.getContent());
+            else assertNull(view);
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] part) {
+        outer:
+        for (int i = 0; i <= data.length - part.length; i++) {
+            for (int j = 0; j < part.length; j++) {
+                if (data[i + j] != part[j]) continue outer;
+            }
+            return i;
+        }
+        throw new AssertionError("not found");
+    }
+}
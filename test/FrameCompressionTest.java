@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * FrameCompression : au-delà du seuil la trame est compressée et le bit de
+ * poids fort de sa longueur le signale ; l'inflation rend la trame
+ * d'origine et refuse une trame corrompue ou qui dépasse MAX_INFLATED.
+ */
+class FrameCompressionTest {
+
+    @AfterEach
+    void restoreDefaults() {
+        FrameCompression.configure(FrameCompression.DEFAULT_THRESHOLD, FrameCompression.DEFAULT_LEVEL);
+    }
+
+    private static byte[] plain(String content) {
+        return new ChatMessage(MessageType.TEXT_MESSAGE, "alice", null, "General", content)
+                .toBytes(ChatMessage.VERSION_CRC32C);
+    }
+
+    private static byte[] compress(byte[] plain) {
+        return FrameCompression.compress(new EncodedFrame(plain), null).array();
+    }
+
+    @Test
+    void flagsCompressedFramesInTheLength() {
+        byte[] plain = plain("bonjour ".repeat(1000));
+        byte[] compressed = compress(plain);
+        assertTrue(FrameCompression.isCompressed(compressed));
+        assertFalse(FrameCompression.isCompressed(plain));
+        assertEquals(compressed.length, FrameCompression.frameLength(compressed));
+        assertTrue(compressed.length < plain.length / 10, compressed.length + " bytes");
+        assertEquals(ChatMessage.crc32c(compressed, 8, compressed.length - 8),
+                ((compressed[4] & 0xFFL) << 24) | ((compressed[5] & 0xFFL) << 16)
+                        | ((compressed[6] & 0xFFL) << 8) | (compressed[7] & 0xFFL));
+    }
+
+    @Test
+    void inflatesBackToTheOriginalFrame() {
+        byte[] plain = plain("bonjour ".repeat(1000));
+        byte[] compressed = compress(plain);
+        byte[] inflated = new FrameCompression().inflate(compressed, compressed.length, new BufferPool());
+        assertNotNull(inflated);
+        assertArrayEquals(plain, Arrays.copyOf(inflated, FrameCompression.frameLength(inflated)));
+        assertEquals("bonjour ".repeat(1000), new ProtocolParser().view(plain).getContent());
+    }
+
+    @Test
+    void leavesSmallFramesAlone() {
+        EncodedFrame frame = new EncodedFrame(plain("salut"));
+        assertSame(frame, FrameCompression.compress(frame, null));
+        FrameCompression.configure(0, Deflater.BEST_SPEED);
+        assertNotSame(frame, FrameCompression.compress(new EncodedFrame(plain("salut ".repeat(20))), null));
+    }
+
+    @Test
+    void rejectsCorruptedFrames() {
+        byte[] compressed = compress(plain("bonjour ".repeat(1000)));
+        FrameCompression inflater = new FrameCompression();
+        BufferPool pool = new BufferPool();
+        byte[] corrupted = compressed.clone();
+        corrupted[corrupted.length / 2] ^= 1;
+        assertNull(inflater.inflate(corrupted, corrupted.length, pool));
+        assertNull(inflater.inflate(compressed, compressed.length - 1, pool));     // tronquée
+        assertNotNull(inflater.inflate(compressed, compressed.length, pool));      // l'Inflater reste utilisable
+    }
+
+    @Test
+    void refusesToInflatePastTheLimit() {
+        byte[] body = new byte[FrameCompression.MAX_INFLATED + 1];
+        Deflater deflater = new Deflater();
+        deflater.setInput(body);
+        deflater.finish();
+        byte[] frame = new byte[8 + 64 * 1024];
+        int written = deflater.deflate(frame, 8, frame.length - 8);
+        assertTrue(deflater.finished());
+        deflater.end();
+        ChatMessage.writeHeader(frame, written | FrameCompression.FLAG, ChatMessage.crc32c(frame, 8, written));
+        assertNull(new FrameCompression().inflate(frame, 8 + written, new BufferPool()));
+    }
+}
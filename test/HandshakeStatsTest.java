@@ -0,0 +1,53 @@
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLSession;
+import java.lang.reflect.Proxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * HandshakeStats : une session créée pendant le handshake est complète, même
+ * créée dans la même milliseconde qu'une autre ; une session plus ancienne ou
+ * d'identifiant déjà vu est reprise.
+ */
+class HandshakeStatsTest {
+
+    private static SSLSession session(byte[] id, long created) {
+        return (SSLSession) Proxy.newProxyInstance(SSLSession.class.getClassLoader(), new Class<?>[] { SSLSession.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> id;
+                    case "getCreationTime" -> created;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @Test
+    void sessionsCreatedDuringTheHandshakeAreFull() {
+        HandshakeStats stats = new HandshakeStats();
+        long since = 1_000;
+        // deux handshakes complets concurrents, sessions créées dans la même milliseconde
+        stats.record(session(new byte[] { 1 }, since), since);
+        stats.record(session(new byte[] { 2 }, since), since);
+        assertEquals(2, stats.full());
+        assertEquals(0, stats.resumed());
+    }
+
+    @Test
+    void olderSessionsAreResumed() {
+        HandshakeStats stats = new HandshakeStats();
+        stats.record(session(new byte[] { 1 }, 1_000), 1_000);
+        // TLS 1.3 : nouvel identifiant, instant de création de la session d'origine
+        stats.record(session(new byte[] { 9 }, 1_000), 5_000);
+        assertEquals(1, stats.full());
+        assertEquals(1, stats.resumed());
+    }
+
+    @Test
+    void knownIdentifiersAreResumedInsideTheMargin() {
+        HandshakeStats stats = new HandshakeStats();
+        stats.record(session(new byte[] { 1 }, 1_000), 1_000);
+        stats.record(session(new byte[] { 1 }, 1_000), 1_000);
+        assertEquals(1, stats.full());
+        assertEquals(1, stats.resumed());
+    }
+}
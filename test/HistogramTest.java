@@ -0,0 +1,62 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * Histogram : valeurs exactes sous 16, environ 6 % d'erreur relative au-delà,
+ * jamais de quantile supérieur au maximum observé.
+ */
+class HistogramTest {
+
+    @Test
+    void emptySnapshotIsZero() {
+        Histogram.Snapshot snapshot = new Histogram().snapshot();
+        assertEquals(0, snapshot.count);
+        assertEquals(0, snapshot.mean());
+        assertEquals(0, snapshot.quantile(0.99));
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int v = 0; v < 16; v++) histogram.record(v);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(16, snapshot.count);
+        assertEquals(120, snapshot.sum);
+        assertEquals(7, snapshot.quantile(0.5));
+        assertEquals(15, snapshot.quantile(1.0));
+    }
+
+    @Test
+    void quantilesStayWithinTheRelativeError() {
+        Histogram histogram = new Histogram();
+        for (int v = 1; v <= 100_000; v++) histogram.record(v);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        for (double q : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+            double exact = q * 100_000;
+            long estimate = snapshot.quantile(q);
+            assertTrue(estimate >= exact, "q=" + q + " estimate=" + estimate);
+            assertTrue(estimate <= exact * (1 + 1.0 / 16), "q=" + q + " estimate=" + estimate);
+        }
+        assertEquals(100_000, snapshot.max);
+        assertEquals(50_000, snapshot.mean());
+    }
+
+    @Test
+    void quantileNeverExceedsTheMaximum() {
+        Histogram histogram = new Histogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.snapshot().quantile(1.0));
+    }
+
+    @Test
+    void clampsOutOfRangeValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.count);
+        assertEquals(0, snapshot.quantile(0.5));
+        assertEquals(Long.MAX_VALUE, snapshot.max);
+    }
+}
@@ -0,0 +1,138 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * MessageView : mêmes champs que l'encodage de ChatMessage, en JSON comme en
+ * binaire, et null (jamais d'exception) pour un corps mal formé.
+ */
+class MessageViewTest {
+
+    private static MessageView view(ChatMessage message, int version) {
+        byte[] frame = message.toBytes(version);
+        return MessageView.parse(frame, 8, frame.length - 8);
+    }
+
+    private static MessageView view(String json) {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        return MessageView.parse(body, 0, body.length);
+    }
+
+    // [version][type][timestamp:8] puis les octets donnés tels quels
+    private static byte[] binary(int version, MessageType type, int... rest) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(version);
+        out.write(type.ordinal());
+        out.writeBytes(new byte[8]);
+        for (int b : rest) out.write(b);
+        return out.toByteArray();
+    }
+
+    @Test
+    void readsEveryVersionLikeTheEncoder() {
+        ChatMessage message = new ChatMessage(MessageType.TEXT_MESSAGE, "alice", null, "General", "bonjour \"à\" tous\n");
+        for (int version = ChatMessage.VERSION_JSON; version <= ChatMessage.MAX_VERSION; version++) {
+            MessageView view = view(message, version);
+            assertNotNull(view, "version " + version);
+            assertEquals(MessageType.TEXT_MESSAGE, view.getType());
+            assertEquals("alice", view.getSender());
+            assertNull(view.getRecipient());
+            assertEquals("General", view.getRoom());
+            assertEquals("bonjour \"à\" tous\n", view.getContent());
+            assertEquals(message.getTimestamp(), view.getTimestamp());
+        }
+    }
+
+    @Test
+    void keepsRequestIdAndDeflateChoice() {
+        ChatMessage message = new ChatMessage(MessageType.PRIVATE_MESSAGE, "alice", "bob", null, "salut")
+                .setRequestId(42).setDeflate(false);
+        MessageView json = view(message, ChatMessage.VERSION_JSON);
+        assertEquals(42, json.getRequestId());
+        assertFalse(json.acceptsDeflate());
+        assertEquals(42, view(message, ChatMessage.VERSION_REQUEST_ID).getRequestId());
+        assertTrue(view("{\"type\":\"PING\"}").acceptsDeflate());
+    }
+
+    @Test
+    void decodesJsonEscapes() {
+        MessageView view = view("{\"type\":\"TEXT_MESSAGE\",\"content\":\"a\\\"b\\\\c\\u00e9\\n\"}");
+        assertNotNull(view);
+        assertEquals("a\"b\\cé\n", view.getContent());
+    }
+
+    @Test
+    void rejectsMalformedJson() {
+        assertNull(view("{\"type\":\"TEXT_MESSAGE\",\"content\":\"\\u12G4\"}"));
+        assertNull(view("{\"type\":\"TEXT_MESSAGE\",\"content\":\"\\u12\"}"));
+        assertNull(view("{\"type\":\"TEXT_MESSAGE\",\"content\":\"sans fin"));
+        assertNull(view("{\"type\":\"TEXT_MESSAGE\",\"content\":nu"));
+        assertNull(view("{\"type\":\"NO_SUCH_TYPE\"}"));
+        assertNull(view("pas du json"));
+    }
+
+    @Test
+    void rejectsBinaryFieldsPastTheBody() {
+        // sender annoncé sur 99 octets, 2 présents
+        byte[] body = binary(ChatMessage.VERSION_CRC32C, MessageType.TEXT_MESSAGE, 100, 'a', 'b');
+        assertNull(MessageView.parse(body, 0, body.length));
+        // varint de plus de 5 octets
+        body = binary(ChatMessage.VERSION_CRC32C, MessageType.TEXT_MESSAGE, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01);
+        assertNull(MessageView.parse(body, 0, body.length));
+        // varint négatif
+        body = binary(ChatMessage.VERSION_CRC32C, MessageType.TEXT_MESSAGE, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F);
+        assertNull(MessageView.parse(body, 0, body.length));
+        assertNull(MessageView.parse(new byte[0], 0, 0));
+    }
+
+    @Test
+    void neverReadsPastTheLimit() {
+        // tableau du pool plus long que le corps : les octets au-delà ne comptent pas
+        byte[] json = "{\"type\":\"PING\"}".getBytes(StandardCharsets.UTF_8);
+        assertNotNull(MessageView.parse(json, 0, json.length));
+        for (int cut = 1; cut < json.length; cut++) {
+            assertNull(MessageView.parse(json, 0, cut), "JSON coupé à " + cut);
+        }
+        byte[] frame = new ChatMessage(MessageType.TEXT_MESSAGE, "alice", null, "General", "x")
+                .setRequestId(300).toBytes(ChatMessage.VERSION_REQUEST_ID);
+        for (int cut = 1; cut < frame.length - 8; cut++) {
+            assertNull(MessageView.parse(frame, 8, cut), "binaire coupé à " + cut);
+        }
+    }
+
+    @Test
+    void checksTheNullLiteral() {
+        assertNull(view("{\"type\":\"TEXT_MESSAGE\",\"content\":nope}"));
+        MessageView view = view("{\"type\":\"TEXT_MESSAGE\",\"content\":null}");
+        assertNotNull(view);
+        assertNull(view.getContent());
+    }
+
+    @Test
+    void capsVarintsAtFiveBytes() {
+        // cinquième octet au-delà des 4 bits hauts d'un int
+        byte[] body = binary(ChatMessage.VERSION_CRC32C, MessageType.TEXT_MESSAGE, 0x81, 0x80, 0x80, 0x80, 0x10);
+        assertNull(MessageView.parse(body, 0, body.length));
+        body = binary(ChatMessage.VERSION_CRC32C, MessageType.TEXT_MESSAGE, 0, 0, 0, 0);
+        assertNotNull(MessageView.parse(body, 0, body.length));
+    }
+
+    @Test
+    void resolvesInternedNamesThroughTheReaderTable() {
+        ChatMessage message = new ChatMessage(MessageType.TEXT_MESSAGE, "alice", null, "General", "x")
+                .setSymbols(7, Symbols.NONE, 9);
+        byte[] frame = message.toBytes(ChatMessage.VERSION_INTERNED);
+        MessageView view = MessageView.parse(frame, 8, frame.length - 8, id -> id == 7 ? "alice" : id == 9 ? "General" : null);
+        assertNotNull(view);
+        assertEquals("alice", view.getSender());
+        assertEquals(7, view.senderRef());
+        assertEquals("General", view.getRoom());
+        assertEquals(9, view.roomRef());
+        // identifiant jamais lié à ce lecteur : trame refusée
+        assertNull(MessageView.parse(frame, 8, frame.length - 8, id -> null));
+        assertNull(MessageView.parse(frame, 8, frame.length - 8));
+    }
+}
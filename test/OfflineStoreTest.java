@@ -0,0 +1,192 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * OfflineStore : dépôt, livraison dans l'ordre puis suppression de la boîte,
+ * limites, relecture après redémarrage, canaux d'écriture rouverts après
+ * livraison ou éviction, messages gardés tant qu'ils ne sont pas écrits.
+ * La livraison tourne sur le thread de l'appel.
+ */
+class OfflineStoreTest {
+
+    private static final long HOUR = 3_600_000;
+
+    @TempDir
+    Path directory;
+
+    private OfflineStore store;
+
+    @AfterEach
+    void closeStore() {
+        if (store != null) store.close();
+    }
+
+    private OfflineStore open(long maxMailboxBytes, long maxTotalBytes, long ttlMillis) throws IOException {
+        if (store != null) store.close();
+        store = new OfflineStore(directory, maxMailboxBytes, maxTotalBytes, ttlMillis, Runnable::run);
+        return store;
+    }
+
+    private static OfflineStore.Result store(OfflineStore store, String recipient, String text) {
+        EncodedFrame frame = EncodedFrame.of(
+                new ChatMessage(MessageType.PRIVATE_MESSAGE, "alice", recipient, null, text), ChatMessage.VERSION_BINARY);
+        try {
+            return store.store(recipient, frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    private static List<String> deliver(OfflineStore store, String recipient) {
+        return deliver(store, recipient, Runnable::run, Integer.MAX_VALUE);
+    }
+
+    // la session se ferme après closeAfter trames ; writer décide quand la file est vidée
+    private static List<String> deliver(OfflineStore store, String recipient, Executor writer, int closeAfter) {
+        ClientSession session = new ClientSession(OutputStream.nullOutputStream(),
+                new OutboundQueue(1024, 1 << 20, OutboundQueue.OverflowPolicy.DROP_OLDEST), writer, () -> {});
+        List<String> received = new ArrayList<>();
+        store.deliver(recipient, session, frame -> {
+            ChatMessage message = ChatMessage.fromBytes(Arrays.copyOf(frame.array(), frame.length()));
+            received.add(message.getContent());
+            if (received.size() >= closeAfter) session.closed = true;
+            return frame.retain();
+        });
+        return received;
+    }
+
+    @Test
+    void deliversInOrderThenRemovesTheMailbox() throws IOException {
+        OfflineStore store = open(1 << 20, 1 << 30, HOUR);
+        for (int i = 0; i < 3; i++) assertEquals(OfflineStore.Result.STORED, store(store, "bob", "m" + i));
+        assertTrue(store.hasMail("bob"));
+        assertTrue(store.totalBytes() > 0);
+
+        assertEquals(List.of("m0", "m1", "m2"), deliver(store, "bob"));
+        assertFalse(store.hasMail("bob"));
+        assertEquals(0, store.totalBytes());
+        assertEquals(List.of(), deliver(store, "bob"));
+    }
+
+    @Test
+    void storesAgainAfterDelivery() throws IOException {
+        OfflineStore store = open(1 << 20, 1 << 30, HOUR);
+        store(store, "bob", "avant");
+        assertEquals(List.of("avant"), deliver(store, "bob"));
+        store(store, "bob", "après");
+        assertEquals(List.of("après"), deliver(store, "bob"));
+    }
+
+    @Test
+    void enforcesMailboxAndStoreLimits() throws IOException {
+        OfflineStore store = open(200, 300, HOUR);
+        assertEquals(OfflineStore.Result.STORED, store(store, "bob", "x".repeat(100)));
+        assertEquals(OfflineStore.Result.MAILBOX_FULL, store(store, "bob", "x".repeat(100)));
+        assertEquals(OfflineStore.Result.STORED, store(store, "carol", "x".repeat(100)));
+        assertEquals(OfflineStore.Result.STORE_FULL, store(store, "dave", "x".repeat(100)));
+        assertEquals(List.of("x".repeat(100)), deliver(store, "bob"));
+    }
+
+    @Test
+    void reloadsMailboxesAfterRestart() throws IOException {
+        OfflineStore first = open(1 << 20, 1 << 30, HOUR);
+        store(first, "bob", "un");
+        store(first, "bob", "deux");
+        long total = first.totalBytes();
+
+        OfflineStore second = open(1 << 20, 1 << 30, HOUR);
+        assertEquals(total, second.totalBytes());
+        assertTrue(second.hasMail("bob"));
+        assertEquals(List.of("un", "deux"), deliver(second, "bob"));
+    }
+
+    @Test
+    void dropsExpiredMessages() throws Exception {
+        OfflineStore store = open(1 << 20, 1 << 30, 1);
+        store(store, "bob", "trop tard");
+        Thread.sleep(20);
+        assertEquals(List.of(), deliver(store, "bob"));
+        assertFalse(Files.exists(directory.resolve("bob.mbox")));
+    }
+
+    @Test
+    void keepsWritingPastTheOpenChannelLimit() throws IOException {
+        OfflineStore store = open(1 << 20, 1 << 30, HOUR);
+        int recipients = 300;                           // plus que de canaux gardés ouverts
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < recipients; i++) {
+                assertEquals(OfflineStore.Result.STORED, store(store, "user" + i, i + "-" + round));
+            }
+        }
+        for (int i = 0; i < recipients; i++) {
+            assertEquals(List.of(i + "-0", i + "-1"), deliver(store, "user" + i));
+        }
+        assertEquals(0, store.totalBytes());
+    }
+
+    @Test
+    void keepsMessagesNotWrittenBeforeTheSessionCloses() throws IOException {
+        OfflineStore store = open(1 << 20, 1 << 30, HOUR);
+        for (int i = 0; i < 3; i++) store(store, "bob", "m" + i);
+
+        // seul le premier drain du writer tourne : m1 et m2 restent en file
+        boolean[] ran = { false };
+        Executor firstOnly = task -> {
+            if (!ran[0]) {
+                ran[0] = true;
+                task.run();
+            }
+        };
+        assertEquals(List.of("m0", "m1", "m2"), deliver(store, "bob", firstOnly, 1));
+        assertTrue(store.hasMail("bob"));
+        assertEquals(List.of("m1", "m2"), deliver(store, "bob"));
+        assertFalse(store.hasMail("bob"));
+    }
+
+    @Test
+    void keepsEverythingWhenNothingWasWritten() throws IOException {
+        OfflineStore store = open(1 << 20, 1 << 30, HOUR);
+        store(store, "bob", "un");
+        store(store, "bob", "deux");
+        long total = store.totalBytes();
+        assertEquals(List.of("un", "deux"), deliver(store, "bob", task -> {}, 1));
+        assertEquals(total, store.totalBytes());
+        assertEquals(List.of("un", "deux"), deliver(store, "bob"));
+    }
+
+    @Test
+    void forgetsAMailboxWhoseFileIsGone() throws IOException {
+        OfflineStore store = open(1 << 20, 1 << 30, HOUR);
+        store(store, "bob", "perdu");
+        Files.delete(directory.resolve("bob.mbox"));
+        assertTrue(store.hasMail("bob"));               // l'entrée de la boîte est encore là
+        assertEquals(List.of(), deliver(store, "bob"));
+        assertFalse(store.hasMail("bob"));
+        assertEquals(0, store.totalBytes());
+    }
+
+    @Test
+    void purgeKeepsCountingLiveMailboxes() throws Exception {
+        OfflineStore store = open(1 << 20, 1 << 30, 50);
+        store(store, "bob", "ancien");
+        Thread.sleep(100);
+        store(store, "carol", "récent");
+        store.purgeExpired();
+        assertFalse(Files.exists(directory.resolve("bob.mbox")));
+        assertTrue(store.totalBytes() > 0);
+        assertEquals(List.of("récent"), deliver(store, "carol"));
+        assertEquals(0, store.totalBytes());
+    }
+}
@@ -0,0 +1,166 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * OutboundQueue : un seul réveil du writer par vidage, limites en trames et
+ * en octets, politiques DROP_OLDEST, DROP_NEW et DISCONNECT. Une liaison de
+ * symbole ou une réponse n'est jamais jetée : elle échappe à la limite en
+ * trames, pas à celle en octets.
+ */
+class OutboundQueueTest {
+
+    private static EncodedFrame frame(int length) {
+        return new EncodedFrame(new byte[length]);
+    }
+
+    private static EncodedFrame frame(MessageType type, int length) {
+        return new EncodedFrame(new byte[length], length, null, type);
+    }
+
+    private static OutboundQueue queue(int maxFrames, long maxBytes, OutboundQueue.OverflowPolicy policy) {
+        return new OutboundQueue(maxFrames, maxBytes, policy);
+    }
+
+    @Test
+    void schedulesTheWriterOncePerDrain() {
+        OutboundQueue queue = queue(10, 1 << 20, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        assertEquals(OutboundQueue.Offer.SCHEDULE, queue.offer(frame(10)));
+        assertEquals(OutboundQueue.Offer.QUEUED, queue.offer(frame(10)));
+        assertEquals(20, queue.queuedBytes());
+        assertNotNull(queue.poll());
+        assertNotNull(queue.poll());
+        assertNull(queue.poll());                       // le writer s'arrête
+        assertEquals(0, queue.queuedBytes());
+        assertEquals(OutboundQueue.Offer.SCHEDULE, queue.offer(frame(10)));
+    }
+
+    @Test
+    void dropOldestKeepsTheNewestFrames() {
+        OutboundQueue queue = queue(2, 1 << 20, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        EncodedFrame b = frame(2);
+        EncodedFrame c = frame(3);
+        queue.offer(frame(1));
+        queue.offer(b);
+        assertEquals(OutboundQueue.Offer.DROPPED, queue.offer(c));
+        assertSame(b, queue.poll());
+        assertSame(c, queue.poll());
+        assertEquals(1, queue.droppedFrames());
+        assertEquals(1, queue.droppedBytes());
+    }
+
+    @Test
+    void dropOldestMakesRoomForTheBytes() {
+        OutboundQueue queue = queue(100, 100, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer(frame(40));
+        queue.offer(frame(40));
+        EncodedFrame big = frame(70);
+        assertEquals(OutboundQueue.Offer.DROPPED, queue.offer(big));
+        assertEquals(1, queue.size());
+        assertEquals(70, queue.queuedBytes());
+        assertEquals(2, queue.droppedFrames());
+        assertEquals(80, queue.droppedBytes());
+        assertSame(big, queue.poll());
+    }
+
+    @Test
+    void dropNewRejectsTheIncomingFrame() {
+        OutboundQueue queue = queue(2, 1 << 20, OutboundQueue.OverflowPolicy.DROP_NEW);
+        EncodedFrame a = frame(1);
+        EncodedFrame b = frame(2);
+        queue.offer(a);
+        queue.offer(b);
+        assertEquals(OutboundQueue.Offer.DROPPED, queue.offer(frame(3)));
+        assertSame(a, queue.poll());
+        assertSame(b, queue.poll());
+        assertNull(queue.poll());
+        assertEquals(3, queue.droppedBytes());
+    }
+
+    @Test
+    void disconnectReportsTheOverflow() {
+        OutboundQueue queue = queue(1, 1 << 20, OutboundQueue.OverflowPolicy.DISCONNECT);
+        queue.offer(frame(1));
+        assertEquals(OutboundQueue.Offer.OVERFLOW, queue.offer(frame(1)));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    void oversizedFramePassesAlone() {
+        OutboundQueue queue = queue(10, 100, OutboundQueue.OverflowPolicy.DROP_NEW);
+        assertEquals(OutboundQueue.Offer.SCHEDULE, queue.offer(frame(500)));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    void dropOldestSkipsSymbolBindings() {
+        OutboundQueue queue = queue(2, 1 << 20, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        EncodedFrame symbol = frame(MessageType.SYMBOL, 5);
+        EncodedFrame b = frame(2);
+        queue.offer(symbol);
+        queue.offer(frame(1));
+        queue.offer(b);
+        assertSame(symbol, queue.poll());
+        assertSame(b, queue.poll());
+        assertEquals(1, queue.droppedFrames());
+    }
+
+    @Test
+    void dropNewStillQueuesSymbolBindings() {
+        OutboundQueue queue = queue(2, 1 << 20, OutboundQueue.OverflowPolicy.DROP_NEW);
+        queue.offer(frame(1));
+        queue.offer(frame(2));
+        EncodedFrame symbol = frame(MessageType.SYMBOL, 5);
+        assertNotEquals(OutboundQueue.Offer.OVERFLOW, queue.offer(symbol));
+        assertEquals(0, queue.droppedFrames());
+        queue.poll();
+        queue.poll();
+        assertSame(symbol, queue.poll());
+    }
+
+    @Test
+    void neverDropsFileChunks() {
+        OutboundQueue queue = queue(1, 1 << 20, OutboundQueue.OverflowPolicy.DROP_NEW);
+        EncodedFrame first = frame(MessageType.FILE_CHUNK, 10);
+        EncodedFrame second = frame(MessageType.FILE_CHUNK, 10);
+        queue.offer(first);
+        assertNotEquals(OutboundQueue.Offer.DROPPED, queue.offer(second));
+        queue.offer(frame(1));
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+        assertEquals(1, queue.droppedFrames());
+    }
+
+    @Test
+    void pinnedFrameEvictsOrdinaryFramesForItsBytes() {
+        OutboundQueue queue = queue(10, 100, OutboundQueue.OverflowPolicy.DROP_NEW);
+        EncodedFrame symbol = frame(MessageType.SYMBOL, 40);
+        queue.offer(symbol);
+        queue.offer(frame(50));
+        EncodedFrame ack = frame(MessageType.ACK, 40);
+        assertEquals(OutboundQueue.Offer.DROPPED, queue.offer(ack));
+        assertSame(symbol, queue.poll());
+        assertSame(ack, queue.poll());
+        assertEquals(50, queue.droppedBytes());
+    }
+
+    @Test
+    void pinnedFrameOverflowsWhenOnlyPinnedFramesRemain() {
+        OutboundQueue queue = queue(10, 100, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer(frame(MessageType.SYMBOL, 60));
+        assertEquals(OutboundQueue.Offer.OVERFLOW, queue.offer(frame(MessageType.LOGIN_RESPONSE, 60)));
+        assertEquals(OutboundQueue.Offer.DROPPED, queue.offer(frame(60)));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    void clearEmptiesTheQueue() {
+        OutboundQueue queue = queue(10, 1 << 20, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer(frame(10));
+        queue.offer(frame(10));
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.queuedBytes());
+        assertEquals(0, queue.droppedFrames());
+    }
+}
@@ -0,0 +1,210 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * RoomHistories : anneau borné par salon, relecture du journal projeté après
+ * éviction ou redémarrage (hors du thread appelant), arrêt à la première trame corrompue, noms de
+ * fichiers sûrs et bornés. Seul un salon ouvert (live) garde un historique.
+ */
+class RoomHistoryTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<RoomHistories> opened = new ArrayList<>();
+    private final Set<String> live = new CopyOnWriteArraySet<>(List.of("General", "Other"));
+
+    @AfterEach
+    void closeHistories() {
+        for (RoomHistories histories : opened) histories.close();
+    }
+
+    private RoomHistories open(int maxFrames, Path directory) {
+        RoomHistories histories = new RoomHistories(maxFrames, directory, live::contains);
+        opened.add(histories);
+        return histories;
+    }
+
+    private static EncodedFrame frame(String text) {
+        return EncodedFrame.of(new ChatMessage(MessageType.TEXT_MESSAGE, "alice", null, "General", text),
+                ChatMessage.VERSION_BINARY);
+    }
+
+    private static void append(RoomHistories histories, String room, String... texts) {
+        for (String text : texts) {
+            EncodedFrame frame = frame(text);
+            histories.append(room, frame);
+            frame.release();
+        }
+    }
+
+    private static List<String> contents(RoomHistories histories, String room) {
+        List<String> contents = new ArrayList<>();
+        for (EncodedFrame frame : histories.snapshot(room)) {
+            contents.add(ChatMessage.fromBytes(frame.array()).getContent());
+            frame.release();
+        }
+        return contents;
+    }
+
+    @Test
+    void keepsTheNewestFramesOfEachRoom() {
+        RoomHistories histories = open(3, null);
+        append(histories, "General", "m0", "m1", "m2", "m3", "m4");
+        append(histories, "Other", "x");
+        assertEquals(List.of("m2", "m3", "m4"), contents(histories, "General"));
+        assertEquals(List.of("x"), contents(histories, "Other"));
+    }
+
+    @Test
+    void disabledHistoryKeepsNothing() {
+        RoomHistories histories = open(0, directory);
+        assertFalse(histories.enabled());
+        append(histories, "General", "m0");
+        assertEquals(List.of(), contents(histories, "General"));
+    }
+
+    @Test
+    void reloadsAnEvictedRoomFromItsLog() {
+        RoomHistories histories = open(10, directory);
+        append(histories, "General", "a", "b", "c");
+        histories.evict("General");                     // encore ouvert : rien ne bouge
+        live.remove("General");
+        histories.evict("General");
+        live.add("General");                            // rejoint : relu depuis le journal
+        assertEquals(List.of("a", "b", "c"), contents(histories, "General"));
+    }
+
+    @Test
+    void resumesTheLogAfterARestart() {
+        RoomHistories first = open(3, directory);
+        append(first, "General", "a", "b");
+        first.close();
+
+        RoomHistories second = open(3, directory);
+        assertEquals(List.of("a", "b"), contents(second, "General"));
+        append(second, "General", "c", "d");
+        second.close();
+
+        assertEquals(List.of("b", "c", "d"), contents(open(3, directory), "General"));
+    }
+
+    @Test
+    void appendsWhileLoadingFollowTheLog() {
+        RoomHistories first = open(10, directory);
+        append(first, "General", "a", "b");
+        first.close();
+
+        // le journal est relu sur le thread de chargement : "c" arrive pendant ou après
+        RoomHistories second = open(10, directory);
+        append(second, "General", "c");
+        assertEquals(List.of("a", "b", "c"), contents(second, "General"));
+        second.close();
+        assertEquals(List.of("a", "b", "c"), contents(open(10, directory), "General"));
+    }
+
+    @Test
+    void keepsAtMostMaxMappedLogs() {
+        RoomHistories histories = new RoomHistories(10, directory, live::contains, 1);
+        opened.add(histories);
+        append(histories, "General", "a");
+        assertEquals(List.of("a"), contents(histories, "General"));
+        append(histories, "Other", "x");
+        assertEquals(List.of("x"), contents(histories, "Other"));
+        assertEquals(1, histories.mappedLogs());
+
+        // le journal relâché reprend à la même position
+        append(histories, "General", "b");
+        assertEquals(1, histories.mappedLogs());
+        histories.close();
+
+        RoomHistories reopened = open(10, directory);
+        assertEquals(List.of("a", "b"), contents(reopened, "General"));
+        assertEquals(List.of("x"), contents(reopened, "Other"));
+    }
+
+    @Test
+    void releasesIdleLogs() {
+        RoomHistories histories = open(10, directory);
+        append(histories, "General", "a");
+        assertEquals(List.of("a"), contents(histories, "General"));
+        assertEquals(1, histories.mappedLogs());
+        histories.parkIdle(TimeUnit.HOURS.toNanos(1));      // utilisé à l'instant
+        assertEquals(1, histories.mappedLogs());
+        histories.parkIdle(0);
+        assertEquals(0, histories.mappedLogs());
+
+        append(histories, "General", "b");
+        assertEquals(1, histories.mappedLogs());
+        histories.close();
+        assertEquals(List.of("a", "b"), contents(open(10, directory), "General"));
+    }
+
+    @Test
+    void stopsLoadingAtACorruptedFrame() throws IOException {
+        RoomHistories histories = open(10, directory);
+        append(histories, "General", "a", "b", "c");
+        histories.close();
+
+        EncodedFrame first = frame("a");
+        int corrupted = first.length() + 12;            // dans le corps de la deuxième trame
+        first.release();
+        try (FileChannel segment = FileChannel.open(directory.resolve("General.0.seg"),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            segment.read(b, corrupted);
+            b.flip();
+            b.put(0, (byte) (b.get(0) ^ 0x5A));
+            segment.write(b, corrupted);
+        }
+        assertEquals(List.of("a"), contents(open(10, directory), "General"));
+    }
+
+    @Test
+    void closedRoomKeepsNoHistoryInMemory() {
+        RoomHistories histories = open(10, null);
+        live.remove("General");
+        append(histories, "General", "trop tard");      // diffusion restée en file après la fermeture
+        assertEquals(List.of(), contents(histories, "General"));
+    }
+
+    @Test
+    void escapesRoomNamesForFiles() {
+        assertEquals("General_2-b", HistoryLog.fileName("General_2-b"));
+        assertEquals("a%20b%2F%C3%A9", HistoryLog.fileName("a b/é"));
+        assertEquals("%2E%2E", HistoryLog.fileName(".."));
+    }
+
+    @Test
+    void hashesLongRoomNames() {
+        String a = "é".repeat(200) + "a";
+        String b = "é".repeat(200) + "b";
+        String name = HistoryLog.fileName(a);
+        assertTrue(name.length() <= HistoryLog.MAX_NAME);
+        assertTrue(name.matches("(%[0-9A-F]{2})+~[0-9a-f]{32}"), name);
+        assertNotEquals(name, HistoryLog.fileName(b));
+        assertEquals(name, HistoryLog.fileName(a));
+        assertEquals("x".repeat(HistoryLog.MAX_NAME), HistoryLog.fileName("x".repeat(HistoryLog.MAX_NAME)));
+
+        // le journal d'un salon au nom très long s'écrit et se relit
+        live.add(a);
+        RoomHistories histories = open(10, directory);
+        append(histories, a, "long");
+        histories.close();
+        assertEquals(List.of("long"), contents(open(10, directory), a));
+    }
+}
@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * Symbols : un identifiant par nom tant qu'un porteur le garde, emplacement
+ * réutilisé sous une nouvelle génération après le dernier release() ;
+ * IdTable grandit par pages ; SymbolTable ne résout que ses liaisons et
+ * purge celles qui sont mortes en grandissant.
+ */
+class SymbolsTest {
+
+    @Test
+    void internsEachNameOnce() {
+        Symbols symbols = new Symbols();
+        int alice = symbols.intern("alice");
+        int general = symbols.intern("General");
+        assertNotEquals(Symbols.NONE, alice);
+        assertNotEquals(alice, general);
+        assertEquals(alice, symbols.intern("alice"));
+        assertEquals("alice", symbols.name(alice));
+        assertEquals("General", symbols.name(general));
+        assertEquals(2, symbols.size());
+    }
+
+    @Test
+    void unknownIdsResolveToNothing() {
+        Symbols symbols = new Symbols();
+        assertEquals(Symbols.NONE, symbols.intern(null));
+        assertNull(symbols.name(Symbols.NONE));
+        assertNull(symbols.name(12345));
+        assertNull(symbols.name(-1));
+        assertNull(symbols.name(Symbols.LIMIT));
+    }
+
+    @Test
+    void keepsTheNameUntilTheLastHolderReleasesIt() {
+        Symbols symbols = new Symbols();
+        int alice = symbols.intern("alice");            // l'utilisateur
+        assertEquals(alice, symbols.intern("alice"));   // un salon du même nom
+        symbols.release(alice);
+        assertTrue(symbols.isLive(alice));
+        symbols.release(alice);
+        assertFalse(symbols.isLive(alice));
+        assertNull(symbols.name(alice));
+        assertEquals(0, symbols.size());
+    }
+
+    @Test
+    void reusedSlotGetsANewGeneration() {
+        Symbols symbols = new Symbols();
+        int alice = symbols.intern("alice");
+        symbols.release(alice);
+        int bob = symbols.intern("bob");
+        assertEquals(Symbols.slot(alice), Symbols.slot(bob));
+        assertNotEquals(alice, bob);
+        assertNull(symbols.name(alice));                // l'ancien identifiant ne désigne pas bob
+        assertEquals("bob", symbols.name(bob));
+        assertTrue(bob > 0 && bob < Symbols.LIMIT);
+        symbols.release(alice);                         // déjà libéré : sans effet sur bob
+        assertEquals("bob", symbols.name(bob));
+    }
+
+    @Test
+    void generationWrapsWithinTheLimit() {
+        Symbols symbols = new Symbols();
+        int id = symbols.intern("n");
+        for (int i = 0; i < 2000; i++) {
+            symbols.release(id);
+            id = symbols.intern("n" + i);
+            assertTrue(id > 0 && id < Symbols.LIMIT, "id " + id);
+            assertEquals(1, Symbols.slot(id));
+        }
+    }
+
+    @Test
+    void idTableGrowsByPages() {
+        IdTable<String> table = new IdTable<>();
+        assertNull(table.get(5000));
+        table.set(5000, "far");
+        table.set(1, "near");
+        assertEquals("far", table.get(5000));
+        assertEquals("near", table.get(1));
+        assertFalse(table.compareAndSet(1, "other", "x"));
+        assertTrue(table.compareAndSet(1, "near", "x"));
+        assertEquals("x", table.get(1));
+    }
+
+    @Test
+    void symbolTableResolvesOnlyItsOwnBindings() {
+        SymbolTable table = new SymbolTable();
+        for (int id = 1; id <= 1000; id++) table.put(id, "n" + id, live -> true);
+        table.put(7, "n7", live -> true);
+        for (int id = 1; id <= 1000; id++) assertEquals("n" + id, table.get(id), "id " + id);
+        assertNull(table.get(1001));
+        assertNull(table.get(Symbols.NONE));
+        assertFalse(table.contains(1001));
+    }
+
+    @Test
+    void symbolTableDropsDeadBindingsWhenItGrows() {
+        SymbolTable table = new SymbolTable();
+        for (int id = 1; id <= 8; id++) table.put(id, "n" + id, live -> true);
+        table.put(100, "n100", id -> id % 2 == 0);      // la table grandit : les impairs sont morts
+        assertEquals("n2", table.get(2));
+        assertEquals("n100", table.get(100));
+        assertNull(table.get(1));
+        assertNull(table.get(7));
+    }
+}
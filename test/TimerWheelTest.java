@@ -0,0 +1,68 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * TimerWheel : échéances à un tick près, y compris au-delà d'un tour de roue,
+ * et une tâche qui échoue n'arrête pas la roue. Roue de 8 cases de 10 ms.
+ */
+class TimerWheelTest {
+
+    private final TimerWheel wheel = new TimerWheel("test-wheel", 10, 8);
+
+    @Test
+    void roundsDelaysUpToWholeTicks() {
+        assertEquals(1, wheel.ticks(0));
+        assertEquals(1, wheel.ticks(10));
+        assertEquals(2, wheel.ticks(11));
+        assertEquals(100, wheel.ticks(1000));
+    }
+
+    @Test
+    void runsTaskAfterItsDelay() throws InterruptedException {
+        assertDelay(5);
+    }
+
+    @Test
+    void waitsForLaterTurnsOfTheWheel() throws InterruptedException {
+        assertDelay(20);                                // deux tours et demi
+    }
+
+    @Test
+    void runsEveryScheduledTask() throws InterruptedException {
+        int tasks = 1000;
+        CountDownLatch done = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            wheel.schedule(done::countDown, ThreadLocalRandom.current().nextInt(1, 30));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS), done.getCount() + " tasks left");
+    }
+
+    @Test
+    void failingTaskDoesNotStopTheWheel() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        wheel.schedule(() -> { throw new IllegalStateException("test"); }, 1);
+        wheel.schedule(done::countDown, 2);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        long tick = wheel.now();
+        Thread.sleep(50);
+        assertTrue(wheel.now() > tick);
+    }
+
+    // compté en ticks de la roue : armée au tick t, jamais lancée avant t + delayTicks
+    private void assertDelay(long delayTicks) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        long[] ranAt = new long[1];
+        long armedAt = wheel.now();
+        wheel.schedule(() -> {
+            ranAt[0] = wheel.now();
+            done.countDown();
+        }, delayTicks);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(ranAt[0] - armedAt >= delayTicks, "ran after " + (ranAt[0] - armedAt) + " ticks");
+    }
+}
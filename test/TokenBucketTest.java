@@ -0,0 +1,59 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * TokenBucket : une seconde de débit en réserve, refus au-delà de la
+ * capacité, refus sans rien prendre, remplissage avec le temps.
+ */
+class TokenBucketTest {
+
+    @Test
+    void zeroRateMeansNoLimit() {
+        TokenBucket bucket = TokenBucket.perSecond(0);
+        assertSame(TokenBucket.UNLIMITED, bucket);
+        for (int i = 0; i < 10_000; i++) assertTrue(bucket.tryAcquire(1_000_000));
+    }
+
+    @Test
+    void holdsOneSecondOfTokens() {
+        TokenBucket bucket = TokenBucket.perSecond(10);
+        for (int i = 0; i < 10; i++) assertTrue(bucket.tryAcquire(1), "token " + i);
+        assertFalse(bucket.tryAcquire(1));
+    }
+
+    @Test
+    void rejectsRequestsAboveTheCapacity() {
+        TokenBucket bucket = TokenBucket.perSecond(10);
+        assertFalse(bucket.tryAcquire(11));
+        assertFalse(bucket.tryAcquire(Long.MAX_VALUE));
+        assertFalse(bucket.tryAcquire(-1));
+        assertTrue(bucket.tryAcquire(10));              // le seau plein, rien pris avant
+        assertFalse(bucket.tryAcquire(1));
+    }
+
+    @Test
+    void hugeCostsDoNotOverflow() {
+        // capacité d'environ 1e21 ns : saturée, le deuxième jeton ne repasse pas
+        TokenBucket bucket = TokenBucket.perSecond(1e-12);
+        assertTrue(bucket.tryAcquire(1));
+        assertFalse(bucket.tryAcquire(1));
+    }
+
+    @Test
+    void refusedRequestTakesNothing() {
+        TokenBucket bucket = TokenBucket.perSecond(10);
+        for (int i = 0; i < 5; i++) assertTrue(bucket.tryAcquire(1));
+        assertFalse(bucket.tryAcquire(100));
+        for (int i = 0; i < 5; i++) assertTrue(bucket.tryAcquire(1), "token " + i);
+    }
+
+    @Test
+    void refillsOverTime() throws InterruptedException {
+        TokenBucket bucket = TokenBucket.perSecond(1000);
+        for (int i = 0; i < 1000; i++) bucket.tryAcquire(1);
+        assertFalse(bucket.tryAcquire(100));
+        Thread.sleep(200);                              // au moins 200 jetons rendus
+        assertTrue(bucket.tryAcquire(100));
+    }
+}